@@ -0,0 +1,261 @@
+package com.openai.chatbot.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.openai.chatbot.dto.ConversationSummaryDto;
+import com.openai.chatbot.dto.MessageDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache for the two hottest conversation reads: the first page of a user's conversation list
+ * (sidebar refresh) and the latest messages of a conversation (opening it).
+ * Entries live in a Caffeine cache bounded by their estimated size in bytes, backed by an optional
+ * {@link ConversationCacheTier} shared between nodes. Writers evict exactly the entries they change,
+ * both immediately and again after their transaction commits. Every eviction bumps the key's generation, and a
+ * read caches what it loaded only if no eviction happened while it was loading, so a read that loaded the
+ * pre-commit state cannot put it back after the commit's eviction. Another node's eviction only reaches this node's
+ * generations once the shared tier relays it; until then a racing read may still store a stale entry in the shared
+ * tier, which expires after {@code chat.conversation-cache.local-ttl}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationCache {
+
+    private static final String CACHE_NAME = "chat.conversations";
+    private static final String LIST_PREFIX = "conversations:list:";
+    private static final String TAIL_PREFIX = "conversations:tail:";
+
+    /**
+     * Estimated fixed cost of an entry and of each item in it, on top of its character data.
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final int ITEM_OVERHEAD_BYTES = 96;
+
+    /**
+     * Keys share generation counters by hash; a collision only skips caching a load, it never keeps stale data.
+     */
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final MeterRegistry meterRegistry;
+    private final ObjectProvider<ConversationCacheTier> sharedTierProvider;
+
+    @Value("${chat.conversation-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.conversation-cache.max-weight-bytes:33554432}")
+    private long maxWeightBytes;
+
+    /**
+     * Bounds how long a node may serve an entry another node has already invalidated.
+     */
+    @Value("${chat.conversation-cache.local-ttl:10m}")
+    private Duration localTtl;
+
+    /**
+     * Number of conversations kept per cached list; larger first pages bypass the cache.
+     */
+    @Value("${chat.conversation-cache.list-size:20}")
+    private int listSize;
+
+    /**
+     * Number of messages kept per cached tail; larger tail requests bypass the cache.
+     */
+    @Value("${chat.conversation-cache.tail-size:50}")
+    private int tailSize;
+
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private Cache<String, Object> local;
+    private ConversationCacheTier sharedTier;
+
+    /**
+     * Newest conversations of a user, most recently updated first, with their internal IDs for the next-page cursor.
+     * Holds one row more than {@link #getListSize()} when another page follows.
+     */
+    public record ConversationListEntry(List<ConversationSummaryDto> conversations, List<Long> ids) {
+    }
+
+    /**
+     * Latest user/assistant messages of a conversation, newest first.
+     * Holds one message more than {@link #getTailSize()} when older messages exist.
+     */
+    public record MessageTailEntry(List<MessageDto> messages) {
+    }
+
+    @PostConstruct
+    void init() {
+        local = Caffeine.newBuilder()
+                .maximumWeight(maxWeightBytes)
+                .weigher((String key, Object value) -> weigh(value))
+                .expireAfterWrite(localTtl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, local, CACHE_NAME);
+        sharedTier = sharedTierProvider.getIfAvailable();
+        if (sharedTier != null) {
+            log.info("Conversation cache shared tier: {}", sharedTier.getClass().getName());
+        }
+    }
+
+    public int getListSize() {
+        return listSize;
+    }
+
+    public int getTailSize() {
+        return tailSize;
+    }
+
+    /**
+     * Returns the cached conversation list of a user, loading and caching it on a miss.
+     *
+     * @param userUuid the UUID of the user
+     * @param loader   reads the newest {@link #getListSize()} + 1 conversations
+     * @return the cached or freshly loaded entry
+     */
+    public ConversationListEntry getConversationList(UUID userUuid, Supplier<ConversationListEntry> loader) {
+        return get(LIST_PREFIX + userUuid, ConversationListEntry.class, loader);
+    }
+
+    /**
+     * Returns the cached message tail of a conversation, loading and caching it on a miss.
+     *
+     * @param conversationId the public UUID of the conversation
+     * @param loader         reads the newest {@link #getTailSize()} + 1 messages
+     * @return the cached or freshly loaded entry
+     */
+    public MessageTailEntry getMessageTail(UUID conversationId, Supplier<MessageTailEntry> loader) {
+        return get(TAIL_PREFIX + conversationId, MessageTailEntry.class, loader);
+    }
+
+    /**
+     * Invalidates a user's cached conversation list.
+     *
+     * @param userUuid the UUID of the user
+     */
+    public void evictConversationList(UUID userUuid) {
+        evict(LIST_PREFIX + userUuid);
+    }
+
+    /**
+     * Invalidates a conversation's cached message tail.
+     *
+     * @param conversationId the public UUID of the conversation
+     */
+    public void evictMessageTail(UUID conversationId) {
+        evict(TAIL_PREFIX + conversationId);
+    }
+
+    /**
+     * Drops an entry from this node only. Called by shared tier implementations relaying another node's eviction.
+     *
+     * @param key the cache key
+     */
+    public void evictLocal(String key) {
+        generations.incrementAndGet(stripe(key));
+        local.invalidate(key);
+    }
+
+    private <T> T get(String key, Class<T> type, Supplier<T> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Object cached = local.getIfPresent(key);
+        if (type.isInstance(cached)) {
+            return type.cast(cached);
+        }
+        long generation = generations.get(stripe(key));
+        if (sharedTier != null) {
+            Optional<T> shared = sharedTier.get(key, type);
+            if (shared.isPresent()) {
+                putIfCurrent(key, shared.get(), generation, false);
+                return shared.get();
+            }
+        }
+        T loaded = loader.get();
+        putIfCurrent(key, loaded, generation, sharedTier != null);
+        return loaded;
+    }
+
+    /**
+     * Caches a value read at the given generation unless the key has been evicted since. The generation is checked
+     * again after storing, because an eviction can run between the check and the put; it then removes the value.
+     */
+    private void putIfCurrent(String key, Object value, long generation, boolean shared) {
+        int stripe = stripe(key);
+        if (generations.get(stripe) != generation) {
+            return;
+        }
+        local.put(key, value);
+        if (shared) {
+            sharedTier.put(key, value, localTtl);
+        }
+        if (generations.get(stripe) != generation) {
+            local.asMap().remove(key, value);
+            if (shared) {
+                sharedTier.evict(key);
+            }
+        }
+    }
+
+    private void evict(String key) {
+        if (!enabled) {
+            return;
+        }
+        evictEverywhere(key);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evictEverywhere(key);
+                }
+            });
+        }
+    }
+
+    private void evictEverywhere(String key) {
+        generations.incrementAndGet(stripe(key));
+        local.invalidate(key);
+        if (sharedTier != null) {
+            sharedTier.evict(key);
+        }
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode(), GENERATION_STRIPES);
+    }
+
+    private static int weigh(Object value) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        if (value instanceof ConversationListEntry list) {
+            for (ConversationSummaryDto conversation : list.conversations()) {
+                bytes += ITEM_OVERHEAD_BYTES + chars(conversation.getTitle());
+            }
+        } else if (value instanceof MessageTailEntry tail) {
+            for (MessageDto message : tail.messages()) {
+                bytes += ITEM_OVERHEAD_BYTES + chars(message.getRole()) + chars(message.getContent());
+            }
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private static long chars(String value) {
+        return value == null ? 0 : 2L * value.length();
+    }
+}
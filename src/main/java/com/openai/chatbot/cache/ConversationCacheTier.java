@@ -0,0 +1,39 @@
+package com.openai.chatbot.cache;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Optional shared (e.g. Redis-backed) second tier of the conversation read cache for multi-node deployments.
+ * Register an implementation as a bean to enable it; without one, caching stays in-process.
+ * Values are the {@link ConversationCache} entry records and must be serialized by the implementation.
+ * Implementations should also relay evictions to the other nodes so they can drop their local copies
+ * through {@link ConversationCache#evictLocal(String)}.
+ */
+public interface ConversationCacheTier {
+
+    /**
+     * Looks up an entry.
+     *
+     * @param key  the cache key
+     * @param type the expected entry type
+     * @return the entry, or empty if absent
+     */
+    <T> Optional<T> get(String key, Class<T> type);
+
+    /**
+     * Stores an entry that expires after the given time.
+     *
+     * @param key   the cache key
+     * @param value the entry
+     * @param ttl   how long the entry may be served
+     */
+    void put(String key, Object value, Duration ttl);
+
+    /**
+     * Removes an entry.
+     *
+     * @param key the cache key
+     */
+    void evict(String key);
+}
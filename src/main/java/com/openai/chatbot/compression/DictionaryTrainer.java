@@ -0,0 +1,140 @@
+package com.openai.chatbot.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Trains a preset dictionary for DEFLATE from sample messages.
+ * Follows the idea of zstd's COVER trainer: every 8-byte substring is scored by the number of samples it occurs
+ * in, and the sample segments covering the most frequent substrings not yet covered are picked greedily.
+ * Substrings seen in a single sample are never picked, since a dictionary only helps with what recurs across
+ * messages. DEFLATE finds short distances cheaper to encode, so the best segments go at the end.
+ */
+public final class DictionaryTrainer {
+
+    /**
+     * Length of the substrings scored, in bytes.
+     */
+    static final int K = 8;
+
+    /**
+     * Length of the sample segments copied into the dictionary, in bytes.
+     */
+    static final int SEGMENT_LENGTH = 64;
+
+    private DictionaryTrainer() {
+    }
+
+    /**
+     * Trains a dictionary.
+     *
+     * @param samples the sample messages, UTF-8 encoded
+     * @param maxSize the maximum dictionary size in bytes; DEFLATE uses at most the last 32 KiB
+     * @return the dictionary, empty if the samples share nothing worth keeping
+     */
+    public static byte[] train(List<byte[]> samples, int maxSize) {
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + K <= sample.length; i++) {
+                seen.add(kmer(sample, i));
+            }
+            for (Long kmer : seen) {
+                frequency.merge(kmer, 1, Integer::sum);
+            }
+        }
+
+        // Candidate segments overlap by half so a run of frequent substrings is not split badly
+        PriorityQueue<Segment> candidates = new PriorityQueue<>((a, b) -> Integer.compare(b.score, a.score));
+        for (byte[] sample : samples) {
+            for (int start = 0; start + K <= sample.length; start += SEGMENT_LENGTH / 2) {
+                int end = Math.min(start + SEGMENT_LENGTH, sample.length);
+                Segment segment = new Segment(sample, start, end);
+                segment.score = score(segment, frequency);
+                if (segment.score > 0) {
+                    candidates.add(segment);
+                }
+            }
+        }
+
+        List<Segment> picked = new ArrayList<>();
+        int size = 0;
+        while (!candidates.isEmpty() && size < maxSize) {
+            Segment best = candidates.poll();
+            // Scores only drop as substrings get covered; re-queue a stale one behind its current score
+            int score = score(best, frequency);
+            if (score <= 0) {
+                continue;
+            }
+            if (!candidates.isEmpty() && score < candidates.peek().score) {
+                best.score = score;
+                candidates.add(best);
+                continue;
+            }
+            for (int i = best.start; i + K <= best.end; i++) {
+                frequency.remove(kmer(best.sample, i));
+            }
+            picked.add(best);
+            size += best.end - best.start;
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(Math.min(size, maxSize));
+        for (int i = picked.size() - 1; i >= 0; i--) {
+            Segment segment = picked.get(i);
+            dictionary.write(segment.sample, segment.start, segment.end - segment.start);
+        }
+        byte[] bytes = dictionary.toByteArray();
+        if (bytes.length <= maxSize) {
+            return bytes;
+        }
+        byte[] trimmed = new byte[maxSize];
+        System.arraycopy(bytes, bytes.length - maxSize, trimmed, 0, maxSize);
+        return trimmed;
+    }
+
+    /**
+     * Sums the frequencies of the segment's distinct substrings that recur across samples.
+     */
+    private static int score(Segment segment, Map<Long, Integer> frequency) {
+        Set<Long> seen = new HashSet<>();
+        int score = 0;
+        for (int i = segment.start; i + K <= segment.end; i++) {
+            long kmer = kmer(segment.sample, i);
+            if (seen.add(kmer)) {
+                int count = frequency.getOrDefault(kmer, 0);
+                if (count > 1) {
+                    score += count;
+                }
+            }
+        }
+        return score;
+    }
+
+    private static long kmer(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < K; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static final class Segment {
+
+        private final byte[] sample;
+        private final int start;
+        private final int end;
+        private int score;
+
+        Segment(byte[] sample, int start, int end) {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
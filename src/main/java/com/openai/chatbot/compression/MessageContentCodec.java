@@ -0,0 +1,296 @@
+package com.openai.chatbot.compression;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed storage format for message bodies.
+ * Bodies of at least {@code chat.message-compression.threshold} bytes are stored in
+ * {@code messages.content_compressed} as raw DEFLATE with a preset dictionary trained on recent messages;
+ * shorter ones, and bodies that would not shrink, stay in {@code messages.content} as text.
+ * A stored value starts with a format byte and the 4-byte ID of its dictionary (0 for none), so dictionaries
+ * can be retrained without rewriting old rows. Dictionaries live in {@code message_dictionaries} and are never
+ * deleted; one trained on another node is loaded on first use.
+ * Compression is optional: with {@code chat.message-compression.enabled=false} new bodies are stored as text,
+ * while compressed rows are still read. Bytes before and after compression are counted in
+ * {@code chat.message-compression.bytes} tagged {@code type}, and the CPU time spent in
+ * {@code chat.message-compression.time} tagged {@code operation}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MessageContentCodec {
+
+    static final byte FORMAT_DEFLATE = 1;
+
+    static final int HEADER_LENGTH = 5;
+
+    /**
+     * Dictionary ID of values compressed without a dictionary.
+     */
+    static final int NO_DICTIONARY = 0;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+    @Value("${chat.message-compression.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * Minimum UTF-8 size of a body worth compressing, in bytes.
+     */
+    @Value("${chat.message-compression.threshold:1024}")
+    private int threshold;
+
+    @Value("${chat.message-compression.level:6}")
+    private int level;
+
+    private volatile int currentDictionaryId = NO_DICTIONARY;
+
+    private Counter rawBytes;
+    private Counter compressedBytes;
+    private Timer compressTime;
+    private Timer decompressTime;
+
+    @PostConstruct
+    void init() {
+        rawBytes = bytes("raw");
+        compressedBytes = bytes("compressed");
+        compressTime = time("compress");
+        decompressTime = time("decompress");
+        reloadCurrentDictionary();
+    }
+
+    /**
+     * Returns whether new bodies are compressed.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the minimum size of a body worth compressing, in bytes.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the ID of the dictionary new bodies are compressed with, or 0 if none has been trained.
+     */
+    public int getCurrentDictionaryId() {
+        return currentDictionaryId;
+    }
+
+    /**
+     * Compresses a body for storage.
+     *
+     * @param content the message body
+     * @return the stored value, or null if the body should be stored as text
+     */
+    public byte[] compress(String content) {
+        if (!enabled || content == null) {
+            return null;
+        }
+        byte[] raw = content.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < threshold) {
+            return null;
+        }
+        long start = System.nanoTime();
+        int dictionaryId = currentDictionaryId;
+        byte[] compressed = deflate(raw, dictionaryId, dictionary(dictionaryId), level);
+        compressTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (compressed.length >= raw.length) {
+            return null;
+        }
+        rawBytes.increment(raw.length);
+        compressedBytes.increment(compressed.length);
+        return compressed;
+    }
+
+    /**
+     * Decompresses a stored value.
+     *
+     * @param stored the value written by {@link #compress(String)}
+     * @return the message body
+     */
+    public String decompress(byte[] stored) {
+        long start = System.nanoTime();
+        try {
+            ByteBuffer header = ByteBuffer.wrap(stored, 0, HEADER_LENGTH);
+            byte format = header.get();
+            if (format != FORMAT_DEFLATE) {
+                throw new IllegalStateException("Unknown message compression format " + format);
+            }
+            return inflate(stored, dictionary(header.getInt()));
+        } finally {
+            decompressTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Reads a body from the two content columns of a {@code messages} row.
+     *
+     * @param content           the {@code content} column
+     * @param contentCompressed the {@code content_compressed} column
+     * @return the message body
+     */
+    public String read(String content, byte[] contentCompressed) {
+        return contentCompressed != null ? decompress(contentCompressed) : content;
+    }
+
+    /**
+     * Stores a newly trained dictionary and compresses new bodies with it from now on.
+     *
+     * @param dictionary  the dictionary
+     * @param sampleCount the number of messages it was trained on
+     * @return the dictionary's ID
+     */
+    public int addDictionary(byte[] dictionary, int sampleCount) {
+        Integer id = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) + 1 FROM message_dictionaries",
+                Integer.class);
+        try {
+            jdbcTemplate.update("INSERT INTO message_dictionaries (id, content, sample_count) VALUES (?, ?, ?)",
+                    id, dictionary, sampleCount);
+        } catch (DuplicateKeyException ex) {
+            // Another node stored one first; use the newest instead
+            log.info("Message dictionary {} was trained concurrently, using the stored one", id);
+            reloadCurrentDictionary();
+            return currentDictionaryId;
+        }
+        dictionaries.put(id, dictionary);
+        currentDictionaryId = id;
+        log.info("Compressing message bodies with dictionary {} ({} bytes from {} samples)",
+                id, dictionary.length, sampleCount);
+        return id;
+    }
+
+    /**
+     * Switches to the newest stored dictionary, which may have been trained on another node.
+     */
+    public void reloadCurrentDictionary() {
+        Integer newest = jdbcTemplate.queryForObject("SELECT MAX(id) FROM message_dictionaries", Integer.class);
+        if (newest != null) {
+            dictionary(newest);
+            currentDictionaryId = newest;
+        }
+    }
+
+    /**
+     * Compresses a body as {@link #compress(String)} would with the given dictionary and level, without
+     * the threshold or metrics. Used to compare settings.
+     *
+     * @param raw        the UTF-8 body
+     * @param dictionary the dictionary, or null for none
+     * @param level      the DEFLATE level
+     * @return the stored value
+     */
+    public static byte[] deflate(byte[] raw, byte[] dictionary, int level) {
+        return deflate(raw, NO_DICTIONARY, dictionary, level);
+    }
+
+    /**
+     * Decompresses a value written by {@link #deflate(byte[], byte[], int)}.
+     *
+     * @param stored     the stored value
+     * @param dictionary the dictionary it was compressed with, or null for none
+     * @return the message body
+     */
+    public static String inflate(byte[] stored, byte[] dictionary) {
+        Inflater inflater = new Inflater(true);
+        try {
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            inflater.setInput(stored, HEADER_LENGTH, stored.length - HEADER_LENGTH);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated compressed message body");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Corrupt compressed message body", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] raw, int dictionaryId, byte[] dictionary, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + HEADER_LENGTH);
+            out.write(FORMAT_DEFLATE);
+            out.writeBytes(ByteBuffer.allocate(4).putInt(dictionaryId).array());
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns a dictionary by ID, loading it on first use; null for {@link #NO_DICTIONARY}.
+     */
+    private byte[] dictionary(int id) {
+        if (id == NO_DICTIONARY) {
+            return null;
+        }
+        return dictionaries.computeIfAbsent(id, key -> {
+            List<byte[]> rows = jdbcTemplate.query("SELECT content FROM message_dictionaries WHERE id = ?",
+                    (rs, rowNum) -> rs.getBytes("content"), key);
+            if (rows.isEmpty()) {
+                throw new IllegalStateException("Unknown message dictionary " + key);
+            }
+            return rows.get(0);
+        });
+    }
+
+    private Counter bytes(String type) {
+        return Counter.builder("chat.message-compression.bytes")
+                .description("Size of compressed message bodies before and after compression")
+                .tag("type", type)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private Timer time(String operation) {
+        return Timer.builder("chat.message-compression.time")
+                .description("Time spent compressing and decompressing message bodies")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+}
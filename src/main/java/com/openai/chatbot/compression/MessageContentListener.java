@@ -0,0 +1,32 @@
+package com.openai.chatbot.compression;
+
+import com.openai.chatbot.entity.Message;
+import jakarta.persistence.PostLoad;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves a {@link Message}'s body between its text and compressed columns, so the rest of the application
+ * only sees {@link Message#getContent()}. Instantiated by Hibernate through Spring's bean container.
+ */
+@Component
+@RequiredArgsConstructor
+public class MessageContentListener {
+
+    private final MessageContentCodec codec;
+
+    @PrePersist
+    @PreUpdate
+    void store(Message message) {
+        byte[] compressed = codec.compress(message.getContent());
+        message.setStoredContent(compressed == null ? message.getContent() : null);
+        message.setCompressedContent(compressed);
+    }
+
+    @PostLoad
+    void load(Message message) {
+        message.loadContent(codec.read(message.getStoredContent(), message.getCompressedContent()));
+    }
+}
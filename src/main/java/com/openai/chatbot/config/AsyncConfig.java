@@ -0,0 +1,29 @@
+package com.openai.chatbot.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Configuration for asynchronous execution.
+ * Enables {@code @Async} methods (e.g. background conversation summarization),
+ * which run on the application task executor, and {@code @Scheduled} jobs (e.g. message archiving).
+ */
+@Configuration
+@EnableAsync
+@EnableScheduling
+public class AsyncConfig {
+
+    /**
+     * Carries the submitting thread's context (e.g. the current trace span) into tasks on the application
+     * task executor, so streamed chats and background summaries stay in the request's trace.
+     *
+     * @return the task decorator applied to the auto-configured task executor
+     */
+    @Bean
+    public ContextPropagatingTaskDecorator contextPropagatingTaskDecorator() {
+        return new ContextPropagatingTaskDecorator();
+    }
+}
@@ -0,0 +1,63 @@
+package com.openai.chatbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Models available to the model router, bound from {@code chat.routing.*}.
+ * Models are listed in order of preference (typically cheapest and fastest first); a request goes to the
+ * first model that can take its prompt and is neither slow nor saturated, and falls back along the list.
+ * With no models configured, every request goes to {@code openai.model} on the default endpoint.
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.routing")
+public class ModelRoutingProperties {
+
+    private List<Model> models = new ArrayList<>();
+
+    /**
+     * How often a model skipped for being slow is given a request anyway, to refresh its latency.
+     */
+    private Duration probeInterval = Duration.ofSeconds(30);
+
+    /**
+     * One model on one endpoint.
+     */
+    @Data
+    public static class Model {
+
+        /**
+         * Model name sent to the API and reported in ChatResponse.model.
+         */
+        private String name;
+
+        /**
+         * Largest prompt (in tokens) routed to this model; 0 for no limit.
+         */
+        private int maxPromptTokens;
+
+        /**
+         * API base URL; defaults to {@code openai.base-url}.
+         */
+        private String baseUrl;
+
+        /**
+         * API key for the endpoint; defaults to {@code openai.api.key}.
+         */
+        private String apiKey;
+
+        /**
+         * Requests in flight at which the model counts as saturated; 0 for no limit.
+         */
+        private int maxInFlight;
+
+        /**
+         * Average latency above which the model counts as slow; unset for no limit.
+         */
+        private Duration slowThreshold;
+    }
+}
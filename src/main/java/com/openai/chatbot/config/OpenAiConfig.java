@@ -1,35 +1,203 @@
 package com.openai.chatbot.config;
 
+import com.openai.chatbot.service.UpstreamScheduler;
+import com.theokanning.openai.client.OpenAiApi;
+import com.theokanning.openai.service.AuthenticationInterceptor;
 import com.theokanning.openai.service.OpenAiService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.okhttp3.OkHttpConnectionPoolMetrics;
+import io.micrometer.core.instrument.binder.okhttp3.OkHttpObservationInterceptor;
+import io.micrometer.observation.ObservationRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import retrofit2.Retrofit;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Configuration class for OpenAI service.
- * Creates and configures the OpenAI client bean.
+ * Creates and configures the OpenAI client bean and the HTTP client behind it.
  */
 @Configuration
+@EnableConfigurationProperties(ModelRoutingProperties.class)
 public class OpenAiConfig {
 
     @Value("${openai.api.key}")
     private String apiKey;
 
     /**
-     * Creates an OpenAI service bean with configured timeout.
+     * API base URL; point it at a local stub server for load tests.
+     */
+    @Value("${openai.base-url:https://api.openai.com/}")
+    private String baseUrl;
+
+    @Value("${openai.model}")
+    private String model;
+
+    @Value("${openai.http.connect-timeout:10s}")
+    private Duration connectTimeout;
+
+    @Value("${openai.http.read-timeout:60s}")
+    private Duration readTimeout;
+
+    @Value("${openai.http.write-timeout:30s}")
+    private Duration writeTimeout;
+
+    @Value("${openai.http.max-idle-connections:64}")
+    private int maxIdleConnections;
+
+    @Value("${openai.http.keep-alive:5m}")
+    private Duration keepAlive;
+
+    @Value("${openai.http.max-requests:256}")
+    private int maxRequests;
+
+    @Value("${openai.http.max-requests-per-host:256}")
+    private int maxRequestsPerHost;
+
+    /**
+     * Negotiate HTTP/2 over TLS when the server supports it, multiplexing calls over fewer connections.
+     */
+    @Value("${openai.http.http2-enabled:true}")
+    private boolean http2Enabled;
+
+    /**
+     * Shares the application-wide virtual thread switch so the OpenAI client's
+     * dispatcher follows the same execution mode as request handling.
+     */
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    /**
+     * Creates the HTTP client used for OpenAI calls.
+     * Connection pool, dispatcher limits, per-phase timeouts and protocols come from {@code openai.http.*}.
+     * Rate-limit headers of chat completion responses are handed to the upstream scheduler lane of
+     * {@code openai.model} on {@code openai.base-url}, and every call is observed as an
+     * {@code openai.http.client} span (and timer) with the trace context propagated in its headers.
      *
-     * @return OpenAiService instance
+     * @param upstreamScheduler   the scheduler pacing OpenAI calls
+     * @param observationRegistry the registry recording OpenAI calls
+     * @return OkHttpClient instance
      * @throws IllegalStateException if API key is not properly configured
      */
     @Bean
-    public OpenAiService openAiService() {
+    public OkHttpClient openAiHttpClient(UpstreamScheduler upstreamScheduler, ObservationRegistry observationRegistry) {
         if (apiKey == null || apiKey.isBlank() || apiKey.equals("your-api-key-here")) {
             throw new IllegalStateException(
                 "OpenAI API key is not configured. Set OPENAI_API_KEY environment variable."
             );
         }
-        return new OpenAiService(apiKey, Duration.ofSeconds(60));
+
+        Dispatcher dispatcher = new Dispatcher(dispatcherExecutor());
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        return OpenAiService.defaultClient(apiKey, readTimeout)
+                .newBuilder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeout)
+                .writeTimeout(writeTimeout)
+                .protocols(http2Enabled ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .addInterceptor(new RateLimitHeadersInterceptor(upstreamScheduler,
+                        UpstreamScheduler.lane(model, baseUrl)))
+                .addInterceptor(OkHttpObservationInterceptor.builder(observationRegistry, "openai.http.client")
+                        .uriMapper(request -> request.url().encodedPath())
+                        .build())
+                .build();
+    }
+
+    /**
+     * Publishes the OpenAI HTTP client's connection pool ({@code okhttp.pool.*}) and dispatcher
+     * ({@code okhttp.dispatcher.*}) as gauges tagged {@code client=openai}. Routed endpoints share both.
+     *
+     * @param openAiHttpClient the HTTP client
+     * @return binder registering the gauges
+     */
+    @Bean
+    public MeterBinder openAiHttpClientMetrics(OkHttpClient openAiHttpClient) {
+        Tags tags = Tags.of("client", "openai");
+        return registry -> {
+            new OkHttpConnectionPoolMetrics(openAiHttpClient.connectionPool(), "okhttp.pool", tags, maxIdleConnections)
+                    .bindTo(registry);
+            Dispatcher dispatcher = openAiHttpClient.dispatcher();
+            Gauge.builder("okhttp.dispatcher.running", dispatcher, Dispatcher::runningCallsCount)
+                    .description("OpenAI calls executing")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder("okhttp.dispatcher.queued", dispatcher, Dispatcher::queuedCallsCount)
+                    .description("Asynchronous OpenAI calls waiting for a dispatcher slot")
+                    .tags(tags)
+                    .register(registry);
+        };
+    }
+
+    /**
+     * Creates an OpenAI service bean on top of the configured HTTP client and base URL.
+     * When virtual threads are enabled, asynchronous calls (e.g. streaming) are dispatched on virtual threads.
+     *
+     * @param openAiHttpClient the HTTP client
+     * @return OpenAiService instance
+     */
+    @Bean(destroyMethod = "shutdownExecutor")
+    public OpenAiService openAiService(OkHttpClient openAiHttpClient) {
+        return createOpenAiService(openAiHttpClient, baseUrl);
+    }
+
+    /**
+     * Creates an OpenAI service for a model on an endpoint, sharing the given client's pool, dispatcher and
+     * settings. Rate-limit headers of its chat completions go to the model's own upstream scheduler lane.
+     *
+     * @param openAiHttpClient  the configured HTTP client
+     * @param baseUrl           the endpoint's API base URL
+     * @param apiKey            the endpoint's API key, or null to keep the client's
+     * @param upstreamScheduler the scheduler pacing OpenAI calls
+     * @param lane              the model's scheduler lane, see {@link UpstreamScheduler#lane(String, String)}
+     * @return OpenAiService instance
+     */
+    public static OpenAiService createOpenAiService(OkHttpClient openAiHttpClient, String baseUrl, String apiKey,
+                                                    UpstreamScheduler upstreamScheduler, String lane) {
+        OkHttpClient.Builder builder = openAiHttpClient.newBuilder();
+        if (apiKey != null && !apiKey.isBlank()) {
+            builder.interceptors().removeIf(AuthenticationInterceptor.class::isInstance);
+            builder.interceptors().add(0, chain -> chain.proceed(chain.request().newBuilder()
+                    .header("Authorization", "Bearer " + apiKey)
+                    .build()));
+        }
+        builder.interceptors().removeIf(RateLimitHeadersInterceptor.class::isInstance);
+        builder.interceptors().add(new RateLimitHeadersInterceptor(upstreamScheduler, lane));
+        return createOpenAiService(builder.build(), baseUrl);
+    }
+
+    private static OpenAiService createOpenAiService(OkHttpClient client, String baseUrl) {
+        Retrofit retrofit = OpenAiService.defaultRetrofit(client, OpenAiService.defaultObjectMapper())
+                .newBuilder()
+                .baseUrl(baseUrl)
+                .build();
+
+        return new OpenAiService(retrofit.create(OpenAiApi.class), client.dispatcher().executorService());
+    }
+
+    /**
+     * Executor backing the OkHttp dispatcher.
+     * Uses one virtual thread per call in virtual thread mode, otherwise OkHttp's default cached pool.
+     */
+    private ExecutorService dispatcherExecutor() {
+        if (virtualThreadsEnabled) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("openai-", 0).factory());
+        }
+        return new Dispatcher().executorService();
     }
 }
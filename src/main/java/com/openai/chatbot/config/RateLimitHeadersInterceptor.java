@@ -0,0 +1,29 @@
+package com.openai.chatbot.config;
+
+import com.openai.chatbot.service.UpstreamScheduler;
+import lombok.RequiredArgsConstructor;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * Hands the rate-limit headers of chat completion responses to the {@link UpstreamScheduler} lane of the
+ * client's chat model. Other endpoints (e.g. embeddings) are limited separately by OpenAI, so their headers
+ * are not applied to the chat lane.
+ */
+@RequiredArgsConstructor
+public class RateLimitHeadersInterceptor implements Interceptor {
+
+    private final UpstreamScheduler upstreamScheduler;
+    private final String lane;
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        if (chain.request().url().encodedPath().endsWith("/chat/completions")) {
+            upstreamScheduler.onResponseHeaders(lane, response.headers());
+        }
+        return response;
+    }
+}
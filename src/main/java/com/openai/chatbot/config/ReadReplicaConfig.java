@@ -0,0 +1,88 @@
+package com.openai.chatbot.config;
+
+import com.openai.chatbot.datasource.ReadYourWrites;
+import com.openai.chatbot.datasource.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Read-replica routing, active when {@code chat.datasource.replica.jdbc-url} is set to a non-blank URL,
+ * so an empty value (e.g. an unset environment variable) keeps the single auto-configured pool.
+ * Replaces the auto-configured pool with two Hikari pools: the primary, configured as usual under
+ * {@code spring.datasource.*}, and the replica, configured with Hikari property names under
+ * {@code chat.datasource.replica.*} (driver and credentials default to the primary's).
+ * The application's data source routes read-only transactions to the replica and everything else,
+ * including Flyway migrations, to the primary; see {@link ReplicaRoutingDataSource}.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnExpression("!'${chat.datasource.replica.jdbc-url:}'.isBlank()")
+@EnableConfigurationProperties(DataSourceProperties.class)
+public class ReadReplicaConfig {
+
+    /**
+     * Creates the primary pool the way Spring Boot would without a replica.
+     *
+     * @param properties the {@code spring.datasource.*} properties
+     * @return the primary pool
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    /**
+     * Creates the replica pool. Reads far outnumber writes, so size it from the replica's own
+     * {@code hikaricp_connections_active{pool="replica"}} peak rather than copying the primary's size.
+     *
+     * @param properties the {@code spring.datasource.*} properties supplying the defaults
+     * @return the replica pool
+     */
+    @Bean
+    @ConfigurationProperties("chat.datasource.replica")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setDriverClassName(properties.determineDriverClassName());
+        dataSource.setUsername(properties.determineUsername());
+        dataSource.setPassword(properties.determinePassword());
+        dataSource.setPoolName("replica");
+        return dataSource;
+    }
+
+    /**
+     * Creates the data source used by JPA, Flyway and everything else. Connections are acquired lazily so
+     * the routing decision sees the transaction's read-only flag.
+     *
+     * @param primaryDataSource the primary pool
+     * @param replicaDataSource the replica pool
+     * @param readYourWrites    the read-your-writes window consulted for pinned reads
+     * @param meterRegistry     registry for the routing counters
+     * @return the routing data source
+     */
+    @Bean
+    @Primary
+    public DataSource routingDataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                        @Qualifier("replicaDataSource") DataSource replicaDataSource,
+                                        ReadYourWrites readYourWrites, MeterRegistry meterRegistry) {
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource,
+                readYourWrites, meterRegistry);
+        routing.afterPropertiesSet();
+        log.info("Routing read-only transactions to the replica pool");
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
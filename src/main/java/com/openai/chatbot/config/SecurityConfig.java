@@ -47,7 +47,7 @@ public class SecurityConfig {
                 // Allow all requests to public endpoints
                 .requestMatchers("/", "/index.html", "/*.js", "/*.css", "/*.ico", "/_next/**", "/static/**").permitAll()
                 .requestMatchers("/api/**").permitAll()
-                .requestMatchers("/actuator/health", "/actuator/info").permitAll()
+                .requestMatchers("/actuator/health", "/actuator/info", "/actuator/prometheus").permitAll()
                 // All other requests require authentication (future enhancement)
                 .anyRequest().permitAll()
             )
@@ -2,7 +2,9 @@ package com.openai.chatbot.controller;
 
 import com.openai.chatbot.dto.ChatRequest;
 import com.openai.chatbot.dto.ChatResponse;
+import com.openai.chatbot.exception.ChatOverloadedException;
 import com.openai.chatbot.service.ChatService;
+import io.micrometer.observation.annotation.Observed;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -12,11 +14,19 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * REST controller for chat operations.
@@ -31,12 +41,19 @@ public class ChatController {
 
     private final ChatService chatService;
 
+    /**
+     * Maximum lifetime of a streaming response, in milliseconds.
+     */
+    private static final long STREAM_TIMEOUT_MS = 180_000L;
+
     /**
      * Chat endpoint that receives a user message and returns an AI response.
      * Supports continuing existing conversations via conversationId.
+     * Handled asynchronously: the servlet thread is released while OpenAI answers, and the request is
+     * rejected with 429 and a Retry-After header when too many chats are already in flight.
      *
      * @param request the chat request containing the user's message and optional conversation ID
-     * @return ResponseEntity with the AI response and conversation ID
+     * @return future of the ResponseEntity with the AI response and conversation ID
      */
     @Operation(
             summary = "Send a chat message",
@@ -56,6 +73,11 @@ public class ChatController {
                     description = "Invalid request (e.g., empty message)",
                     content = @Content(mediaType = "application/json")
             ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "Too many chats in flight; retry after the number of seconds in the Retry-After header",
+                    content = @Content(mediaType = "application/json")
+            ),
             @ApiResponse(
                     responseCode = "500",
                     description = "Error communicating with OpenAI or database error",
@@ -63,13 +85,106 @@ public class ChatController {
             )
     })
     @PostMapping("/chat")
-    public ResponseEntity<ChatResponse> chat(@Valid @RequestBody ChatRequest request) {
+    @Observed(name = "chat.request", contextualName = "chat")
+    public CompletableFuture<ResponseEntity<ChatResponse>> chat(@Valid @RequestBody ChatRequest request) {
         log.info("Received chat request for conversation: {}", request.getConversationId());
 
-        ChatResponse response = chatService.chat(request.getMessage(), request.getConversationId());
+        return chatService.chatAsync(request.getMessage(), request.getConversationId(),
+                        !Boolean.FALSE.equals(request.getUseCache()))
+                .thenApply(response -> {
+                    log.info("Chat request processed successfully, conversationId: {}", response.getConversationId());
+                    return ResponseEntity.ok(response);
+                });
+    }
+
+    /**
+     * Streaming chat endpoint that sends the AI response token by token as Server-Sent Events.
+     * Emits a {@code token} event per content delta, then a single {@code done} event carrying the
+     * complete ChatResponse once the reply has been persisted. On failure an {@code error} event is sent.
+     * Streams count against the same in-flight limit as POST /api/chat; when it is exhausted the request
+     * is rejected with 429 and a Retry-After header before the event stream opens.
+     *
+     * @param request the chat request containing the user's message and optional conversation ID
+     * @return SseEmitter streaming the AI response
+     */
+    @Operation(
+            summary = "Send a chat message and stream the response",
+            description = "Same as POST /api/chat, but the response is streamed as Server-Sent Events: 'token' events with {\"content\": \"...\"} as tokens arrive, followed by a 'done' event with the full ChatResponse."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Event stream of response tokens",
+                    content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE)
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Invalid request (e.g., empty message)",
+                    content = @Content(mediaType = "application/json")
+            ),
+            @ApiResponse(
+                    responseCode = "429",
+                    description = "Too many chats in flight; retry after the number of seconds in the Retry-After header",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChat(@Valid @RequestBody ChatRequest request) {
+        log.info("Received streaming chat request for conversation: {}", request.getConversationId());
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+
+        CompletableFuture<ChatResponse> stream = chatService.streamChatAsync(request.getMessage(),
+                request.getConversationId(),
+                token -> send(emitter, SseEmitter.event().name("token").data(Map.of("content", token))));
 
-        log.info("Chat request processed successfully, conversationId: {}", response.getConversationId());
+        // No room for the stream: answer 429 while the response is still a plain HTTP one
+        if (stream.isCompletedExceptionally() && stream.exceptionNow() instanceof ChatOverloadedException overloaded) {
+            throw overloaded;
+        }
 
-        return ResponseEntity.ok(response);
+        stream.whenComplete((response, failure) -> {
+            if (failure != null) {
+                sendError(emitter, failure instanceof CompletionException ? failure.getCause() : failure);
+                return;
+            }
+            try {
+                send(emitter, SseEmitter.event().name("done").data(response));
+                emitter.complete();
+
+                log.info("Streaming chat request processed successfully, conversationId: {}", response.getConversationId());
+            } catch (Exception ex) {
+                sendError(emitter, ex);
+            }
+        });
+
+        return emitter;
+    }
+
+    /**
+     * Reports a failed stream to the client with an {@code error} event.
+     */
+    private static void sendError(SseEmitter emitter, Throwable ex) {
+        log.error("Streaming chat request failed: {}", ex.getMessage());
+        try {
+            emitter.send(SseEmitter.event().name("error")
+                    .data(Map.of("message", "Failed to process chat request. Please try again later.")));
+            emitter.complete();
+        } catch (Exception sendEx) {
+            // Client is gone; nothing left to report to
+            emitter.completeWithError(ex);
+        }
+    }
+
+    /**
+     * Sends an event, surfacing I/O failures (client disconnected) as unchecked exceptions
+     * so the upstream stream is cancelled.
+     */
+    private static void send(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 }
@@ -1,11 +1,12 @@
 package com.openai.chatbot.controller;
 
 import com.openai.chatbot.dto.ConversationDetailDto;
-import com.openai.chatbot.dto.ConversationSummaryDto;
+import com.openai.chatbot.dto.ConversationPageDto;
+import com.openai.chatbot.dto.MessagePageDto;
+import com.openai.chatbot.service.ConversationExportService;
 import com.openai.chatbot.service.ConversationService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
-import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -13,11 +14,14 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
 import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * REST controller for conversation history operations.
@@ -31,6 +35,12 @@ import java.util.UUID;
 public class ConversationController {
 
     private final ConversationService conversationService;
+    private final ConversationExportService conversationExportService;
+
+    /**
+     * Media type of the history export: one JSON document per line.
+     */
+    private static final String NDJSON = "application/x-ndjson";
 
     /**
      * Default user UUID for MVP (no authentication yet).
@@ -38,14 +48,28 @@ public class ConversationController {
     private static final UUID DEFAULT_USER_UUID = UUID.fromString("00000000-0000-0000-0000-000000000000");
 
     /**
-     * Lists all conversations for a user.
+     * Default and maximum page size of the conversation list.
+     */
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+
+    /**
+     * Default and maximum page size of a conversation's messages.
+     */
+    private static final int DEFAULT_MESSAGE_PAGE_SIZE = 50;
+    private static final int MAX_MESSAGE_PAGE_SIZE = 200;
+
+    /**
+     * Lists a page of conversations for a user.
      *
      * @param userId the user UUID (optional, defaults to default user)
-     * @return ResponseEntity with list of conversation summaries
+     * @param cursor the cursor returned with the previous page (optional, first page if omitted)
+     * @param limit  the page size (optional, defaults to 20, capped at 100)
+     * @return ResponseEntity with the page of conversation summaries and the next cursor
      */
     @Operation(
             summary = "List user conversations",
-            description = "Retrieves a list of all conversations for a user, ordered by most recently updated. Returns conversation ID and title only."
+            description = "Retrieves a page of conversations for a user, ordered by most recently updated. Returns conversation ID and title only. Pass nextCursor as cursor to fetch the following page; it is null on the last page."
     )
     @ApiResponses(value = {
             @ApiResponse(
@@ -53,9 +77,14 @@ public class ConversationController {
                     description = "Successfully retrieved conversation list",
                     content = @Content(
                             mediaType = "application/json",
-                            array = @ArraySchema(schema = @Schema(implementation = ConversationSummaryDto.class))
+                            schema = @Schema(implementation = ConversationPageDto.class)
                     )
             ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Invalid cursor",
+                    content = @Content(mediaType = "application/json")
+            ),
             @ApiResponse(
                     responseCode = "500",
                     description = "Database connection error",
@@ -63,16 +92,68 @@ public class ConversationController {
             )
     })
     @GetMapping
-    public ResponseEntity<List<ConversationSummaryDto>> listConversations(
+    public ResponseEntity<ConversationPageDto> listConversations(
             @Parameter(description = "User UUID (optional, defaults to default user for MVP)")
-            @RequestParam(required = false) UUID userId) {
+            @RequestParam(required = false) UUID userId,
+            @Parameter(description = "Cursor from the previous page (optional)")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Page size (optional, defaults to 20, max 100)")
+            @RequestParam(required = false, defaultValue = "" + DEFAULT_PAGE_SIZE) int limit) {
         UUID userUuid = userId != null ? userId : DEFAULT_USER_UUID;
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
         log.info("Listing conversations for user: {}", userUuid);
 
-        List<ConversationSummaryDto> conversations = conversationService.listConversationsByUser(userUuid);
+        ConversationPageDto page = conversationService.listConversationsByUser(userUuid, cursor, pageSize);
+
+        log.info("Found {} conversations for user: {}", page.getConversations().size(), userUuid);
+        return ResponseEntity.ok(page);
+    }
+
+    /**
+     * Exports a user's complete conversation history as NDJSON.
+     * The body is streamed from the database as it is read, gzip-compressed when the client accepts it.
+     *
+     * @param userId         the user UUID (optional, defaults to default user)
+     * @param acceptEncoding the Accept-Encoding request header (optional)
+     * @return ResponseEntity streaming the export
+     */
+    @Operation(
+            summary = "Export user conversations",
+            description = "Streams every conversation of a user and all its messages as NDJSON: a conversation line followed by its message lines. Compressed with gzip when the request accepts it."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Export stream",
+                    content = @Content(mediaType = NDJSON)
+            )
+    })
+    @GetMapping(value = "/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportConversations(
+            @Parameter(description = "User UUID (optional, defaults to default user for MVP)")
+            @RequestParam(required = false) UUID userId,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        UUID userUuid = userId != null ? userId : DEFAULT_USER_UUID;
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        log.info("Exporting conversations for user: {} (gzip: {})", userUuid, gzip);
 
-        log.info("Found {} conversations for user: {}", conversations.size(), userUuid);
-        return ResponseEntity.ok(conversations);
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream compressed = new GZIPOutputStream(out);
+                conversationExportService.exportUserHistory(userUuid, compressed);
+                compressed.finish();
+            } else {
+                conversationExportService.exportUserHistory(userUuid, out);
+            }
+        };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"conversations-" + userUuid + ".ndjson\"");
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
     }
 
     /**
@@ -116,4 +197,61 @@ public class ConversationController {
         log.info("Retrieved conversation: {} with {} messages", id, conversation.getMessages().size());
         return ResponseEntity.ok(conversation);
     }
+
+    /**
+     * Retrieves one page of a conversation's messages.
+     *
+     * @param id     the conversation public UUID
+     * @param before ID of the message to page back from (optional)
+     * @param after  ID of the message to page forward from (optional)
+     * @param limit  the page size (optional, defaults to 50, capped at 200)
+     * @return ResponseEntity with the page of messages
+     */
+    @Operation(
+            summary = "Get conversation messages",
+            description = "Retrieves a page of a conversation's messages in chronological order. Without before/after, returns the latest messages (tail). With before, returns older messages; with after, newer ones; with both, the messages in between."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "Successfully retrieved messages",
+                    content = @Content(
+                            mediaType = "application/json",
+                            schema = @Schema(implementation = MessagePageDto.class)
+                    )
+            ),
+            @ApiResponse(
+                    responseCode = "400",
+                    description = "Anchor message does not belong to the conversation",
+                    content = @Content(mediaType = "application/json")
+            ),
+            @ApiResponse(
+                    responseCode = "404",
+                    description = "Conversation not found",
+                    content = @Content(mediaType = "application/json")
+            ),
+            @ApiResponse(
+                    responseCode = "500",
+                    description = "Database connection error",
+                    content = @Content(mediaType = "application/json")
+            )
+    })
+    @GetMapping("/{id}/messages")
+    public ResponseEntity<MessagePageDto> getMessages(
+            @Parameter(description = "Conversation UUID", required = true)
+            @PathVariable UUID id,
+            @Parameter(description = "Return messages before this message ID (optional)")
+            @RequestParam(required = false) Long before,
+            @Parameter(description = "Return messages after this message ID (optional)")
+            @RequestParam(required = false) Long after,
+            @Parameter(description = "Page size (optional, defaults to 50, max 200)")
+            @RequestParam(required = false, defaultValue = "" + DEFAULT_MESSAGE_PAGE_SIZE) int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_MESSAGE_PAGE_SIZE));
+        log.info("Retrieving messages of conversation: {}", id);
+
+        MessagePageDto page = conversationService.getMessages(id, before, after, pageSize);
+
+        log.info("Retrieved {} messages of conversation: {}", page.getMessages().size(), id);
+        return ResponseEntity.ok(page);
+    }
 }
@@ -0,0 +1,132 @@
+package com.openai.chatbot.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+
+/**
+ * Read-your-writes window for replica routing.
+ * Writers record the conversations and users they changed; readers declare the key they read with a {@link Pin}.
+ * A connection acquired under a pin whose key was written within {@code chat.datasource.read-your-writes-window}
+ * comes from the primary instead of a replica that may not have caught up. The check runs at acquisition, so a
+ * write made under an open pin (e.g. a rehydrate before a read) pins the reads that follow it.
+ * The window should exceed the replica's worst replication lag.
+ * The window is node-local: writes are recorded in this process only, so a read served by another node is
+ * routed to the replica and may not see the write yet. Multi-node deployments with a replica need sticky
+ * routing per user for read-your-writes to hold.
+ * Without a replica ({@code chat.datasource.replica.jdbc-url} unset) nothing is recorded and nothing is pinned.
+ */
+@Component
+public class ReadYourWrites {
+
+    private static final Pin NOT_PINNED = () -> {
+    };
+
+    private final ThreadLocal<Deque<UUID>> pinnedKeys = ThreadLocal.withInitial(ArrayDeque::new);
+
+    @Value("${chat.datasource.replica.jdbc-url:}")
+    private String replicaUrl;
+
+    @Value("${chat.datasource.read-your-writes-window:5s}")
+    private Duration window;
+
+    /**
+     * Number of recently written keys remembered; the oldest are dropped first if writes outrun the window.
+     */
+    @Value("${chat.datasource.read-your-writes-max-keys:100000}")
+    private long maxKeys;
+
+    private Cache<UUID, Boolean> recentWrites;
+
+    /**
+     * Scope in which the current thread reads a key. Closing it ends the scope.
+     */
+    @FunctionalInterface
+    public interface Pin extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    @PostConstruct
+    void init() {
+        if (isEnabled()) {
+            recentWrites = Caffeine.newBuilder()
+                    .expireAfterWrite(window)
+                    .maximumSize(maxKeys)
+                    .build();
+        }
+    }
+
+    /**
+     * Returns whether reads are routed to a replica, and so need the window.
+     */
+    public boolean isEnabled() {
+        return replicaUrl != null && !replicaUrl.isBlank() && !window.isZero();
+    }
+
+    /**
+     * Records a write to the given keys (conversation or user IDs), opening or extending their window.
+     *
+     * @param keys the keys written; nulls are ignored
+     */
+    public void recordWrite(UUID... keys) {
+        if (recentWrites == null) {
+            return;
+        }
+        for (UUID key : keys) {
+            if (key != null) {
+                recentWrites.put(key, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * Declares that the current thread is about to read the key, so connections acquired until the pin is
+     * closed come from the primary while the key is within its window. Pins nest.
+     * Must be taken before the read transaction acquires its connection.
+     *
+     * @param key the conversation or user ID about to be read
+     * @return the pin, to be closed when the reads are done
+     */
+    public Pin pin(UUID key) {
+        if (recentWrites == null || key == null) {
+            return NOT_PINNED;
+        }
+        Deque<UUID> keys = pinnedKeys.get();
+        keys.push(key);
+        return () -> {
+            keys.pop();
+            if (keys.isEmpty()) {
+                pinnedKeys.remove();
+            }
+        };
+    }
+
+    /**
+     * Returns whether a key pinned by the current thread was written within the window.
+     */
+    public boolean isPinned() {
+        if (recentWrites == null) {
+            return false;
+        }
+        Deque<UUID> keys = pinnedKeys.get();
+        if (keys.isEmpty()) {
+            pinnedKeys.remove();
+            return false;
+        }
+        for (UUID key : keys) {
+            if (recentWrites.getIfPresent(key) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,60 @@
+package com.openai.chatbot.datasource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Sends connections of read-only transactions to the replica pool and everything else to the primary.
+ * Reads pinned by {@link ReadYourWrites} also go to the primary. The lookup runs when a connection is
+ * acquired, so this data source must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the proxy defers acquisition to
+ * the first statement, by which time the transaction's read-only flag is set.
+ * Each routing decision is counted in {@code chat.datasource.connections}, tagged {@code pool} and {@code reason}.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    private final ReadYourWrites readYourWrites;
+    private final Counter writes;
+    private final Counter reads;
+    private final Counter pinnedReads;
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica, ReadYourWrites readYourWrites,
+                                    MeterRegistry meterRegistry) {
+        this.readYourWrites = readYourWrites;
+        setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        this.writes = connections(meterRegistry, PRIMARY, "write");
+        this.reads = connections(meterRegistry, REPLICA, "read");
+        this.pinnedReads = connections(meterRegistry, PRIMARY, "read-your-writes");
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            writes.increment();
+            return PRIMARY;
+        }
+        if (readYourWrites.isPinned()) {
+            pinnedReads.increment();
+            return PRIMARY;
+        }
+        reads.increment();
+        return REPLICA;
+    }
+
+    private static Counter connections(MeterRegistry meterRegistry, String pool, String reason) {
+        return Counter.builder("chat.datasource.connections")
+                .description("Database connections acquired, by pool and routing reason")
+                .tag("pool", pool)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
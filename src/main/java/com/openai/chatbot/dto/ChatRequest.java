@@ -22,4 +22,10 @@ public class ChatRequest {
      * If null, a new conversation will be created.
      */
     private UUID conversationId;
+
+    /**
+     * Optional switch for the response cache.
+     * If false, the reply always comes from OpenAI; if null or true, a cached reply may be returned.
+     */
+    private Boolean useCache;
 }
@@ -0,0 +1,20 @@
+package com.openai.chatbot.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DTO for one page of the conversation list.
+ * Pass {@code nextCursor} back to fetch the following page; it is null on the last page.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+public class ConversationPageDto {
+
+    private List<ConversationSummaryDto> conversations;
+    private String nextCursor;
+}
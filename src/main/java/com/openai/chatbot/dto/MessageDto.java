@@ -15,6 +15,7 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 public class MessageDto {
 
+    private Long id;
     private String role;
     private String content;
     private LocalDateTime timestamp;
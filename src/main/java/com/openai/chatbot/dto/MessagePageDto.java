@@ -0,0 +1,22 @@
+package com.openai.chatbot.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * DTO for one page of a conversation's messages.
+ * Messages are always in chronological order. {@code hasMore} tells whether further messages exist
+ * in the paging direction: older ones for tail and {@code before} pages, newer ones for {@code after} pages.
+ * Use the first or last message ID as the anchor of the next request.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+public class MessagePageDto {
+
+    private List<MessageDto> messages;
+    private boolean hasMore;
+}
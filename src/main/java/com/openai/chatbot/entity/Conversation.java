@@ -21,8 +21,11 @@ import java.util.UUID;
 @Builder
 public class Conversation {
 
+    private static final String DEFAULT_TITLE = "New Conversation";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "conversations_seq")
+    @SequenceGenerator(name = "conversations_seq", sequenceName = "conversations_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "public_id", nullable = false, unique = true, updatable = false)
@@ -40,6 +43,32 @@ public class Conversation {
     @Column(name = "updated_at", nullable = false)
     private LocalDateTime updatedAt;
 
+    /**
+     * ID of the system-role message holding the rolling summary of older turns, if any.
+     */
+    @Column(name = "summary_message_id")
+    private Long summaryMessageId;
+
+    /**
+     * createdAt of the newest message folded into the summary. With {@link #summarizedThroughMessageId} it forms
+     * the (createdAt, id) keyset position after which messages are sent verbatim.
+     */
+    @Column(name = "summarized_through_created_at")
+    private LocalDateTime summarizedThroughCreatedAt;
+
+    /**
+     * ID of the newest message folded into the summary; later messages are sent verbatim.
+     */
+    @Column(name = "summarized_through_message_id")
+    private Long summarizedThroughMessageId;
+
+    /**
+     * When the conversation's turns were moved to the message archive, or null while they are in the
+     * messages table. Maintained only by {@code ConversationArchiveService}.
+     */
+    @Column(name = "archived_at", insertable = false, updatable = false)
+    private LocalDateTime archivedAt;
+
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     @OrderBy("createdAt ASC")
     @Builder.Default
@@ -83,15 +112,20 @@ public class Conversation {
      * Sanitizes control characters and handles multi-byte characters correctly.
      */
     public void generateTitleFromFirstMessage() {
-        if (messages.isEmpty()) {
-            this.title = "New Conversation";
-            return;
-        }
+        this.title = messages.isEmpty() ? DEFAULT_TITLE : titleFrom(messages.get(0).getContent());
+    }
 
-        String firstMessage = messages.get(0).getContent();
+    /**
+     * Derives a conversation title from the content of its first message.
+     * Title is the first 50 Unicode code points of the content.
+     * Sanitizes control characters and handles multi-byte characters correctly.
+     *
+     * @param firstMessage the content of the first message
+     * @return the title, or "New Conversation" if the content is blank
+     */
+    public static String titleFrom(String firstMessage) {
         if (firstMessage == null || firstMessage.isBlank()) {
-            this.title = "New Conversation";
-            return;
+            return DEFAULT_TITLE;
         }
 
         // Sanitize: remove control characters (except spaces/tabs) and normalize whitespace
@@ -100,17 +134,15 @@ public class Conversation {
                 .trim();
 
         if (sanitized.isBlank()) {
-            this.title = "New Conversation";
-            return;
+            return DEFAULT_TITLE;
         }
 
         // Take first 50 Unicode code points (handles emojis and multi-byte characters correctly)
         int codePointCount = sanitized.codePointCount(0, sanitized.length());
         if (codePointCount > 50) {
             int endIndex = sanitized.offsetByCodePoints(0, 50);
-            this.title = sanitized.substring(0, endIndex).trim() + "...";
-        } else {
-            this.title = sanitized;
+            return sanitized.substring(0, endIndex).trim() + "...";
         }
+        return sanitized;
     }
 }
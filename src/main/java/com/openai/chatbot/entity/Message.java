@@ -1,5 +1,6 @@
 package com.openai.chatbot.entity;
 
+import com.openai.chatbot.compression.MessageContentListener;
 import jakarta.persistence.*;
 import lombok.*;
 
@@ -8,9 +9,12 @@ import java.time.LocalDateTime;
 /**
  * Entity representing a message within a conversation.
  * Messages belong to a conversation and cannot exist independently.
+ * The body is stored as text or, above the compression threshold, compressed in a separate column;
+ * {@link MessageContentListener} converts between the two so callers only use {@link #getContent()}.
  */
 @Entity
 @Table(name = "messages")
+@EntityListeners(MessageContentListener.class)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -19,7 +23,8 @@ import java.time.LocalDateTime;
 public class Message {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "messages_seq")
+    @SequenceGenerator(name = "messages_seq", sequenceName = "messages_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -29,12 +34,40 @@ public class Message {
     @Column(name = "role", nullable = false, length = 20)
     private String role;
 
-    @Column(name = "content", nullable = false, columnDefinition = "TEXT")
+    @Transient
     private String content;
 
+    /**
+     * The body as stored in the {@code content} column; null when it is compressed.
+     */
+    @Column(name = "content", columnDefinition = "TEXT")
+    private String storedContent;
+
+    /**
+     * The body as stored in the {@code content_compressed} column; null when it is stored as text.
+     */
+    @Column(name = "content_compressed")
+    private byte[] compressedContent;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
+    /**
+     * Replaces the body. Clears the stored columns so the change is flushed and stored afresh.
+     */
+    public void setContent(String content) {
+        this.content = content;
+        this.storedContent = content;
+        this.compressedContent = null;
+    }
+
+    /**
+     * Sets the body read from the stored columns without marking them changed.
+     */
+    public void loadContent(String content) {
+        this.content = content;
+    }
+
     /**
      * Lifecycle callback to set timestamp before persist.
      */
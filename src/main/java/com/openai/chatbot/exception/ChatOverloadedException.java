@@ -0,0 +1,31 @@
+package com.openai.chatbot.exception;
+
+import java.time.Duration;
+
+/**
+ * Exception thrown when a chat request is turned away because the in-flight limit and queue are both full.
+ * This exception is mapped to HTTP 429 (Too Many Requests) status code with a Retry-After header.
+ */
+public class ChatOverloadedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a new ChatOverloadedException.
+     *
+     * @param retryAfter how long the client should wait before retrying
+     */
+    public ChatOverloadedException(Duration retryAfter) {
+        super("Too many chat requests in flight, retry after " + retryAfter.toSeconds() + "s");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns how long the client should wait before retrying.
+     *
+     * @return the retry delay
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,27 @@
+package com.openai.chatbot.exception;
+
+/**
+ * Exception thrown when a pagination cursor cannot be decoded or does not point into the requested collection.
+ * This exception is mapped to HTTP 400 (Bad Request) status code.
+ */
+public class InvalidCursorException extends RuntimeException {
+
+    /**
+     * Constructs a new InvalidCursorException.
+     *
+     * @param cursor the cursor that does not point into the requested collection
+     */
+    public InvalidCursorException(String cursor) {
+        super("Invalid cursor: " + cursor);
+    }
+
+    /**
+     * Constructs a new InvalidCursorException.
+     *
+     * @param cursor the cursor that could not be decoded
+     * @param cause  the cause of the decoding failure
+     */
+    public InvalidCursorException(String cursor, Throwable cause) {
+        super("Invalid cursor: " + cursor, cause);
+    }
+}
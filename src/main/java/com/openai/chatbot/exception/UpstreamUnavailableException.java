@@ -0,0 +1,31 @@
+package com.openai.chatbot.exception;
+
+import java.time.Duration;
+
+/**
+ * Exception thrown when calls to OpenAI are being failed fast because it is currently degraded.
+ * This exception is mapped to HTTP 503 (Service Unavailable) status code with a Retry-After header.
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a new UpstreamUnavailableException.
+     *
+     * @param retryAfter how long until calls to OpenAI are attempted again
+     */
+    public UpstreamUnavailableException(Duration retryAfter) {
+        super("OpenAI is unavailable, retry after " + retryAfter.toSeconds() + "s");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns how long until calls to OpenAI are attempted again.
+     *
+     * @return the retry delay
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -1,11 +1,17 @@
 package com.openai.chatbot.repository;
 
 import com.openai.chatbot.entity.Conversation;
+import com.openai.chatbot.repository.projection.ConversationRef;
+import com.openai.chatbot.repository.projection.ConversationSummary;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -13,8 +19,10 @@ import java.util.UUID;
 /**
  * Repository interface for Conversation entity.
  * Provides CRUD operations and custom queries for conversations.
+ * Queries run read-only, so outside a service transaction they can be served by a read replica.
  */
 @Repository
+@Transactional(readOnly = true)
 public interface ConversationRepository extends JpaRepository<Conversation, Long> {
 
     /**
@@ -25,6 +33,25 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
      */
     Optional<Conversation> findByPublicId(UUID publicId);
 
+    /**
+     * Find the internal ID of a conversation by its public UUID without loading the entity.
+     *
+     * @param publicId the public UUID of the conversation
+     * @return Optional containing the internal ID if found
+     */
+    @Query("SELECT c.id FROM Conversation c WHERE c.publicId = :publicId")
+    Optional<Long> findIdByPublicId(@Param("publicId") UUID publicId);
+
+    /**
+     * Find the internal ID, owner and archive state of a conversation by its public UUID without loading the entity.
+     *
+     * @param publicId the public UUID of the conversation
+     * @return Optional containing the conversation keys if found
+     */
+    @Query("SELECT c.id AS id, c.userUuid AS userUuid, c.archivedAt AS archivedAt " +
+            "FROM Conversation c WHERE c.publicId = :publicId")
+    Optional<ConversationRef> findRefByPublicId(@Param("publicId") UUID publicId);
+
     /**
      * Find a conversation by its public UUID with messages eagerly loaded.
      * Prevents LazyInitializationException when accessing messages outside transaction.
@@ -36,10 +63,69 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
     Optional<Conversation> findByPublicIdWithMessages(@Param("publicId") UUID publicId);
 
     /**
-     * Find all conversations for a specific user, ordered by most recently updated.
+     * Find the first page of a user's conversation summaries, most recently updated first.
      *
      * @param userUuid the user's UUID
-     * @return List of conversations ordered by updatedAt descending
+     * @param pageable page size (the page number is always 0)
+     * @return summaries ordered by updatedAt and id descending
+     */
+    @Query("SELECT c.id AS id, c.publicId AS publicId, c.title AS title, c.createdAt AS createdAt, " +
+            "c.updatedAt AS updatedAt FROM Conversation c WHERE c.userUuid = :userUuid " +
+            "ORDER BY c.updatedAt DESC, c.id DESC")
+    List<ConversationSummary> findSummariesByUserUuid(@Param("userUuid") UUID userUuid, Pageable pageable);
+
+    /**
+     * Find the next page of a user's conversation summaries after a keyset position.
+     * Seeks past (updatedAt, id) instead of using an offset, so each page costs the same.
+     *
+     * @param userUuid  the user's UUID
+     * @param updatedAt updatedAt of the last conversation on the previous page
+     * @param id        internal ID of the last conversation on the previous page
+     * @param pageable  page size (the page number is always 0)
+     * @return summaries ordered by updatedAt and id descending
+     */
+    @Query("SELECT c.id AS id, c.publicId AS publicId, c.title AS title, c.createdAt AS createdAt, " +
+            "c.updatedAt AS updatedAt FROM Conversation c WHERE c.userUuid = :userUuid " +
+            "AND (c.updatedAt < :updatedAt OR (c.updatedAt = :updatedAt AND c.id < :id)) " +
+            "ORDER BY c.updatedAt DESC, c.id DESC")
+    List<ConversationSummary> findSummariesByUserUuidAfter(@Param("userUuid") UUID userUuid,
+                                                           @Param("updatedAt") LocalDateTime updatedAt,
+                                                           @Param("id") Long id,
+                                                           Pageable pageable);
+
+    /**
+     * Record new activity on a conversation in a single statement.
+     * Sets updatedAt and, if the conversation has no title yet, the given title.
+     *
+     * @param id        the internal ID of the conversation
+     * @param updatedAt the new last update timestamp
+     * @param title     the title to set if none is set yet
+     * @return number of updated rows
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Conversation c SET c.updatedAt = :updatedAt, " +
+            "c.title = CASE WHEN c.title IS NULL OR TRIM(c.title) = '' THEN :title ELSE c.title END " +
+            "WHERE c.id = :id")
+    int touch(@Param("id") Long id, @Param("updatedAt") LocalDateTime updatedAt, @Param("title") String title);
+
+    /**
+     * Point a conversation at its rolling summary without touching updatedAt,
+     * so summarizing does not reorder the conversation list.
+     *
+     * @param id                         the internal ID of the conversation
+     * @param summaryMessageId           the ID of the system-role summary message
+     * @param summarizedThroughCreatedAt createdAt of the newest message folded into the summary
+     * @param summarizedThroughMessageId the ID of the newest message folded into the summary
+     * @return number of updated rows
      */
-    List<Conversation> findByUserUuidOrderByUpdatedAtDesc(UUID userUuid);
+    @Modifying
+    @Transactional
+    @Query("UPDATE Conversation c SET c.summaryMessageId = :summaryMessageId, " +
+            "c.summarizedThroughCreatedAt = :summarizedThroughCreatedAt, " +
+            "c.summarizedThroughMessageId = :summarizedThroughMessageId WHERE c.id = :id")
+    int updateSummary(@Param("id") Long id,
+                      @Param("summaryMessageId") Long summaryMessageId,
+                      @Param("summarizedThroughCreatedAt") LocalDateTime summarizedThroughCreatedAt,
+                      @Param("summarizedThroughMessageId") Long summarizedThroughMessageId);
 }
@@ -0,0 +1,135 @@
+package com.openai.chatbot.repository;
+
+import com.openai.chatbot.entity.Message;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository interface for Message entity.
+ * Provides bounded queries over a conversation's messages so callers never load the full history.
+ * Queries run read-only, so outside a service transaction they can be served by a read replica.
+ */
+@Repository
+@Transactional(readOnly = true)
+public interface MessageRepository extends JpaRepository<Message, Long> {
+
+    /**
+     * Find the most recent user/assistant messages of a conversation after a keyset position, newest first.
+     * System-role summary messages are excluded. The page size bounds the number of rows read
+     * regardless of conversation length.
+     *
+     * @param conversationId the internal ID of the conversation
+     * @param createdAt      createdAt of the anchor message
+     * @param id             ID of the anchor message
+     * @param pageable       page request limiting the number of messages returned
+     * @return List of messages ordered by createdAt and ID descending
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.role <> 'system' " +
+            "AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.id > :id)) " +
+            "ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findRecentTurns(@Param("conversationId") Long conversationId,
+                                  @Param("createdAt") LocalDateTime createdAt,
+                                  @Param("id") Long id,
+                                  Pageable pageable);
+
+    /**
+     * Count the user/assistant messages of a conversation after a keyset position.
+     *
+     * @param conversationId the internal ID of the conversation
+     * @param createdAt      createdAt of the anchor message
+     * @param id             ID of the anchor message
+     * @return number of matching messages
+     */
+    @Query("SELECT COUNT(m) FROM Message m WHERE m.conversation.id = :conversationId AND m.role <> 'system' " +
+            "AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.id > :id))")
+    long countTurnsAfter(@Param("conversationId") Long conversationId,
+                         @Param("createdAt") LocalDateTime createdAt,
+                         @Param("id") Long id);
+
+    /**
+     * Find the creation timestamp of a message, provided it belongs to the given conversation.
+     * Resolves a message ID used as a paging anchor to its (createdAt, id) keyset position.
+     *
+     * @param conversationId the internal ID of the conversation
+     * @param messageId      the ID of the message
+     * @return Optional containing the timestamp if the message belongs to the conversation
+     */
+    @Query("SELECT m.createdAt FROM Message m WHERE m.id = :messageId AND m.conversation.id = :conversationId")
+    Optional<LocalDateTime> findCreatedAt(@Param("conversationId") Long conversationId,
+                                          @Param("messageId") Long messageId);
+
+    /**
+     * Find the latest user/assistant messages of a conversation, newest first.
+     *
+     * @param conversationId the internal ID of the conversation
+     * @param pageable       page request limiting the number of messages returned
+     * @return List of messages ordered by createdAt and ID descending
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.role <> 'system' " +
+            "ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findLatest(@Param("conversationId") Long conversationId, Pageable pageable);
+
+    /**
+     * Find the user/assistant messages of a conversation that precede a keyset position, newest first.
+     *
+     * @param conversationId the internal ID of the conversation
+     * @param createdAt      createdAt of the anchor message
+     * @param id             ID of the anchor message
+     * @param pageable       page request limiting the number of messages returned
+     * @return List of messages ordered by createdAt and ID descending
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.role <> 'system' " +
+            "AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id)) " +
+            "ORDER BY m.createdAt DESC, m.id DESC")
+    List<Message> findBefore(@Param("conversationId") Long conversationId,
+                             @Param("createdAt") LocalDateTime createdAt,
+                             @Param("id") Long id,
+                             Pageable pageable);
+
+    /**
+     * Find the user/assistant messages of a conversation that follow a keyset position, oldest first.
+     *
+     * @param conversationId the internal ID of the conversation
+     * @param createdAt      createdAt of the anchor message
+     * @param id             ID of the anchor message
+     * @param pageable       page request limiting the number of messages returned
+     * @return List of messages ordered by createdAt and ID ascending
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.role <> 'system' " +
+            "AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.id > :id)) " +
+            "ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findAfter(@Param("conversationId") Long conversationId,
+                            @Param("createdAt") LocalDateTime createdAt,
+                            @Param("id") Long id,
+                            Pageable pageable);
+
+    /**
+     * Find the user/assistant messages of a conversation strictly between two keyset positions, oldest first.
+     *
+     * @param conversationId  the internal ID of the conversation
+     * @param afterCreatedAt  createdAt of the lower anchor message
+     * @param afterId         ID of the lower anchor message
+     * @param beforeCreatedAt createdAt of the upper anchor message
+     * @param beforeId        ID of the upper anchor message
+     * @param pageable        page request limiting the number of messages returned
+     * @return List of messages ordered by createdAt and ID ascending
+     */
+    @Query("SELECT m FROM Message m WHERE m.conversation.id = :conversationId AND m.role <> 'system' " +
+            "AND (m.createdAt > :afterCreatedAt OR (m.createdAt = :afterCreatedAt AND m.id > :afterId)) " +
+            "AND (m.createdAt < :beforeCreatedAt OR (m.createdAt = :beforeCreatedAt AND m.id < :beforeId)) " +
+            "ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findBetween(@Param("conversationId") Long conversationId,
+                              @Param("afterCreatedAt") LocalDateTime afterCreatedAt,
+                              @Param("afterId") Long afterId,
+                              @Param("beforeCreatedAt") LocalDateTime beforeCreatedAt,
+                              @Param("beforeId") Long beforeId,
+                              Pageable pageable);
+}
@@ -0,0 +1,32 @@
+package com.openai.chatbot.repository.projection;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Projection interface for the keys of a conversation.
+ * Used by writers and readers that need the internal ID, owner and archive state without loading the entity.
+ */
+public interface ConversationRef {
+
+    /**
+     * Get the internal ID of the conversation.
+     *
+     * @return the internal ID
+     */
+    Long getId();
+
+    /**
+     * Get the UUID of the user owning the conversation.
+     *
+     * @return the user UUID
+     */
+    UUID getUserUuid();
+
+    /**
+     * Get when the conversation's turns were archived.
+     *
+     * @return the archive time, or null if the conversation is not archived
+     */
+    LocalDateTime getArchivedAt();
+}
@@ -9,6 +9,14 @@ import java.util.UUID;
  */
 public interface ConversationSummary {
 
+    /**
+     * Get the internal ID of the conversation.
+     * Used as the tie-breaker of the (updatedAt, id) keyset when paginating.
+     *
+     * @return the internal ID
+     */
+    Long getId();
+
     /**
      * Get the public UUID of the conversation.
      *
@@ -0,0 +1,339 @@
+package com.openai.chatbot.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.openai.chatbot.exception.UpstreamUnavailableException;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import com.theokanning.openai.embedding.EmbeddingRequest;
+import com.theokanning.openai.service.OpenAiService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Response cache between ChatService and the OpenAI API.
+ * Completions are cached under the model plus the normalized prompt (case and whitespace insensitive),
+ * bounded by size and TTL. Optionally, single-message prompts that miss the exact cache are matched
+ * against earlier ones by embedding similarity, so near-duplicate first questions are answered from cache too.
+ * Identical requests (same model, exact messages and sampling parameters) that reach the upstream call at the
+ * same time are coalesced into one call whose result every caller receives, whether or not they use the cache.
+ * Unlike the cache key, the coalescing key is not normalized, so prompts differing only in case or whitespace
+ * each get their own completion.
+ * Hits, misses and evictions are published as {@code cache.*} metrics tagged {@code cache=chat.responses};
+ * coalesced calls are counted in {@code chat.upstream.coalesced}.
+ * Every call that does reach OpenAI goes through {@link UpstreamResilience} and the {@link UpstreamScheduler}
+ * on the lane of the route serving it. The duration of each upstream attempt, from dispatch to answer or failure,
+ * is reported to that {@link ModelRouter.Route}. Token usage is counted in {@link ChatMetrics} once per upstream
+ * call; cache hits and coalesced callers are not billed again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatCompletionCache {
+
+    private static final String CACHE_NAME = "chat.responses";
+
+    private final OpenAiService openAiService;
+    private final UpstreamScheduler upstreamScheduler;
+    private final UpstreamResilience upstreamResilience;
+    private final ChatMetrics chatMetrics;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.cache.max-entries:10000}")
+    private long maxEntries;
+
+    @Value("${chat.cache.ttl:1h}")
+    private Duration ttl;
+
+    /**
+     * Near-duplicate lookup by embedding similarity. Costs one embeddings call per cache miss.
+     */
+    @Value("${chat.cache.semantic.enabled:false}")
+    private boolean semanticEnabled;
+
+    @Value("${chat.cache.semantic.model:text-embedding-ada-002}")
+    private String embeddingModel;
+
+    /**
+     * Endpoint of the default client, which embeddings are sent to.
+     */
+    @Value("${openai.base-url:https://api.openai.com/}")
+    private String baseUrl;
+
+    @Value("${chat.cache.semantic.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${chat.cache.semantic.max-entries:1000}")
+    private long semanticMaxEntries;
+
+    /**
+     * Shares one upstream call between identical concurrent requests.
+     */
+    @Value("${chat.single-flight.enabled:true}")
+    private boolean singleFlightEnabled;
+
+    private final SingleFlight<String, ChatCompletionResult> upstreamCalls = new SingleFlight<>();
+    private Cache<String, ChatCompletionResult> responses;
+    private Cache<String, PromptEmbedding> embeddings;
+    private Counter semanticHits;
+    private Counter coalescedCalls;
+
+    /**
+     * Embedding of a cached single-message prompt, normalized to unit length so cosine similarity is a dot product.
+     */
+    private record PromptEmbedding(String model, float[] vector) {
+    }
+
+    @PostConstruct
+    void init() {
+        responses = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        embeddings = Caffeine.newBuilder()
+                .maximumSize(semanticMaxEntries)
+                .expireAfterWrite(ttl)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, CACHE_NAME);
+        semanticHits = Counter.builder("chat.cache.semantic.hits")
+                .description("Completions served from cache by embedding similarity")
+                .register(meterRegistry);
+        coalescedCalls = Counter.builder("chat.upstream.coalesced")
+                .description("Completions shared with an identical request already in flight")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the completion for the request, from cache when possible, calling the route's client on a miss.
+     * Only results carrying content are cached, so failures and empty replies are always retried upstream.
+     * Cache entries are keyed on the model, so a model answers from its own entries whichever endpoint serves it.
+     *
+     * @param request     the chat completion request, for the route's model
+     * @param useCache    false to bypass the cache for this request
+     * @param route       the route serving the request
+     * @param hasFallback whether the router can send the request to another route instead of waiting on this one
+     * @return the chat completion result
+     */
+    public ChatCompletionResult createChatCompletion(ChatCompletionRequest request, boolean useCache,
+                                                     ModelRouter.Route route, boolean hasFallback) {
+        boolean cacheable = enabled && useCache;
+        if (!cacheable && !singleFlightEnabled) {
+            return complete(request, route, hasFallback);
+        }
+
+        String key = cacheable ? key(request) : null;
+        PromptEmbedding embedding = null;
+        if (cacheable) {
+            ChatCompletionResult cached = responses.getIfPresent(key);
+            if (cached != null) {
+                log.debug("Response cache hit for model: {}", request.getModel());
+                return cached;
+            }
+
+            if (semanticEnabled && request.getMessages().size() == 1) {
+                embedding = embed(request);
+                cached = embedding != null ? findSimilar(embedding) : null;
+                if (cached != null) {
+                    log.debug("Response cache semantic hit for model: {}", request.getModel());
+                    semanticHits.increment();
+                    return cached;
+                }
+            }
+        }
+
+        ChatCompletionResult result = callUpstream(request, route, hasFallback);
+        if (cacheable && hasContent(result)) {
+            responses.put(key, result);
+            if (embedding != null) {
+                embeddings.put(key, embedding);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calls OpenAI, joining an identical call already in flight when single-flight is enabled.
+     */
+    private ChatCompletionResult callUpstream(ChatCompletionRequest request, ModelRouter.Route route,
+                                              boolean hasFallback) {
+        if (!singleFlightEnabled) {
+            return complete(request, route, hasFallback);
+        }
+        SingleFlight.Outcome<ChatCompletionResult> outcome = upstreamCalls.execute(flightKey(request),
+                () -> complete(request, route, hasFallback));
+        if (outcome.shared()) {
+            log.debug("Coalesced completion request for model: {}", request.getModel());
+            coalescedCalls.increment();
+        }
+        return outcome.value();
+    }
+
+    /**
+     * Calls OpenAI with retries, hedging and the route's circuit breaker; each attempt waits for the route's
+     * upstream scheduler lane.
+     */
+    private ChatCompletionResult complete(ChatCompletionRequest request, ModelRouter.Route route,
+                                          boolean hasFallback) {
+        ChatCompletionResult result = upstreamResilience.execute(route.lane(),
+                attempt -> upstreamScheduler.execute(route.lane(), request, hasFallback, () -> {
+                    attempt.dispatched();
+                    return timed(request, route);
+                }));
+        if (result != null) {
+            chatMetrics.recordUsage(request.getModel(), result.getUsage());
+        }
+        return result;
+    }
+
+    /**
+     * Makes one upstream call, reporting its duration to the route even when it fails or times out.
+     */
+    private static ChatCompletionResult timed(ChatCompletionRequest request, ModelRouter.Route route) {
+        long start = System.nanoTime();
+        try {
+            return route.client().createChatCompletion(request);
+        } finally {
+            route.recordLatency(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Builds the cache key: a digest of the model and the normalized role/content of every prompt message.
+     */
+    private String key(ChatCompletionRequest request) {
+        StringBuilder prompt = new StringBuilder(request.getModel());
+        for (ChatMessage message : request.getMessages()) {
+            prompt.append('\n').append(message.getRole()).append(':').append(normalize(message.getContent()));
+        }
+        return digest(prompt);
+    }
+
+    /**
+     * Builds the coalescing key: a digest of the model, the exact role, name and content of every prompt message,
+     * and the sampling parameters, so only requests that would be sent identically share a call.
+     */
+    private String flightKey(ChatCompletionRequest request) {
+        StringBuilder prompt = new StringBuilder(request.getModel())
+                .append('\n').append(request.getTemperature())
+                .append('|').append(request.getTopP())
+                .append('|').append(request.getN())
+                .append('|').append(request.getMaxTokens())
+                .append('|').append(request.getStop())
+                .append('|').append(request.getPresencePenalty())
+                .append('|').append(request.getFrequencyPenalty())
+                .append('|').append(request.getLogitBias())
+                .append('|').append(request.getUser());
+        for (ChatMessage message : request.getMessages()) {
+            String content = message.getContent();
+            // Length-prefixed so message boundaries cannot be forged by content
+            prompt.append('\n').append(message.getRole()).append(':').append(message.getName()).append(':')
+                    .append(content == null ? -1 : content.length()).append(':').append(content);
+        }
+        return digest(prompt);
+    }
+
+    private static String digest(CharSequence text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    private static String normalize(String content) {
+        return content == null ? "" : content.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Embeds the single prompt message. Failures only disable the semantic lookup for this request.
+     * The embeddings call is optional, so it is skipped rather than queued when the upstream scheduler
+     * has no free slot or budget (or is paused after a 429), and while the circuit breaker is open.
+     */
+    private PromptEmbedding embed(ChatCompletionRequest request) {
+        try {
+            String text = normalize(request.getMessages().get(0).getContent());
+            EmbeddingRequest embeddingRequest = EmbeddingRequest.builder()
+                    .model(embeddingModel)
+                    .input(List.of(text))
+                    .build();
+            String lane = UpstreamScheduler.lane(embeddingModel, baseUrl);
+            Optional<List<Double>> admitted = upstreamScheduler.tryExecute(lane, UpstreamScheduler.estimateTokens(text),
+                    () -> upstreamResilience.executeOnce(lane,
+                            () -> openAiService.createEmbeddings(embeddingRequest).getData().get(0).getEmbedding()));
+            if (admitted.isEmpty()) {
+                log.debug("Upstream busy, skipping semantic cache lookup");
+                return null;
+            }
+            List<Double> values = admitted.get();
+
+            float[] vector = new float[values.size()];
+            double norm = 0;
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = values.get(i).floatValue();
+                norm += vector[i] * vector[i];
+            }
+            norm = Math.sqrt(norm);
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] /= (float) norm;
+            }
+            return new PromptEmbedding(request.getModel(), vector);
+        } catch (UpstreamUnavailableException ex) {
+            log.debug("Circuit open, skipping semantic cache lookup");
+            return null;
+        } catch (Exception ex) {
+            log.warn("Embedding lookup failed, skipping semantic cache: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Finds the cached completion of the most similar earlier prompt for the same model, if similar enough.
+     */
+    private ChatCompletionResult findSimilar(PromptEmbedding embedding) {
+        String bestKey = null;
+        double bestSimilarity = similarityThreshold;
+        for (Map.Entry<String, PromptEmbedding> entry : embeddings.asMap().entrySet()) {
+            PromptEmbedding candidate = entry.getValue();
+            if (!candidate.model().equals(embedding.model()) || candidate.vector().length != embedding.vector().length) {
+                continue;
+            }
+            double similarity = 0;
+            for (int i = 0; i < embedding.vector().length; i++) {
+                similarity += embedding.vector()[i] * candidate.vector()[i];
+            }
+            if (similarity >= bestSimilarity) {
+                bestSimilarity = similarity;
+                bestKey = entry.getKey();
+            }
+        }
+        return bestKey != null ? responses.getIfPresent(bestKey) : null;
+    }
+
+    private static boolean hasContent(ChatCompletionResult result) {
+        return result != null && result.getChoices() != null && !result.getChoices().isEmpty()
+                && result.getChoices().get(0).getMessage() != null
+                && result.getChoices().get(0).getMessage().getContent() != null;
+    }
+}
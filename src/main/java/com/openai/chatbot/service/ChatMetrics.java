@@ -0,0 +1,83 @@
+package com.openai.chatbot.service;
+
+import com.theokanning.openai.Usage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and token usage of the chat pipeline.
+ * Each stage of a chat is recorded in the {@code chat.stage} timer tagged {@code stage}, so a slow chat can be
+ * attributed to the database (assembling context, saving the message pair, which creates the conversation for
+ * a new chat) or to OpenAI (the upstream call, and the time to the first streamed token). Histogram buckets for
+ * these timers are enabled in {@code application.properties}. Prompt and completion tokens reported by OpenAI are
+ * counted in {@code chat.tokens}, tagged {@code model} and {@code type}.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatMetrics {
+
+    /**
+     * Stages of a chat, in order.
+     */
+    public enum Stage {
+        CONTEXT_ASSEMBLY,
+        UPSTREAM,
+        FIRST_TOKEN,
+        SAVE_MESSAGES
+    }
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+
+    @PostConstruct
+    void init() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, Timer.builder("chat.stage")
+                    .description("Time spent in each stage of a chat")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Records a stage that started at the given time and has just finished.
+     *
+     * @param stage      the stage
+     * @param startNanos the stage's start, from {@link System#nanoTime()}
+     */
+    public void record(Stage stage, long startNanos) {
+        stages.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts the tokens billed for a completion.
+     *
+     * @param model the model that produced the completion
+     * @param usage the usage reported by OpenAI, or null if none was reported
+     */
+    public void recordUsage(String model, Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        tokens(model, "prompt").increment(usage.getPromptTokens());
+        tokens(model, "completion").increment(usage.getCompletionTokens());
+    }
+
+    private Counter tokens(String model, String type) {
+        return Counter.builder("chat.tokens")
+                .description("Tokens billed by OpenAI for chat completions")
+                .tag("model", model != null ? model : "unknown")
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+}
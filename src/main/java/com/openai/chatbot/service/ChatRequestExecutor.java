@@ -0,0 +1,128 @@
+package com.openai.chatbot.service;
+
+import com.openai.chatbot.exception.ChatOverloadedException;
+import io.micrometer.context.ContextSnapshot;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs chat requests off the servlet thread with a fixed in-flight limit and a bounded FIFO queue.
+ * Once both are full, new requests are rejected immediately with {@link ChatOverloadedException}
+ * rather than piling up, so the client can back off and retry.
+ * The submitting thread's context (e.g. the current trace span) is carried over to the chat task.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatRequestExecutor {
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Maximum number of chats processed at once; size it to what the upstream can serve.
+     */
+    @Value("${chat.async.max-in-flight:256}")
+    private int maxInFlight;
+
+    /**
+     * Maximum number of chats waiting for a free slot.
+     */
+    @Value("${chat.async.queue-capacity:512}")
+    private int queueCapacity;
+
+    /**
+     * Retry-After hint returned with rejected requests.
+     */
+    @Value("${chat.async.retry-after:2s}")
+    private Duration retryAfter;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    private final ContextSnapshotFactory contextSnapshotFactory = ContextSnapshotFactory.builder().build();
+
+    private ThreadPoolExecutor executor;
+    private Counter rejected;
+
+    @PostConstruct
+    void init() {
+        executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), threadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("chat.async.in-flight", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Chat requests currently being processed")
+                .register(meterRegistry);
+        Gauge.builder("chat.async.queued", executor, e -> e.getQueue().size())
+                .description("Chat requests waiting for a free slot")
+                .register(meterRegistry);
+        rejected = Counter.builder("chat.async.rejected")
+                .description("Chat requests rejected because the in-flight limit and queue were full")
+                .register(meterRegistry);
+
+        log.info("Chat request executor started: max in flight {}, queue capacity {}", maxInFlight, queueCapacity);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Schedules a chat task.
+     *
+     * @param task the blocking chat work
+     * @param <T>  the result type
+     * @return a future completed with the task's result or failure, or already failed with
+     * {@link ChatOverloadedException} if there is no room for the task
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            ContextSnapshot context = contextSnapshotFactory.captureAll();
+            CompletableFuture<T> future = new CompletableFuture<>();
+            executor.execute(() -> {
+                // Completed inside the scope, so dependent stages run in the submitter's context too
+                try (ContextSnapshot.Scope scope = context.setThreadLocals()) {
+                    future.complete(task.get());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+            return future;
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+            log.warn("Rejecting chat request: {} in flight, {} queued", executor.getActiveCount(), executor.getQueue().size());
+            return CompletableFuture.failedFuture(new ChatOverloadedException(retryAfter));
+        }
+    }
+
+    private ThreadFactory threadFactory() {
+        if (virtualThreadsEnabled) {
+            return Thread.ofVirtual().name("chat-", 0).factory();
+        }
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "chat-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
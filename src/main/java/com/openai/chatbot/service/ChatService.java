@@ -1,35 +1,48 @@
 package com.openai.chatbot.service;
 
 import com.openai.chatbot.dto.ChatResponse;
-import com.openai.chatbot.entity.Conversation;
+import com.openai.chatbot.exception.ChatOverloadedException;
 import com.openai.chatbot.exception.ChatServiceException;
+import com.openai.chatbot.exception.UpstreamUnavailableException;
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.completion.chat.ChatCompletionChoice;
+import com.theokanning.openai.completion.chat.ChatCompletionChunk;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
 import com.theokanning.openai.completion.chat.ChatCompletionResult;
 import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.service.OpenAiService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Service class for handling chat interactions with OpenAI.
  * Manages the communication with the OpenAI API and processes chat requests.
+ * The duration of each stage of a chat is recorded in {@link ChatMetrics}.
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class ChatService {
 
-    private final OpenAiService openAiService;
+    private final ChatCompletionCache chatCompletionCache;
     private final ConversationService conversationService;
-
-    @Value("${openai.model}")
-    private String modelName;
+    private final ContextAssemblyService contextAssemblyService;
+    private final ConversationSummaryService conversationSummaryService;
+    private final ChatRequestExecutor chatRequestExecutor;
+    private final UpstreamScheduler upstreamScheduler;
+    private final UpstreamResilience upstreamResilience;
+    private final ModelRouter modelRouter;
+    private final ChatMetrics chatMetrics;
 
     /**
      * Default user UUID for conversations when no user is specified.
@@ -51,35 +64,63 @@ public class ChatService {
     /**
      * Processes a chat message and returns the AI response.
      * Creates a new conversation if conversationId is null, otherwise continues existing conversation.
-     * Wrapped in a transaction to ensure atomic operation of conversation creation and message persistence.
+     * Deliberately not transactional: the messages are saved in one short transaction after the reply arrives,
+     * so no JDBC connection is held while waiting on the OpenAI API. A new conversation is created in that same
+     * transaction, so a failed chat leaves nothing behind.
      *
      * @param message the user's message
      * @param conversationId the optional conversation ID to continue
      * @return ChatResponse containing the AI response, model used, and conversation ID
      * @throws ChatServiceException if there's an error communicating with OpenAI
      */
-    @Transactional
     public ChatResponse chat(String message, UUID conversationId) {
+        return chat(message, conversationId, true);
+    }
+
+    /**
+     * Processes a chat message and returns the AI response.
+     * Creates a new conversation if conversationId is null, otherwise continues existing conversation.
+     * Deliberately not transactional: conversation creation and message persistence each run in their own
+     * short transaction, so no JDBC connection is held while waiting on the OpenAI API.
+     * The completion is served from the response cache when allowed and available; otherwise the model router
+     * picks the model by prompt size and model health, falling back to another model if it fails.
+     *
+     * @param message the user's message
+     * @param conversationId the optional conversation ID to continue
+     * @param useCache false to always ask OpenAI, bypassing the response cache
+     * @return ChatResponse containing the AI response, the model that served it, and conversation ID
+     * @throws ChatServiceException if there's an error communicating with OpenAI
+     */
+    public ChatResponse chat(String message, UUID conversationId, boolean useCache) {
         log.debug("Processing chat request with message: {}, conversationId: {}", message, conversationId);
 
         try {
-            // Create new conversation if needed
-            if (conversationId == null) {
-                Conversation conversation = conversationService.createConversation(DEFAULT_USER_UUID);
-                conversationId = conversation.getPublicId();
-                log.debug("Created new conversation: {}", conversationId);
-            }
+            // Assemble recent history within the token budget (new conversations have none)
+            long start = System.nanoTime();
+            Function<String, List<ChatMessage>> prompts = prompts(conversationId, message);
+            List<ChatMessage> prompt = prompts.apply(modelRouter.primaryModel());
+            chatMetrics.record(ChatMetrics.Stage.CONTEXT_ASSEMBLY, start);
 
-            // Build the chat completion request (still only sends current message to OpenAI)
-            ChatCompletionRequest request = ChatCompletionRequest.builder()
-                    .model(modelName)
-                    .messages(List.of(new ChatMessage("user", message)))
-                    .build();
+            // A new conversation is only created with its first messages, once the reply has arrived
+            boolean newConversation = conversationId == null;
+            if (newConversation) {
+                conversationId = UUID.randomUUID();
+            }
 
-            log.debug("Sending request to OpenAI with model: {}", modelName);
+            // Call OpenAI API (through the response cache) on the routed model, falling back if it fails
+            start = System.nanoTime();
+            ModelRouter.Routed<ChatCompletionResult> routed = modelRouter.execute(
+                    model -> contextAssemblyService.countTokens(prompt, model), (route, hasFallback) -> {
+                        ChatCompletionRequest request = ChatCompletionRequest.builder()
+                                .model(route.model())
+                                .messages(prompts.apply(route.model()))
+                                .build();
 
-            // Call OpenAI API
-            ChatCompletionResult result = openAiService.createChatCompletion(request);
+                        log.debug("Sending request to OpenAI with model: {}", route.model());
+                        return chatCompletionCache.createChatCompletion(request, useCache, route, hasFallback);
+                    });
+            ChatCompletionResult result = routed.value();
+            chatMetrics.record(ChatMetrics.Stage.UPSTREAM, start);
 
             // Validate response
             if (result == null || result.getChoices() == null || result.getChoices().isEmpty()) {
@@ -99,15 +140,201 @@ public class ChatService {
             log.debug("Received response from OpenAI");
 
             // Save message pair to conversation history
-            conversationService.saveMessagePair(conversationId, message, aiResponse);
+            start = System.nanoTime();
+            saveMessagePair(conversationId, newConversation, message, aiResponse);
+            chatMetrics.record(ChatMetrics.Stage.SAVE_MESSAGES, start);
 
-            return new ChatResponse(aiResponse, modelName, conversationId);
+            // Compact older turns in the background once enough have accumulated
+            conversationSummaryService.summarizeIfNeeded(conversationId);
 
-        } catch (ChatServiceException ex) {
-            throw ex; // Re-throw chat service exceptions
+            return new ChatResponse(aiResponse, routed.route().model(), conversationId);
+
+        } catch (ChatServiceException | ChatOverloadedException | UpstreamUnavailableException ex) {
+            throw ex; // Re-throw chat service and backpressure exceptions
         } catch (Exception ex) {
             log.error("Error processing chat request: {}", ex.getMessage(), ex);
             throw new ChatServiceException("Failed to get response from OpenAI", ex);
         }
     }
+
+    /**
+     * Asynchronous variant of {@link #chat(String, UUID, boolean)}.
+     * The chat runs on the bounded chat request executor, so the calling (servlet) thread is free
+     * while OpenAI answers.
+     *
+     * @param message the user's message
+     * @param conversationId the optional conversation ID to continue
+     * @param useCache false to always ask OpenAI, bypassing the response cache
+     * @return future completed with the ChatResponse, or failed with {@link ChatServiceException}, or with
+     * {@link ChatOverloadedException} if too many chats are already in flight
+     */
+    public CompletableFuture<ChatResponse> chatAsync(String message, UUID conversationId, boolean useCache) {
+        return chatRequestExecutor.submit(() -> chat(message, conversationId, useCache));
+    }
+
+    /**
+     * Asynchronous variant of {@link #streamChat(String, UUID, Consumer)}.
+     * Streams share the chat request executor's in-flight limit and queue with {@link #chatAsync}.
+     *
+     * @param message        the user's message
+     * @param conversationId the optional conversation ID to continue
+     * @param tokenConsumer  callback receiving each content token in order
+     * @return future completed with the ChatResponse, or failed with {@link ChatServiceException}, or with
+     * {@link com.openai.chatbot.exception.ChatOverloadedException} if too many chats are already in flight
+     */
+    public CompletableFuture<ChatResponse> streamChatAsync(String message, UUID conversationId,
+                                                           Consumer<String> tokenConsumer) {
+        return chatRequestExecutor.submit(() -> streamChat(message, conversationId, tokenConsumer));
+    }
+
+    /**
+     * Processes a chat message using the OpenAI streaming API.
+     * Each content token is handed to the consumer as soon as it arrives; once the stream
+     * completes, the assembled reply is persisted as a single message pair.
+     * If the consumer throws (e.g. the client disconnected), the upstream stream is cancelled
+     * and nothing is persisted. Streamed replies bypass the response cache, and since tokens may already
+     * have been sent, they go to the routed model without fallback.
+     * The stream is admitted by the {@link UpstreamScheduler} like any other OpenAI call and holds its slot
+     * until the stream ends; a 429 before the first token re-queues it like a throttled completion.
+     * It is refused while the circuit breaker is open, and its outcome is recorded in the breaker;
+     * a consumer failure (the client going away) says nothing about OpenAI and is not counted.
+     *
+     * @param message        the user's message
+     * @param conversationId the optional conversation ID to continue
+     * @param tokenConsumer  callback receiving each content token in order
+     * @return ChatResponse containing the assembled AI response, the model that served it, and conversation ID
+     * @throws ChatServiceException if there's an error communicating with OpenAI
+     */
+    public ChatResponse streamChat(String message, UUID conversationId, Consumer<String> tokenConsumer) {
+        log.debug("Processing streaming chat request with message: {}, conversationId: {}", message, conversationId);
+
+        try {
+            // Assemble recent history within the token budget (new conversations have none)
+            long start = System.nanoTime();
+            Function<String, List<ChatMessage>> prompts = prompts(conversationId, message);
+            List<ChatMessage> prompt = prompts.apply(modelRouter.primaryModel());
+            chatMetrics.record(ChatMetrics.Stage.CONTEXT_ASSEMBLY, start);
+
+            // A new conversation is only created with its first messages, once the reply has arrived
+            boolean newConversation = conversationId == null;
+            if (newConversation) {
+                conversationId = UUID.randomUUID();
+            }
+
+            ModelRouter.Route route = modelRouter.select(model -> contextAssemblyService.countTokens(prompt, model));
+            ChatCompletionRequest request = ChatCompletionRequest.builder()
+                    .model(route.model())
+                    .messages(prompts.apply(route.model()))
+                    .build();
+
+            log.debug("Opening OpenAI stream with model: {}", route.model());
+
+            StringBuilder reply = new StringBuilder();
+            RuntimeException[] consumerFailure = new RuntimeException[1];
+            long streamStart = System.nanoTime();
+            try {
+                upstreamResilience.executeOnce(route.lane(), () -> upstreamScheduler.execute(route.lane(), request,
+                        () -> streamReply(route.client(), request, reply, streamStart, token -> {
+                            try {
+                                tokenConsumer.accept(token);
+                            } catch (RuntimeException ex) {
+                                // Cancel the stream without exposing the cause to the circuit breaker
+                                consumerFailure[0] = ex;
+                                throw new CancellationException("Token consumer failed");
+                            }
+                        })));
+            } catch (CancellationException ex) {
+                throw new ChatServiceException("Client stopped receiving the stream", consumerFailure[0]);
+            }
+            chatMetrics.record(ChatMetrics.Stage.UPSTREAM, streamStart);
+
+            if (reply.isEmpty()) {
+                log.error("OpenAI stream completed without any content");
+                throw new ChatServiceException("No response generated from OpenAI");
+            }
+
+            String aiResponse = reply.toString();
+            log.debug("OpenAI stream completed");
+
+            // Persist the assembled reply in one step
+            start = System.nanoTime();
+            saveMessagePair(conversationId, newConversation, message, aiResponse);
+            chatMetrics.record(ChatMetrics.Stage.SAVE_MESSAGES, start);
+
+            // Compact older turns in the background once enough have accumulated
+            conversationSummaryService.summarizeIfNeeded(conversationId);
+
+            return new ChatResponse(aiResponse, route.model(), conversationId);
+
+        } catch (ChatServiceException | ChatOverloadedException | UpstreamUnavailableException ex) {
+            throw ex; // Re-throw chat service and backpressure exceptions
+        } catch (Exception ex) {
+            log.error("Error processing streaming chat request: {}", ex.getMessage(), ex);
+            throw new ChatServiceException("Failed to get response from OpenAI", ex);
+        }
+    }
+
+    /**
+     * Assembles the prompt for each model it is requested for, once: how much history fits the token budget
+     * depends on the model's tokenizer. Usually only the preferred model's prompt is ever assembled.
+     */
+    private Function<String, List<ChatMessage>> prompts(UUID conversationId, String message) {
+        Map<String, List<ChatMessage>> prompts = new HashMap<>();
+        return model -> prompts.computeIfAbsent(model,
+                key -> contextAssemblyService.assemble(conversationId, message, key));
+    }
+
+    /**
+     * Saves the message pair, creating the conversation with it if the chat started one.
+     */
+    private void saveMessagePair(UUID conversationId, boolean newConversation, String message, String aiResponse) {
+        if (newConversation) {
+            conversationService.startConversation(conversationId, DEFAULT_USER_UUID, message, aiResponse);
+            log.debug("Created new conversation: {}", conversationId);
+        } else {
+            conversationService.saveMessagePair(conversationId, message, aiResponse);
+        }
+    }
+
+    /**
+     * Streams one reply into the builder, forwarding each token as it arrives.
+     * The time from {@code start} to the first token is recorded once, even if the stream is re-queued.
+     */
+    private StringBuilder streamReply(OpenAiService client, ChatCompletionRequest request, StringBuilder reply,
+                                      long start, Consumer<String> tokenConsumer) {
+        try {
+            client.streamChatCompletion(request).blockingForEach(chunk -> {
+                String token = extractToken(chunk);
+                if (token != null && !token.isEmpty()) {
+                    if (reply.isEmpty()) {
+                        chatMetrics.record(ChatMetrics.Stage.FIRST_TOKEN, start);
+                    }
+                    reply.append(token);
+                    tokenConsumer.accept(token);
+                }
+            });
+        } catch (OpenAiHttpException ex) {
+            if (!reply.isEmpty()) {
+                // Tokens were already sent, so the scheduler must not replay the stream
+                throw new ChatServiceException("OpenAI stream failed after the first token", ex);
+            }
+            throw ex;
+        }
+        return reply;
+    }
+
+    /**
+     * Extracts the content delta from a streamed chunk.
+     * The first chunk usually carries only the role and the last one only the finish reason.
+     *
+     * @param chunk the streamed chunk
+     * @return the content token, or null if the chunk carries no content
+     */
+    private String extractToken(ChatCompletionChunk chunk) {
+        if (chunk == null || chunk.getChoices() == null || chunk.getChoices().isEmpty()) {
+            return null;
+        }
+        ChatCompletionChoice choice = chunk.getChoices().get(0);
+        return choice.getMessage() != null ? choice.getMessage().getContent() : null;
+    }
 }
@@ -0,0 +1,196 @@
+package com.openai.chatbot.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.openai.chatbot.datasource.ReadYourWrites;
+import com.openai.chatbot.entity.Conversation;
+import com.openai.chatbot.entity.Message;
+import com.openai.chatbot.repository.ConversationRepository;
+import com.openai.chatbot.repository.MessageRepository;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Service class for assembling the prompt sent to OpenAI.
+ * Combines the rolling summary and most recent turns of a conversation with the new user message,
+ * trimmed to a fixed token budget so per-turn cost does not grow with conversation length.
+ * The turns of an archived conversation are read from the archive without rehydrating it; saving the
+ * reply rehydrates it.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ContextAssemblyService {
+
+    /**
+     * Approximate per-message overhead of the chat format (role and separators).
+     */
+    static final int TOKENS_PER_MESSAGE = 4;
+
+    /**
+     * Prefix framing the stored summary when it is sent as a system message.
+     */
+    static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
+
+    private static final EncodingRegistry ENCODINGS = Encodings.newLazyEncodingRegistry();
+
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final ReadYourWrites readYourWrites;
+    private final ConversationArchiveService conversationArchiveService;
+
+    /**
+     * Maximum number of prompt tokens (history plus the new message).
+     */
+    @Value("${chat.context.max-tokens:3000}")
+    private int maxTokens;
+
+    /**
+     * Maximum number of previous messages read from the database per turn.
+     */
+    @Value("${chat.context.max-messages:20}")
+    private int maxMessages;
+
+    /**
+     * Builds the prompt for a new user message.
+     * Starts with the conversation's rolling summary (if any), followed by the newest turns not yet
+     * folded into it that fit the token budget. At most {@code maxMessages} turns are read, so the cost
+     * per turn does not depend on conversation length. The new user message is always included,
+     * even if it alone exceeds the budget. A conversation written within the read-your-writes window is
+     * read from the primary, so the previous turn is in the context even if the replica lags.
+     *
+     * @param conversationId the public UUID of the conversation, or null for a new conversation
+     * @param userMessage    the new user message
+     * @param model          the model the prompt is sent to, which decides how tokens are counted
+     * @return chat messages in chronological order, ending with the new user message
+     */
+    @Transactional(readOnly = true)
+    public List<ChatMessage> assemble(UUID conversationId, String userMessage, String model) {
+        ChatMessage current = new ChatMessage("user", userMessage);
+        if (conversationId == null) {
+            return List.of(current);
+        }
+
+        // The transaction keeps the connection its first query picked for the later ones
+        Conversation conversation;
+        try (ReadYourWrites.Pin pin = readYourWrites.pin(conversationId)) {
+            conversation = conversationRepository.findByPublicId(conversationId).orElse(null);
+        }
+        if (conversation == null) {
+            return List.of(current);
+        }
+
+        Encoding encoding = encoding(model);
+        int budget = maxTokens - countTokens(encoding, userMessage);
+
+        // Rolling summary of older turns comes first when it fits
+        ChatMessage summary = null;
+        if (conversation.getSummaryMessageId() != null) {
+            Message summaryMessage = messageRepository.findById(conversation.getSummaryMessageId()).orElse(null);
+            if (summaryMessage != null) {
+                String content = SUMMARY_PREFIX + summaryMessage.getContent();
+                int cost = countTokens(encoding, content);
+                if (cost <= budget) {
+                    budget -= cost;
+                    summary = new ChatMessage("system", content);
+                }
+            }
+        }
+
+        SummaryWatermark watermark = SummaryWatermark.of(conversation);
+        List<Message> recent = maxMessages > 0
+                ? messageRepository.findRecentTurns(conversation.getId(),
+                        watermark.createdAt(), watermark.id(), PageRequest.of(0, maxMessages))
+                : List.of();
+        if (maxMessages > 0 && conversation.getArchivedAt() != null) {
+            recent = withArchivedTurns(conversation, recent);
+        }
+
+        // Walk newest to oldest, stopping at the first message that no longer fits
+        List<ChatMessage> history = new ArrayList<>();
+        for (Message message : recent) {
+            int cost = countTokens(encoding, message.getContent());
+            if (cost > budget) {
+                break;
+            }
+            budget -= cost;
+            history.add(new ChatMessage(message.getRole(), message.getContent()));
+        }
+        if (summary != null) {
+            history.add(summary);
+        }
+        Collections.reverse(history);
+        history.add(current);
+
+        log.debug("Assembled context for conversation {}: summary={}, {} of {} recent messages, {} tokens left",
+                conversationId, summary != null, history.size() - (summary != null ? 2 : 1), recent.size(), budget);
+
+        return history;
+    }
+
+    /**
+     * Counts the tokens a prompt occupies with a model's tokenizer, including chat format overhead.
+     *
+     * @param messages the prompt messages
+     * @param model    the model whose tokenizer counts the prompt
+     * @return the prompt size in tokens
+     */
+    public int countTokens(List<ChatMessage> messages, String model) {
+        Encoding encoding = encoding(model);
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += countTokens(encoding, message.getContent() != null ? message.getContent() : "");
+        }
+        return tokens;
+    }
+
+    /**
+     * Merges the archived turns not yet folded into the summary with the hot ones, newest first,
+     * keeping at most {@code maxMessages}.
+     */
+    private List<Message> withArchivedTurns(Conversation conversation, List<Message> hot) {
+        SummaryWatermark watermark = SummaryWatermark.of(conversation);
+        List<Message> merged = new ArrayList<>(hot);
+        for (ConversationArchiveService.ArchivedMessage archived :
+                conversationArchiveService.load(conversation.getId())) {
+            if (!"system".equals(archived.role()) && watermark.isBefore(archived.createdAt(), archived.id())) {
+                merged.add(Message.builder()
+                        .id(archived.id())
+                        .role(archived.role())
+                        .content(archived.content())
+                        .createdAt(archived.createdAt())
+                        .build());
+            }
+        }
+        merged.sort(Comparator.comparing(Message::getCreatedAt).thenComparing(Message::getId).reversed());
+        return merged.size() > maxMessages ? merged.subList(0, maxMessages) : merged;
+    }
+
+    /**
+     * Counts the tokens a message occupies in the prompt, including chat format overhead.
+     */
+    private int countTokens(Encoding encoding, String content) {
+        return encoding.countTokens(content) + TOKENS_PER_MESSAGE;
+    }
+
+    /**
+     * Resolves the tokenizer for a model, falling back to cl100k_base for unknown models.
+     */
+    private Encoding encoding(String model) {
+        return ENCODINGS.getEncodingForModel(model)
+                .orElseGet(() -> ENCODINGS.getEncoding(EncodingType.CL100K_BASE));
+    }
+}
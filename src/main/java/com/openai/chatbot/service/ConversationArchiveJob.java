@@ -0,0 +1,75 @@
+package com.openai.chatbot.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Background job moving conversations idle for longer than {@code chat.archive.cold-after} to the message
+ * archive. Runs every {@code chat.archive.interval}, archiving in batches of {@code chat.archive.batch-size}
+ * conversations with one short transaction each, so it never holds locks on many conversations at once.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationArchiveJob {
+
+    private final ConversationArchiveService conversationArchiveService;
+
+    @Value("${chat.archive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.archive.cold-after:90d}")
+    private Duration coldAfter;
+
+    @Value("${chat.archive.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * Archives every conversation currently past the idle cutoff.
+     */
+    @Scheduled(fixedDelayString = "${chat.archive.interval:1h}", initialDelayString = "${chat.archive.interval:1h}")
+    public void run() {
+        if (enabled) {
+            archiveIdleSince(LocalDateTime.now().minus(coldAfter));
+        }
+    }
+
+    /**
+     * Archives conversations idle since the cutoff until none are left.
+     *
+     * @param cutoff the idle cutoff
+     * @return the number of conversations archived
+     */
+    public int archiveIdleSince(LocalDateTime cutoff) {
+        int total = 0;
+        while (true) {
+            List<Long> batch = conversationArchiveService.findColdConversations(cutoff, batchSize);
+            int archived = 0;
+            for (Long conversationId : batch) {
+                try {
+                    if (conversationArchiveService.archive(conversationId, cutoff)) {
+                        archived++;
+                    }
+                } catch (Exception ex) {
+                    log.warn("Failed to archive conversation {}: {}", conversationId, ex.getMessage());
+                }
+            }
+            total += archived;
+            // A short batch was the last one; a batch that archived nothing would only be read again
+            if (batch.size() < batchSize || archived == 0) {
+                break;
+            }
+        }
+        if (total > 0) {
+            log.info("Archived {} conversations idle since {}", total, cutoff);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,225 @@
+package com.openai.chatbot.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openai.chatbot.compression.MessageContentCodec;
+import com.openai.chatbot.datasource.ReadYourWrites;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Moves the turns of cold conversations between the messages table and the message archive.
+ * Archiving packs a conversation's messages into one gzip-compressed JSON row of {@code message_archives} and
+ * deletes them from {@code messages}, so the hot table and its index only hold active conversations. The
+ * rolling summary message stays in {@code messages}, since the conversation row references it.
+ * Rehydrating reverses this with the original IDs and timestamps, so cursors and summary bookkeeping stay valid.
+ * Archives hold plain bodies; bodies are decompressed on the way in and compressed again on the way out.
+ * Both run as plain JDBC on the caller's transaction, so a writer can rehydrate and append atomically.
+ * Conversations archived and rehydrated are counted in {@code chat.archive.conversations} tagged {@code action},
+ * and the archive's bytes before and after compression in {@code chat.archive.bytes} tagged {@code type}.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationArchiveService {
+
+    private static final TypeReference<List<ArchivedMessage>> MESSAGE_LIST = new TypeReference<>() {
+    };
+
+    private static final int JDBC_BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final ReadYourWrites readYourWrites;
+    private final MessageContentCodec messageContentCodec;
+    private final MeterRegistry meterRegistry;
+
+    private Counter archived;
+    private Counter rehydrated;
+    private Counter rawBytes;
+    private Counter compressedBytes;
+
+    /**
+     * A message as stored in the archive.
+     *
+     * @param id        the message's original ID
+     * @param role      the message role
+     * @param content   the message content
+     * @param createdAt the message's original timestamp
+     */
+    public record ArchivedMessage(Long id, String role, String content, LocalDateTime createdAt) {
+    }
+
+    @PostConstruct
+    void init() {
+        archived = conversations("archived");
+        rehydrated = conversations("rehydrated");
+        rawBytes = bytes("raw");
+        compressedBytes = bytes("compressed");
+    }
+
+    /**
+     * Finds conversations idle since the cutoff whose turns are still in the messages table, least recently
+     * updated first. Conversations rehydrated since the cutoff are left alone.
+     *
+     * @param cutoff the idle cutoff
+     * @param limit  the maximum number of IDs to return
+     * @return internal IDs of archivable conversations
+     */
+    @Transactional(readOnly = true)
+    public List<Long> findColdConversations(LocalDateTime cutoff, int limit) {
+        return jdbcTemplate.queryForList("SELECT id FROM conversations WHERE updated_at < ? AND archived_at IS NULL " +
+                "AND (rehydrated_at IS NULL OR rehydrated_at < ?) ORDER BY updated_at LIMIT ?",
+                Long.class, cutoff, cutoff, limit);
+    }
+
+    /**
+     * Archives a conversation if it is still idle since the cutoff and not archived.
+     * Only the messages read here are deleted, so a message pair saved concurrently stays in the messages table
+     * and is merged back when the conversation is rehydrated.
+     *
+     * @param conversationId the internal ID of the conversation
+     * @param cutoff         the idle cutoff
+     * @return true if the conversation was archived by this call
+     */
+    @Transactional
+    public boolean archive(Long conversationId, LocalDateTime cutoff) {
+        LocalDateTime now = LocalDateTime.now();
+        // Claim the conversation first; the row lock orders this against a concurrent rehydrate
+        int claimed = jdbcTemplate.update("UPDATE conversations SET archived_at = ? WHERE id = ? " +
+                "AND archived_at IS NULL AND updated_at < ? AND (rehydrated_at IS NULL OR rehydrated_at < ?)",
+                now, conversationId, cutoff, cutoff);
+        if (claimed == 0) {
+            return false;
+        }
+
+        RowMapper<ArchivedMessage> row = (rs, rowNum) -> new ArchivedMessage(rs.getLong("id"), rs.getString("role"),
+                messageContentCodec.read(rs.getString("content"), rs.getBytes("content_compressed")),
+                rs.getObject("created_at", LocalDateTime.class));
+        List<ArchivedMessage> messages = jdbcTemplate.query("SELECT m.id, m.role, m.content, m.content_compressed, " +
+                "m.created_at " +
+                "FROM messages m JOIN conversations c ON c.id = m.conversation_id WHERE m.conversation_id = ? " +
+                "AND (c.summary_message_id IS NULL OR m.id <> c.summary_message_id) ORDER BY m.created_at, m.id",
+                row, conversationId);
+        jdbcTemplate.update("INSERT INTO message_archives (conversation_id, message_count, content, archived_at) " +
+                "VALUES (?, ?, ?, ?)", conversationId, messages.size(), encode(messages), now);
+        jdbcTemplate.batchUpdate("DELETE FROM messages WHERE id = ?", messages, JDBC_BATCH_SIZE,
+                (ps, message) -> ps.setLong(1, message.id()));
+
+        archived.increment();
+        log.debug("Archived {} messages of conversation {}", messages.size(), conversationId);
+        return true;
+    }
+
+    /**
+     * Moves an archived conversation's turns back into the messages table with their original IDs.
+     * Joins the caller's transaction, so a writer's rehydrate and append commit together.
+     *
+     * @param publicId       the public UUID of the conversation
+     * @param conversationId the internal ID of the conversation
+     * @return true if the conversation was rehydrated by this call, false if it was not archived
+     */
+    @Transactional
+    public boolean rehydrate(UUID publicId, Long conversationId) {
+        int claimed = jdbcTemplate.update("UPDATE conversations SET archived_at = NULL, rehydrated_at = ? " +
+                "WHERE id = ? AND archived_at IS NOT NULL", LocalDateTime.now(), conversationId);
+        if (claimed == 0) {
+            return false;
+        }
+
+        List<ArchivedMessage> messages = load(conversationId);
+        jdbcTemplate.batchUpdate("INSERT INTO messages (id, conversation_id, role, content, content_compressed, " +
+                "created_at) VALUES (?, ?, ?, ?, ?, ?)", messages, JDBC_BATCH_SIZE, (ps, message) -> {
+                    byte[] compressed = messageContentCodec.compress(message.content());
+                    ps.setLong(1, message.id());
+                    ps.setLong(2, conversationId);
+                    ps.setString(3, message.role());
+                    ps.setString(4, compressed == null ? message.content() : null);
+                    ps.setBytes(5, compressed);
+                    ps.setObject(6, message.createdAt());
+                });
+        jdbcTemplate.update("DELETE FROM message_archives WHERE conversation_id = ?", conversationId);
+        // Replicas see the restored rows only after they catch up
+        readYourWrites.recordWrite(publicId);
+
+        rehydrated.increment();
+        log.info("Rehydrated {} archived messages of conversation {}", messages.size(), publicId);
+        return true;
+    }
+
+    /**
+     * Reads an archived conversation's messages without rehydrating it.
+     *
+     * @param conversationId the internal ID of the conversation
+     * @return the archived messages in chronological order, or an empty list if none are archived
+     */
+    @Transactional(readOnly = true)
+    public List<ArchivedMessage> load(Long conversationId) {
+        List<byte[]> rows = jdbcTemplate.query("SELECT content FROM message_archives WHERE conversation_id = ?",
+                (rs, rowNum) -> rs.getBytes("content"), conversationId);
+        return rows.isEmpty() ? List.of() : decode(rows.get(0));
+    }
+
+    /**
+     * Decodes the {@code content} column of a {@code message_archives} row.
+     *
+     * @param content the compressed archive
+     * @return the archived messages in chronological order
+     */
+    public List<ArchivedMessage> decode(byte[] content) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            return objectMapper.readValue(in, MESSAGE_LIST);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Corrupt message archive", ex);
+        }
+    }
+
+    private byte[] encode(List<ArchivedMessage> messages) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(messages);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(json);
+            }
+            rawBytes.increment(json.length);
+            compressedBytes.increment(compressed.size());
+            return compressed.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Failed to encode message archive", ex);
+        }
+    }
+
+    private Counter conversations(String action) {
+        return Counter.builder("chat.archive.conversations")
+                .description("Conversations moved to or restored from the message archive")
+                .tag("action", action)
+                .register(meterRegistry);
+    }
+
+    private Counter bytes(String type) {
+        return Counter.builder("chat.archive.bytes")
+                .description("Size of archived messages before and after compression")
+                .tag("type", type)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,207 @@
+package com.openai.chatbot.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.openai.chatbot.compression.MessageContentCodec;
+import com.openai.chatbot.exception.ConversationServiceException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+
+/**
+ * Service for exporting a user's complete conversation history as NDJSON.
+ * Rows are read through a forward-only JDBC cursor and written to the output as they arrive,
+ * so memory use stays constant regardless of history size and no entities are materialized.
+ * The turns of archived conversations are decoded from the archive one conversation at a time and merged
+ * into the stream in chronological order.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationExportService {
+
+    /**
+     * System-role rows hold the internal rolling summary and are left out, as in the conversation detail view.
+     * The filter sits in the join so a conversation is still exported when it has no other messages.
+     * Archived system rows are dropped the same way when the archive is decoded.
+     */
+    private static final String EXPORT_QUERY =
+            "SELECT c.id AS conversation_id, c.public_id, c.title, c.created_at AS conversation_created_at, " +
+            "c.updated_at, m.id AS message_id, m.role, m.content, m.content_compressed, " +
+            "m.created_at AS message_created_at, " +
+            "a.content AS archive " +
+            "FROM conversations c LEFT JOIN messages m ON m.conversation_id = c.id AND m.role <> 'system' " +
+            "LEFT JOIN message_archives a ON a.conversation_id = c.id " +
+            "WHERE c.user_uuid = ? ORDER BY c.id, m.created_at, m.id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final ConversationArchiveService conversationArchiveService;
+    private final MessageContentCodec messageContentCodec;
+
+    @Value("${chat.export.fetch-size:500}")
+    private int fetchSize;
+
+    /**
+     * Writes every conversation of a user and its messages to the output stream as NDJSON.
+     * Each conversation is one {@code "type":"conversation"} line followed by one {@code "type":"message"}
+     * line per user or assistant message, in chronological order.
+     * Runs in a read-only transaction so drivers such as PostgreSQL honor the fetch size with a server-side cursor.
+     *
+     * @param userUuid the UUID of the user
+     * @param out      the stream to write to; flushed but not closed
+     * @return the number of messages exported
+     */
+    @Transactional(readOnly = true)
+    public long exportUserHistory(UUID userUuid, OutputStream out) {
+        log.info("Exporting conversation history for user: {}", userUuid);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            ExportWriter writer = new ExportWriter(generator, conversationArchiveService, messageContentCodec);
+
+            jdbcTemplate.query(con -> {
+                PreparedStatement statement = con.prepareStatement(
+                        EXPORT_QUERY, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                statement.setObject(1, userUuid);
+                return statement;
+            }, writer::write);
+            writer.finish();
+
+            generator.flush();
+            log.info("Exported {} conversations and {} messages for user: {}",
+                    writer.conversations, writer.messages, userUuid);
+            return writer.messages;
+        } catch (Exception ex) {
+            log.error("Error exporting conversations for user {}: {}", userUuid, ex.getMessage(), ex);
+            throw new ConversationServiceException("Failed to export conversations", ex);
+        }
+    }
+
+    /**
+     * Writes one NDJSON line per row, plus a conversation line whenever the conversation changes.
+     * Archived messages of the current conversation are queued and written ahead of the first hot
+     * message that follows them.
+     */
+    private static final class ExportWriter {
+
+        private final JsonGenerator generator;
+        private final ConversationArchiveService archiveService;
+        private final MessageContentCodec codec;
+        private final Deque<ConversationArchiveService.ArchivedMessage> archived = new ArrayDeque<>();
+        private long currentConversationId = -1;
+        private String currentPublicId;
+        private long conversations;
+        private long messages;
+
+        ExportWriter(JsonGenerator generator, ConversationArchiveService archiveService, MessageContentCodec codec) {
+            this.generator = generator;
+            this.archiveService = archiveService;
+            this.codec = codec;
+        }
+
+        void write(ResultSet rs) throws SQLException {
+            try {
+                long conversationId = rs.getLong("conversation_id");
+                if (conversationId != currentConversationId) {
+                    writeArchivedBefore(null, null);
+                    currentConversationId = conversationId;
+                    currentPublicId = rs.getString("public_id");
+                    writeConversation(rs);
+                    conversations++;
+                    byte[] archive = rs.getBytes("archive");
+                    if (archive != null) {
+                        archiveService.decode(archive).stream()
+                                .filter(message -> !"system".equals(message.role()))
+                                .forEach(archived::add);
+                    }
+                }
+                long messageId = rs.getLong("message_id");
+                if (!rs.wasNull()) {
+                    Timestamp createdAt = rs.getTimestamp("message_created_at");
+                    writeArchivedBefore(createdAt != null ? createdAt.toLocalDateTime() : null, messageId);
+                    writeMessage(rs);
+                    messages++;
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        void finish() throws IOException {
+            writeArchivedBefore(null, null);
+        }
+
+        /**
+         * Writes the queued archived messages preceding the given position, or all of them if it is null.
+         */
+        private void writeArchivedBefore(LocalDateTime createdAt, Long id) throws IOException {
+            while (!archived.isEmpty() && precedes(archived.peekFirst(), createdAt, id)) {
+                ConversationArchiveService.ArchivedMessage message = archived.pollFirst();
+                generator.writeStartObject();
+                generator.writeStringField("type", "message");
+                generator.writeStringField("conversationId", currentPublicId);
+                generator.writeNumberField("id", message.id());
+                generator.writeStringField("role", message.role());
+                generator.writeStringField("content", message.content());
+                generator.writeStringField("timestamp",
+                        message.createdAt() != null ? message.createdAt().toString() : null);
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                messages++;
+            }
+        }
+
+        private static boolean precedes(ConversationArchiveService.ArchivedMessage message,
+                                        LocalDateTime createdAt, Long id) {
+            if (createdAt == null || message.createdAt() == null) {
+                return true;
+            }
+            int order = message.createdAt().compareTo(createdAt);
+            return order < 0 || (order == 0 && message.id() < id);
+        }
+
+        private void writeConversation(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeStringField("type", "conversation");
+            generator.writeStringField("id", currentPublicId);
+            generator.writeStringField("title", rs.getString("title"));
+            generator.writeStringField("createdAt", format(rs.getTimestamp("conversation_created_at")));
+            generator.writeStringField("updatedAt", format(rs.getTimestamp("updated_at")));
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        private void writeMessage(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeStringField("type", "message");
+            generator.writeStringField("conversationId", currentPublicId);
+            generator.writeNumberField("id", rs.getLong("message_id"));
+            generator.writeStringField("role", rs.getString("role"));
+            generator.writeStringField("content",
+                    codec.read(rs.getString("content"), rs.getBytes("content_compressed")));
+            generator.writeStringField("timestamp", format(rs.getTimestamp("message_created_at")));
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        private static String format(Timestamp timestamp) {
+            return timestamp != null ? timestamp.toLocalDateTime().toString() : null;
+        }
+    }
+}
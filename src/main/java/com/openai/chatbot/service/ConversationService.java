@@ -1,18 +1,36 @@
 package com.openai.chatbot.service;
 
+import com.openai.chatbot.cache.ConversationCache;
+import com.openai.chatbot.cache.ConversationCache.ConversationListEntry;
+import com.openai.chatbot.cache.ConversationCache.MessageTailEntry;
+import com.openai.chatbot.datasource.ReadYourWrites;
 import com.openai.chatbot.dto.ConversationDetailDto;
+import com.openai.chatbot.dto.ConversationPageDto;
 import com.openai.chatbot.dto.ConversationSummaryDto;
 import com.openai.chatbot.dto.MessageDto;
+import com.openai.chatbot.dto.MessagePageDto;
 import com.openai.chatbot.entity.Conversation;
 import com.openai.chatbot.entity.Message;
 import com.openai.chatbot.exception.ConversationNotFoundException;
 import com.openai.chatbot.exception.ConversationServiceException;
+import com.openai.chatbot.exception.InvalidCursorException;
 import com.openai.chatbot.repository.ConversationRepository;
+import com.openai.chatbot.repository.MessageRepository;
+import com.openai.chatbot.repository.projection.ConversationRef;
+import com.openai.chatbot.repository.projection.ConversationSummary;
+import io.micrometer.observation.annotation.Observed;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -20,13 +38,23 @@ import java.util.stream.Collectors;
 /**
  * Service class for managing conversations and messages.
  * Handles business logic and transaction management for conversation operations.
+ * Every public method is observed as a {@code conversation.service} span (and timer) tagged with the method.
+ * With a read replica configured, writers record what they changed in {@link ReadYourWrites} and readers pin
+ * recently written conversations and conversation lists to the primary.
+ * Conversations whose turns were moved to the message archive are rehydrated transparently when their
+ * messages are read or appended to; see {@link ConversationArchiveService}.
  */
 @Slf4j
 @Service
+@Observed(name = "conversation.service")
 @RequiredArgsConstructor
 public class ConversationService {
 
     private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final ConversationCache conversationCache;
+    private final ReadYourWrites readYourWrites;
+    private final ConversationArchiveService conversationArchiveService;
 
     /**
      * Creates a new conversation for a user.
@@ -44,6 +72,8 @@ public class ConversationService {
                     .build();
 
             Conversation saved = conversationRepository.save(conversation);
+            conversationCache.evictConversationList(userUuid);
+            readYourWrites.recordWrite(saved.getPublicId(), userUuid);
             log.info("Created conversation with public ID: {}", saved.getPublicId());
 
             return saved;
@@ -53,9 +83,38 @@ public class ConversationService {
         }
     }
 
+    /**
+     * Creates a conversation with its first pair of messages in one transaction.
+     * Chats that start a conversation call this only once the reply has arrived, so a chat that fails
+     * upstream leaves no empty conversation behind. The caller picks the public ID up front, so it can
+     * report it before the conversation exists.
+     *
+     * @param conversationId   the public UUID of the new conversation
+     * @param userUuid         the UUID of the user
+     * @param userMessage      the user's message content
+     * @param assistantMessage the assistant's response content
+     */
+    @Transactional
+    public void startConversation(UUID conversationId, UUID userUuid, String userMessage, String assistantMessage) {
+        try {
+            log.debug("Starting conversation {} for user: {}", conversationId, userUuid);
+
+            conversationRepository.save(Conversation.builder()
+                    .publicId(conversationId)
+                    .userUuid(userUuid)
+                    .build());
+        } catch (Exception ex) {
+            log.error("Error creating conversation for user {}: {}", userUuid, ex.getMessage(), ex);
+            throw new ConversationServiceException("Failed to create conversation", ex);
+        }
+        saveMessagePair(conversationId, userMessage, assistantMessage);
+    }
+
     /**
      * Saves a pair of messages (user and assistant) to a conversation.
      * Generates the conversation title from the first message if not already set.
+     * Append-only: the two rows are inserted against the conversation's ID and updatedAt/title are
+     * bumped with a single update, so the conversation's message collection is never loaded.
      *
      * @param conversationId the public UUID of the conversation
      * @param userMessage    the user's message content
@@ -66,29 +125,39 @@ public class ConversationService {
         try {
             log.debug("Saving message pair to conversation: {}", conversationId);
 
-            Conversation conversation = conversationRepository.findByPublicId(conversationId)
+            ConversationRef ref = conversationRepository.findRefByPublicId(conversationId)
                     .orElseThrow(() -> new ConversationNotFoundException(conversationId));
+            Long id = ref.getId();
+            if (ref.getArchivedAt() != null) {
+                // Brings the archived turns back in this transaction, ahead of the new pair
+                conversationArchiveService.rehydrate(conversationId, id);
+            }
+
+            // Reference proxy: associates the messages without selecting the conversation row
+            Conversation conversation = conversationRepository.getReferenceById(id);
 
-            // Add user message
             Message userMsg = Message.builder()
+                    .conversation(conversation)
                     .role("user")
                     .content(userMessage)
                     .build();
-            conversation.addMessage(userMsg);
 
-            // Add assistant message
             Message assistantMsg = Message.builder()
+                    .conversation(conversation)
                     .role("assistant")
                     .content(assistantMessage)
                     .build();
-            conversation.addMessage(assistantMsg);
 
-            // Generate title from first message if not set
-            if (conversation.getTitle() == null || conversation.getTitle().isBlank()) {
-                conversation.generateTitleFromFirstMessage();
-            }
+            messageRepository.saveAll(List.of(userMsg, assistantMsg));
 
-            conversationRepository.save(conversation);
+            // Bump updatedAt and set the title from the first message if not set
+            conversationRepository.touch(id, LocalDateTime.now(), Conversation.titleFrom(userMessage));
+
+            // The new pair changes the conversation's tail and moves it to the top of the user's list
+            conversationCache.evictMessageTail(conversationId);
+            conversationCache.evictConversationList(ref.getUserUuid());
+            // Replicas may lag behind; this conversation and the user's list are read from the primary for a while
+            readYourWrites.recordWrite(conversationId, ref.getUserUuid());
             log.info("Saved message pair to conversation: {}", conversationId);
 
         } catch (ConversationNotFoundException ex) {
@@ -99,22 +168,75 @@ public class ConversationService {
         }
     }
 
+    /**
+     * Stores the rolling summary of a conversation as its system-role summary message.
+     * Updates the existing summary message in place, or creates it on the first pass.
+     * Does not change the conversation's updatedAt.
+     *
+     * @param conversationId             the public UUID of the conversation
+     * @param summary                    the summary text
+     * @param summarizedThroughCreatedAt createdAt of the newest message folded into the summary
+     * @param summarizedThroughMessageId the ID of the newest message folded into the summary
+     */
+    @Transactional
+    public void saveSummary(UUID conversationId, String summary,
+                            LocalDateTime summarizedThroughCreatedAt, Long summarizedThroughMessageId) {
+        try {
+            log.debug("Saving summary of conversation: {}", conversationId);
+
+            Conversation conversation = conversationRepository.findByPublicId(conversationId)
+                    .orElseThrow(() -> new ConversationNotFoundException(conversationId));
+
+            Message summaryMessage = conversation.getSummaryMessageId() != null
+                    ? messageRepository.findById(conversation.getSummaryMessageId()).orElse(null)
+                    : null;
+            if (summaryMessage == null) {
+                summaryMessage = Message.builder()
+                        .conversation(conversation)
+                        .role("system")
+                        .content(summary)
+                        .build();
+            } else {
+                summaryMessage.setContent(summary);
+            }
+            // Sequence IDs defer the insert to flush time; flush before the bulk update references the row
+            Message saved = messageRepository.saveAndFlush(summaryMessage);
+
+            conversationRepository.updateSummary(conversation.getId(), saved.getId(),
+                    summarizedThroughCreatedAt, summarizedThroughMessageId);
+            readYourWrites.recordWrite(conversationId);
+
+        } catch (ConversationNotFoundException ex) {
+            throw ex; // Re-throw domain exceptions
+        } catch (Exception ex) {
+            log.error("Error saving summary of conversation {}: {}", conversationId, ex.getMessage(), ex);
+            throw new ConversationServiceException("Failed to save summary", ex);
+        }
+    }
+
     /**
      * Retrieves a conversation by its public ID with all messages.
+     * The conversation and its messages are read by one fetch-join query in its own read-only transaction.
+     * An archived conversation is rehydrated in a write transaction and read again.
      *
      * @param conversationId the public UUID of the conversation
      * @return the conversation detail DTO
      * @throws ConversationNotFoundException if the conversation is not found
      */
-    @Transactional(readOnly = true)
     public ConversationDetailDto getConversationById(UUID conversationId) {
         log.debug("Retrieving conversation: {}", conversationId);
 
-        Conversation conversation = conversationRepository.findByPublicIdWithMessages(conversationId)
-                .orElseThrow(() -> new ConversationNotFoundException(conversationId));
+        Conversation conversation = findWithMessages(conversationId);
+        if (conversation.getArchivedAt() != null) {
+            conversationArchiveService.rehydrate(conversationId, conversation.getId());
+            conversation = findWithMessages(conversationId);
+        }
 
+        // System-role messages hold internal summaries and are not part of the visible history
         List<MessageDto> messages = conversation.getMessages().stream()
+                .filter(m -> !"system".equals(m.getRole()))
                 .map(m -> MessageDto.builder()
+                        .id(m.getId())
                         .role(m.getRole())
                         .content(m.getContent())
                         .timestamp(m.getCreatedAt())
@@ -132,18 +254,154 @@ public class ConversationService {
     }
 
     /**
-     * Lists all conversations for a specific user.
+     * Retrieves one page of a conversation's messages without loading the rest of the history.
+     * With neither anchor, returns the latest {@code limit} messages (tail mode). With {@code before},
+     * returns the messages preceding that message; with {@code after}, those following it; with both,
+     * those strictly in between. Pages are read in (createdAt, id) order straight off the composite index.
+     * Tail pages up to the cached tail size are served from the conversation cache; the method is not
+     * transactional so that cache hits never take a database connection.
+     *
+     * @param conversationId the public UUID of the conversation
+     * @param before         ID of the message to page back from (optional)
+     * @param after          ID of the message to page forward from (optional)
+     * @param limit          the maximum number of messages to return
+     * @return the page of messages in chronological order
+     * @throws ConversationNotFoundException if the conversation is not found
+     * @throws InvalidCursorException if an anchor message does not belong to the conversation
+     */
+    public MessagePageDto getMessages(UUID conversationId, Long before, Long after, int limit) {
+        log.debug("Retrieving messages of conversation: {} (before: {}, after: {}, limit: {})",
+                conversationId, before, after, limit);
+
+        try (ReadYourWrites.Pin pin = readYourWrites.pin(conversationId)) {
+            if (before == null && after == null && limit <= conversationCache.getTailSize()) {
+                List<MessageDto> tail = conversationCache.getMessageTail(conversationId, () -> new MessageTailEntry(
+                        toMessageDtos(messageRepository.findLatest(requireHotId(conversationId),
+                                PageRequest.of(0, conversationCache.getTailSize() + 1)))))
+                        .messages();
+                return messagePage(tail, limit, true);
+            }
+
+            Long id = requireHotId(conversationId);
+
+            // Fetch one extra row to know whether more messages follow in the paging direction
+            Pageable pageable = PageRequest.of(0, limit + 1);
+            List<Message> rows;
+            if (before == null && after == null) {
+                rows = messageRepository.findLatest(id, pageable);
+            } else if (after == null) {
+                rows = messageRepository.findBefore(id, anchorCreatedAt(id, before), before, pageable);
+            } else if (before == null) {
+                rows = messageRepository.findAfter(id, anchorCreatedAt(id, after), after, pageable);
+            } else {
+                rows = messageRepository.findBetween(id, anchorCreatedAt(id, after), after,
+                        anchorCreatedAt(id, before), before, pageable);
+            }
+            return messagePage(toMessageDtos(rows), limit, after == null);
+        }
+    }
+
+    private Conversation findWithMessages(UUID conversationId) {
+        try (ReadYourWrites.Pin pin = readYourWrites.pin(conversationId)) {
+            return conversationRepository.findByPublicIdWithMessages(conversationId)
+                    .orElseThrow(() -> new ConversationNotFoundException(conversationId));
+        }
+    }
+
+    /**
+     * Resolves the internal ID of a conversation whose messages are about to be read, rehydrating it if archived.
+     * Called under the reader's pin, which then sends the reads after a rehydrate to the primary.
+     */
+    private Long requireHotId(UUID conversationId) {
+        ConversationRef ref = conversationRepository.findRefByPublicId(conversationId)
+                .orElseThrow(() -> new ConversationNotFoundException(conversationId));
+        if (ref.getArchivedAt() != null) {
+            conversationArchiveService.rehydrate(conversationId, ref.getId());
+        }
+        return ref.getId();
+    }
+
+    private LocalDateTime anchorCreatedAt(Long conversationId, Long messageId) {
+        return messageRepository.findCreatedAt(conversationId, messageId)
+                .orElseThrow(() -> new InvalidCursorException(String.valueOf(messageId)));
+    }
+
+    /**
+     * Cuts a page of {@code limit} messages from rows read with one extra, restoring chronological order.
+     */
+    private static MessagePageDto messagePage(List<MessageDto> rows, int limit, boolean newestFirst) {
+        boolean hasMore = rows.size() > limit;
+        List<MessageDto> page = new ArrayList<>(hasMore ? rows.subList(0, limit) : rows);
+        if (newestFirst) {
+            Collections.reverse(page);
+        }
+        return MessagePageDto.builder()
+                .messages(page)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    private static List<MessageDto> toMessageDtos(List<Message> messages) {
+        return messages.stream()
+                .map(m -> MessageDto.builder()
+                        .id(m.getId())
+                        .role(m.getRole())
+                        .content(m.getContent())
+                        .timestamp(m.getCreatedAt())
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Lists one page of a user's conversations, most recently updated first.
+     * Uses keyset pagination on (updatedAt, id): the cursor encodes the last row of the previous page,
+     * so deep pages cost the same as the first one and rows are read straight into the summary projection.
+     * First pages up to the cached list size are served from the conversation cache; the method is not
+     * transactional so that cache hits never take a database connection.
      *
      * @param userUuid the UUID of the user
-     * @return list of conversation summaries ordered by most recently updated
+     * @param cursor   the cursor returned with the previous page, or null for the first page
+     * @param limit    the maximum number of conversations to return
+     * @return the page of conversation summaries and the cursor of the next page
+     * @throws InvalidCursorException if the cursor cannot be decoded
      */
-    @Transactional(readOnly = true)
-    public List<ConversationSummaryDto> listConversationsByUser(UUID userUuid) {
-        log.debug("Listing conversations for user: {}", userUuid);
+    public ConversationPageDto listConversationsByUser(UUID userUuid, String cursor, int limit) {
+        log.debug("Listing conversations for user: {} (cursor: {}, limit: {})", userUuid, cursor, limit);
 
-        List<Conversation> conversations = conversationRepository.findByUserUuidOrderByUpdatedAtDesc(userUuid);
+        boolean firstPage = cursor == null || cursor.isBlank();
+        ConversationListEntry rows;
+        try (ReadYourWrites.Pin pin = readYourWrites.pin(userUuid)) {
+            if (firstPage && limit <= conversationCache.getListSize()) {
+                rows = conversationCache.getConversationList(userUuid, () -> toListEntry(
+                        conversationRepository.findSummariesByUserUuid(userUuid,
+                                PageRequest.of(0, conversationCache.getListSize() + 1))));
+            } else {
+                // Fetch one extra row to know whether another page follows
+                Pageable pageable = PageRequest.of(0, limit + 1);
+                if (firstPage) {
+                    rows = toListEntry(conversationRepository.findSummariesByUserUuid(userUuid, pageable));
+                } else {
+                    Keyset after = Keyset.decode(cursor);
+                    rows = toListEntry(conversationRepository.findSummariesByUserUuidAfter(
+                            userUuid, after.updatedAt(), after.id(), pageable));
+                }
+            }
+        }
+
+        boolean hasMore = rows.conversations().size() > limit;
+        List<ConversationSummaryDto> page = hasMore ? rows.conversations().subList(0, limit) : rows.conversations();
+        String nextCursor = hasMore
+                ? new Keyset(page.get(limit - 1).getUpdatedAt(), rows.ids().get(limit - 1)).encode()
+                : null;
+
+        return ConversationPageDto.builder()
+                .conversations(new ArrayList<>(page))
+                .nextCursor(nextCursor)
+                .build();
+    }
 
-        return conversations.stream()
+    private static ConversationListEntry toListEntry(List<ConversationSummary> rows) {
+        List<ConversationSummaryDto> conversations = rows.stream()
                 .map(c -> ConversationSummaryDto.builder()
                         .id(c.getPublicId())
                         .title(c.getTitle())
@@ -151,5 +409,33 @@ public class ConversationService {
                         .updatedAt(c.getUpdatedAt())
                         .build())
                 .collect(Collectors.toList());
+        List<Long> ids = rows.stream()
+                .map(ConversationSummary::getId)
+                .collect(Collectors.toList());
+        return new ConversationListEntry(conversations, ids);
+    }
+
+    /**
+     * Position in the conversation list, carried between pages as an opaque URL-safe cursor.
+     */
+    private record Keyset(LocalDateTime updatedAt, Long id) {
+
+        private static final String SEPARATOR = "|";
+
+        static Keyset decode(String cursor) {
+            try {
+                String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = value.indexOf(SEPARATOR);
+                return new Keyset(LocalDateTime.parse(value.substring(0, separator)),
+                        Long.parseLong(value.substring(separator + 1)));
+            } catch (RuntimeException ex) {
+                throw new InvalidCursorException(cursor, ex);
+            }
+        }
+
+        String encode() {
+            String value = updatedAt + SEPARATOR + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
     }
 }
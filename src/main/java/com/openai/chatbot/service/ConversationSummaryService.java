@@ -0,0 +1,173 @@
+package com.openai.chatbot.service;
+
+import com.openai.chatbot.datasource.ReadYourWrites;
+import com.openai.chatbot.entity.Conversation;
+import com.openai.chatbot.entity.Message;
+import com.openai.chatbot.exception.ChatServiceException;
+import com.openai.chatbot.repository.ConversationRepository;
+import com.openai.chatbot.repository.MessageRepository;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatCompletionResult;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Service class for maintaining rolling summaries of long conversations.
+ * Once enough turns accumulate past the current summary, the oldest of them are folded into
+ * a stored system-role summary message, so context assembly only needs the summary plus the last few turns.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationSummaryService {
+
+    private static final String SUMMARY_INSTRUCTIONS =
+            "You maintain a running summary of a conversation between a user and an assistant. "
+                    + "Update the current summary with the new turns. Keep names, facts, preferences, "
+                    + "decisions and open questions; drop small talk. Reply with the updated summary only.";
+
+    private final ChatCompletionCache chatCompletionCache;
+    private final ModelRouter modelRouter;
+    private final ContextAssemblyService contextAssemblyService;
+    private final ConversationService conversationService;
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final ReadYourWrites readYourWrites;
+
+    /**
+     * Conversations currently being summarized, to avoid duplicate concurrent passes.
+     */
+    private final Set<UUID> inProgress = ConcurrentHashMap.newKeySet();
+
+    @Value("${chat.summary.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * Number of unsummarized turns that triggers a summarization pass.
+     */
+    @Value("${chat.summary.threshold-messages:12}")
+    private int thresholdMessages;
+
+    /**
+     * Number of newest turns always left out of the summary and sent verbatim.
+     */
+    @Value("${chat.summary.keep-recent-messages:4}")
+    private int keepRecentMessages;
+
+    @Value("${chat.summary.max-tokens:400}")
+    private int summaryMaxTokens;
+
+    /**
+     * Fails startup if a pass could never fold a turn: every pass must leave fewer turns verbatim
+     * than it is triggered by.
+     *
+     * @throws IllegalStateException if keep-recent-messages is not below threshold-messages
+     */
+    @PostConstruct
+    void validate() {
+        if (enabled && (keepRecentMessages < 0 || keepRecentMessages >= thresholdMessages)) {
+            throw new IllegalStateException(
+                    "chat.summary.keep-recent-messages (" + keepRecentMessages
+                            + ") must be at least 0 and below chat.summary.threshold-messages ("
+                            + thresholdMessages + ")");
+        }
+    }
+
+    /**
+     * Folds older turns into the conversation summary if enough new turns have accumulated.
+     * Runs in the background; failures are logged and retried on a later turn. Runs right after a turn is
+     * saved, so the reads are normally pinned to the primary and see that turn and the latest summary.
+     *
+     * @param conversationId the public UUID of the conversation
+     */
+    @Async
+    public void summarizeIfNeeded(UUID conversationId) {
+        if (!enabled || !inProgress.add(conversationId)) {
+            return;
+        }
+        try (ReadYourWrites.Pin pin = readYourWrites.pin(conversationId)) {
+            summarize(conversationId);
+        } catch (Exception ex) {
+            log.warn("Failed to summarize conversation {}: {}", conversationId, ex.getMessage());
+        } finally {
+            inProgress.remove(conversationId);
+        }
+    }
+
+    /**
+     * Performs one incremental summarization pass.
+     * Only turns after the summary's (createdAt, id) watermark are read, and at most {@code thresholdMessages}
+     * of them; the oldest are folded in that order, so IDs handed out out of order by pooled sequences on
+     * several nodes neither skip nor repeat a turn.
+     */
+    void summarize(UUID conversationId) {
+        Conversation conversation = conversationRepository.findByPublicId(conversationId).orElse(null);
+        if (conversation == null) {
+            return;
+        }
+
+        SummaryWatermark watermark = SummaryWatermark.of(conversation);
+        long pending = messageRepository.countTurnsAfter(conversation.getId(), watermark.createdAt(), watermark.id());
+        if (pending < thresholdMessages) {
+            return;
+        }
+
+        int foldCount = (int) Math.min(pending - keepRecentMessages, thresholdMessages);
+        List<Message> turns = messageRepository.findAfter(
+                conversation.getId(), watermark.createdAt(), watermark.id(), PageRequest.of(0, foldCount));
+        if (turns.isEmpty()) {
+            return;
+        }
+
+        String previousSummary = conversation.getSummaryMessageId() != null
+                ? messageRepository.findById(conversation.getSummaryMessageId()).map(Message::getContent).orElse(null)
+                : null;
+
+        log.debug("Summarizing {} turns of conversation {}", turns.size(), conversationId);
+        String summary = requestSummary(previousSummary, turns);
+
+        Message newest = turns.get(turns.size() - 1);
+        conversationService.saveSummary(conversationId, summary, newest.getCreatedAt(), newest.getId());
+        log.info("Updated summary of conversation {} through message {}", conversationId, newest.getId());
+    }
+
+    private String requestSummary(String previousSummary, List<Message> turns) {
+        StringBuilder transcript = new StringBuilder("Current summary:\n")
+                .append(previousSummary != null ? previousSummary : "(none)")
+                .append("\n\nNew turns:\n");
+        for (Message turn : turns) {
+            transcript.append(turn.getRole()).append(": ").append(turn.getContent()).append('\n');
+        }
+
+        List<ChatMessage> messages = List.of(
+                new ChatMessage("system", SUMMARY_INSTRUCTIONS),
+                new ChatMessage("user", transcript.toString()));
+
+        // Same routed upstream path as chat replies; a summary is specific to one conversation, so it is not cached
+        ChatCompletionResult result = modelRouter.execute(
+                model -> contextAssemblyService.countTokens(messages, model),
+                (route, hasFallback) -> chatCompletionCache.createChatCompletion(ChatCompletionRequest.builder()
+                        .model(route.model())
+                        .messages(messages)
+                        .maxTokens(summaryMaxTokens)
+                        .build(), false, route, hasFallback)).value();
+        if (result == null || result.getChoices() == null || result.getChoices().isEmpty()
+                || result.getChoices().get(0).getMessage() == null
+                || result.getChoices().get(0).getMessage().getContent() == null
+                || result.getChoices().get(0).getMessage().getContent().isBlank()) {
+            throw new ChatServiceException("No summary generated from OpenAI");
+        }
+        return result.getChoices().get(0).getMessage().getContent().trim();
+    }
+}
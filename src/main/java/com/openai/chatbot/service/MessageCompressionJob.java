@@ -0,0 +1,150 @@
+package com.openai.chatbot.service;
+
+import com.openai.chatbot.compression.DictionaryTrainer;
+import com.openai.chatbot.compression.MessageContentCodec;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Background job maintaining compressed message storage.
+ * Every {@code chat.message-compression.interval} it trains a new dictionary on the most recent messages when
+ * none exists or the newest is older than {@code chat.message-compression.dictionary-max-age}, then compresses
+ * message bodies still stored as text above the threshold, in batches of
+ * {@code chat.message-compression.backfill-batch-size}. The backfill is the migration path for rows written
+ * before compression was enabled; it walks the table by ID and never holds more than one batch.
+ * System messages (rolling summaries) are skipped, since they are rewritten in place and compressed then.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MessageCompressionJob {
+
+    /**
+     * Upper bound on the bytes of sample text a dictionary is trained on, which bounds the trainer's memory.
+     */
+    static final int MAX_TRAINING_BYTES = 1 << 20;
+
+    /**
+     * Fewest samples worth training on; with fewer, bodies are compressed without a dictionary.
+     */
+    static final int MIN_TRAINING_SAMPLES = 50;
+
+    private final MessageContentCodec messageContentCodec;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Dictionary size in bytes; DEFLATE only refers back 32 KiB, so larger dictionaries do not help.
+     */
+    @Value("${chat.message-compression.dictionary-size:32768}")
+    private int dictionarySize;
+
+    @Value("${chat.message-compression.dictionary-samples:2000}")
+    private int dictionarySamples;
+
+    @Value("${chat.message-compression.dictionary-max-age:30d}")
+    private Duration dictionaryMaxAge;
+
+    @Value("${chat.message-compression.backfill-batch-size:500}")
+    private int batchSize;
+
+    /**
+     * Retrains the dictionary when due and compresses the rows still stored as text.
+     */
+    @Scheduled(fixedDelayString = "${chat.message-compression.interval:1h}",
+            initialDelayString = "${chat.message-compression.interval:1h}")
+    public void run() {
+        if (!messageContentCodec.isEnabled()) {
+            return;
+        }
+        messageContentCodec.reloadCurrentDictionary();
+        Timestamp newest = jdbcTemplate.queryForObject("SELECT MAX(created_at) FROM message_dictionaries",
+                Timestamp.class);
+        if (newest == null || newest.toLocalDateTime().isBefore(LocalDateTime.now().minus(dictionaryMaxAge))) {
+            trainDictionary();
+        }
+        backfill();
+    }
+
+    /**
+     * Trains a dictionary on the most recent user and assistant messages and switches to it.
+     *
+     * @return true if a dictionary was trained, false if there were too few samples
+     */
+    public boolean trainDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        int[] total = {0};
+        jdbcTemplate.query("SELECT content, content_compressed FROM messages WHERE role <> 'system' " +
+                "ORDER BY id DESC LIMIT ?", rs -> {
+                    if (total[0] >= MAX_TRAINING_BYTES) {
+                        return;
+                    }
+                    byte[] sample = messageContentCodec.read(rs.getString("content"),
+                            rs.getBytes("content_compressed")).getBytes(StandardCharsets.UTF_8);
+                    samples.add(sample);
+                    total[0] += sample.length;
+                }, dictionarySamples);
+        if (samples.size() < MIN_TRAINING_SAMPLES) {
+            log.debug("Not training a message dictionary on {} samples", samples.size());
+            return false;
+        }
+
+        long start = System.nanoTime();
+        byte[] dictionary = DictionaryTrainer.train(samples, dictionarySize);
+        if (dictionary.length == 0) {
+            log.info("Messages share too little text for a dictionary; compressing without one");
+            return false;
+        }
+        int id = messageContentCodec.addDictionary(dictionary, samples.size());
+        log.info("Trained message dictionary {} on {} samples ({} KiB) in {} ms", id, samples.size(),
+                total[0] / 1024, Duration.ofNanos(System.nanoTime() - start).toMillis());
+        return true;
+    }
+
+    /**
+     * Compresses the bodies still stored as text above the threshold.
+     *
+     * @return the number of rows compressed
+     */
+    public int backfill() {
+        int total = 0;
+        long afterId = 0;
+        while (true) {
+            List<Object[]> batch = jdbcTemplate.query("SELECT id, content FROM messages WHERE id > ? " +
+                    "AND content_compressed IS NULL AND role <> 'system' AND OCTET_LENGTH(content) >= ? " +
+                    "ORDER BY id LIMIT ?", (rs, rowNum) -> new Object[]{rs.getLong("id"), rs.getString("content")},
+                    afterId, messageContentCodec.getThreshold(), batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+            List<Object[]> updates = new ArrayList<>(batch.size());
+            for (Object[] row : batch) {
+                byte[] compressed = messageContentCodec.compress((String) row[1]);
+                if (compressed != null) {
+                    updates.add(new Object[]{compressed, row[0]});
+                }
+            }
+            jdbcTemplate.batchUpdate("UPDATE messages SET content = NULL, content_compressed = ? " +
+                    "WHERE id = ? AND content_compressed IS NULL", updates);
+            total += updates.size();
+            afterId = (Long) batch.get(batch.size() - 1)[0];
+            if (batch.size() < batchSize) {
+                break;
+            }
+        }
+        if (total > 0) {
+            log.info("Compressed {} message bodies stored as text", total);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,296 @@
+package com.openai.chatbot.service;
+
+import com.openai.chatbot.config.ModelRoutingProperties;
+import com.openai.chatbot.config.OpenAiConfig;
+import com.openai.chatbot.exception.ChatOverloadedException;
+import com.openai.chatbot.exception.UpstreamUnavailableException;
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.service.OpenAiService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Routes chat completions across the models configured under {@code chat.routing.models}.
+ * A request goes to the first model, in configured order, whose {@code max-prompt-tokens} fits the prompt
+ * (counted with that model's tokenizer) and which is neither saturated ({@code max-in-flight} calls running)
+ * nor slow (average latency above {@code slow-threshold}). Latency is reported per upstream attempt by
+ * {@link ChatCompletionCache}, failures and timeouts included, so cache hits, scheduler queueing and retry
+ * backoff do not skew it. A slow model still gets a probe request every {@code probe-interval} so it can
+ * recover. If the chosen model fails with a throttling, overload or transient error, the request falls back
+ * to the next candidate; saturated and slow models are tried last rather than not at all.
+ * Each route is its own {@link UpstreamScheduler} lane and circuit breaker, and is told whether it has a
+ * fallback so a throttled model hands the request on instead of queueing it.
+ * With no models configured, every request goes to {@code openai.model} on the default client.
+ * Requests served and fallbacks are counted in {@code chat.routing.*} metrics tagged {@code model}
+ * and {@code lane}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ModelRouter {
+
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final OpenAiService openAiService;
+    private final OkHttpClient openAiHttpClient;
+    private final UpstreamScheduler upstreamScheduler;
+    private final ModelRoutingProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${openai.model}")
+    private String defaultModel;
+
+    @Value("${openai.base-url:https://api.openai.com/}")
+    private String baseUrl;
+
+    private List<Route> routes;
+
+    /**
+     * One routable model on one endpoint, with its client and live load/latency state.
+     */
+    public static final class Route {
+
+        private final String model;
+        private final String lane;
+        private final OpenAiService client;
+        private final int maxPromptTokens;
+        private final int maxInFlight;
+        private final long slowThresholdNanos;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong lastProbe = new AtomicLong(System.nanoTime());
+        private final Counter served;
+        private final Counter fallbacks;
+        private volatile double averageNanos = -1;
+
+        Route(String model, String lane, OpenAiService client, int maxPromptTokens, int maxInFlight,
+              Duration slowThreshold, MeterRegistry meterRegistry) {
+            this.model = model;
+            this.lane = lane;
+            this.client = client;
+            this.maxPromptTokens = maxPromptTokens;
+            this.maxInFlight = maxInFlight;
+            this.slowThresholdNanos = slowThreshold != null ? slowThreshold.toNanos() : 0;
+            this.served = Counter.builder("chat.routing.requests")
+                    .description("Chat completions served, by model")
+                    .tags("model", model, "lane", lane)
+                    .register(meterRegistry);
+            this.fallbacks = Counter.builder("chat.routing.fallbacks")
+                    .description("Chat completions that failed on a model and fell back to the next")
+                    .tags("model", model, "lane", lane)
+                    .register(meterRegistry);
+            Gauge.builder("chat.routing.in-flight", inFlight, AtomicInteger::get)
+                    .description("Chat completions in flight, by model")
+                    .tags("model", model, "lane", lane)
+                    .register(meterRegistry);
+            Gauge.builder("chat.routing.latency", this, route -> Math.max(route.averageNanos, 0) / 1_000_000)
+                    .description("Average latency of upstream chat completion calls in milliseconds, by model")
+                    .tags("model", model, "lane", lane)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Returns the model name to send to the API.
+         */
+        public String model() {
+            return model;
+        }
+
+        /**
+         * Returns the route's upstream scheduler lane, which also keys its circuit breaker.
+         */
+        public String lane() {
+            return lane;
+        }
+
+        /**
+         * Returns the OpenAI client for the model's endpoint.
+         */
+        public OpenAiService client() {
+            return client;
+        }
+
+        private boolean fits(int promptTokens) {
+            return maxPromptTokens <= 0 || promptTokens <= maxPromptTokens;
+        }
+
+        private boolean saturated() {
+            return maxInFlight > 0 && inFlight.get() >= maxInFlight;
+        }
+
+        private boolean slow() {
+            return slowThresholdNanos > 0 && averageNanos > slowThresholdNanos;
+        }
+
+        /**
+         * Records the duration of one upstream call, whether it succeeded, failed or timed out.
+         */
+        void recordLatency(long nanos) {
+            double average = averageNanos;
+            averageNanos = average < 0 ? nanos : average + LATENCY_WEIGHT * (nanos - average);
+        }
+    }
+
+    /**
+     * Result of a routed call together with the route that produced it.
+     *
+     * @param value the call's result
+     * @param route the route that served the call
+     * @param <T>   the result type
+     */
+    public record Routed<T>(T value, Route route) {
+    }
+
+    /**
+     * A call made against one route.
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    public interface RouteCall<T> {
+
+        /**
+         * Makes the call.
+         *
+         * @param route       the route to call
+         * @param hasFallback whether another candidate is left if this route fails
+         * @return the call's result
+         */
+        T call(Route route, boolean hasFallback);
+    }
+
+    @PostConstruct
+    void init() {
+        List<Route> configured = new ArrayList<>();
+        for (ModelRoutingProperties.Model model : properties.getModels()) {
+            String endpoint = model.getBaseUrl() != null ? model.getBaseUrl() : baseUrl;
+            String lane = UpstreamScheduler.lane(model.getName(), endpoint);
+            // The default client already reports its headers to the default model's lane
+            OpenAiService client = model.getName().equals(defaultModel) && model.getBaseUrl() == null
+                    && model.getApiKey() == null
+                    ? openAiService
+                    : OpenAiConfig.createOpenAiService(openAiHttpClient, endpoint, model.getApiKey(),
+                            upstreamScheduler, lane);
+            configured.add(new Route(model.getName(), lane, client, model.getMaxPromptTokens(),
+                    model.getMaxInFlight(), model.getSlowThreshold(), meterRegistry));
+        }
+        if (configured.isEmpty()) {
+            configured.add(new Route(defaultModel, UpstreamScheduler.lane(defaultModel, baseUrl), openAiService,
+                    0, 0, null, meterRegistry));
+        }
+        routes = List.copyOf(configured);
+        log.info("Routing chat completions across models: {}", routes.stream().map(Route::model).toList());
+    }
+
+    /**
+     * Returns the model of the first configured route, which prompts are assembled for before routing.
+     */
+    public String primaryModel() {
+        return routes.get(0).model;
+    }
+
+    /**
+     * Returns the preferred route for a prompt, without fallback. Used where a call cannot be
+     * retried elsewhere once started, e.g. streaming.
+     *
+     * @param promptTokens the prompt size in tokens for a given model
+     * @return the preferred route
+     */
+    public Route select(ToIntFunction<String> promptTokens) {
+        return candidates(promptTokens).get(0);
+    }
+
+    /**
+     * Runs a call on the preferred route for the prompt, falling back along the candidates on
+     * throttling, overload or transient failures.
+     *
+     * @param promptTokens the prompt size in tokens for a given model
+     * @param call         the call to make against a route
+     * @param <T>          the result type
+     * @return the result and the route that served it
+     */
+    public <T> Routed<T> execute(ToIntFunction<String> promptTokens, RouteCall<T> call) {
+        List<Route> candidates = candidates(promptTokens);
+        for (int i = 0; ; i++) {
+            Route route = candidates.get(i);
+            route.inFlight.incrementAndGet();
+            try {
+                T value = call.call(route, i + 1 < candidates.size());
+                route.served.increment();
+                return new Routed<>(value, route);
+            } catch (RuntimeException ex) {
+                if (i + 1 >= candidates.size() || !canFallBack(ex)) {
+                    throw ex;
+                }
+                route.fallbacks.increment();
+                log.warn("Model {} failed ({}), falling back to {}", route.model, ex.getMessage(),
+                        candidates.get(i + 1).model);
+            } finally {
+                route.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Orders the routes able to take the prompt: available ones first, then saturated or slow ones,
+     * each in configured order. If no route's prompt limit fits, all routes are candidates.
+     */
+    private List<Route> candidates(ToIntFunction<String> promptTokens) {
+        List<Route> available = new ArrayList<>();
+        List<Route> degraded = new ArrayList<>();
+        for (Route route : routes) {
+            if (route.maxPromptTokens > 0 && !route.fits(promptTokens.applyAsInt(route.model))) {
+                continue;
+            }
+            if (route.saturated() || (route.slow() && !probeDue(route))) {
+                degraded.add(route);
+            } else {
+                available.add(route);
+            }
+        }
+        if (available.isEmpty() && degraded.isEmpty()) {
+            return routes;
+        }
+        available.addAll(degraded);
+        return available;
+    }
+
+    /**
+     * Claims the probe slot of a slow route once per probe interval.
+     */
+    private boolean probeDue(Route route) {
+        long now = System.nanoTime();
+        long last = route.lastProbe.get();
+        return now - last >= properties.getProbeInterval().toNanos() && route.lastProbe.compareAndSet(last, now);
+    }
+
+    private static boolean canFallBack(RuntimeException ex) {
+        if (ex instanceof UpstreamUnavailableException || ex instanceof ChatOverloadedException) {
+            return true;
+        }
+        if (ex instanceof OpenAiHttpException httpException) {
+            return httpException.statusCode == 408 || httpException.statusCode == 429
+                    || httpException.statusCode >= 500;
+        }
+        for (Throwable cause = ex.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
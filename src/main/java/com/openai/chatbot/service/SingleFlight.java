@@ -0,0 +1,72 @@
+package com.openai.chatbot.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key into one execution.
+ * The first caller (the leader) runs the call; callers arriving while it is in flight wait for
+ * and share its outcome, result or exception. Once the call completes, the next caller starts a new one.
+ *
+ * @param <K> the key type
+ * @param <V> the result type
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Outcome of {@link #execute}: the shared result and whether this caller joined another caller's call.
+     */
+    record Outcome<V>(V value, boolean shared) {
+    }
+
+    /**
+     * Runs the call, or joins the identical call already in flight.
+     *
+     * @param key  identifies identical calls
+     * @param call the call to run if none is in flight for the key
+     * @return the result, marked as shared when it came from another caller's call
+     */
+    Outcome<V> execute(K key, Supplier<V> call) {
+        CompletableFuture<V> leader = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, leader);
+        if (existing != null) {
+            return new Outcome<>(join(existing), true);
+        }
+        try {
+            V value = call.get();
+            leader.complete(value);
+            return new Outcome<>(value, false);
+        } catch (RuntimeException | Error ex) {
+            leader.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, leader);
+        }
+    }
+
+    /**
+     * Number of distinct calls currently in flight.
+     */
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw ex;
+        }
+    }
+}
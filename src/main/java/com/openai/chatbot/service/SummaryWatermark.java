@@ -0,0 +1,44 @@
+package com.openai.chatbot.service;
+
+import com.openai.chatbot.entity.Conversation;
+
+import java.time.LocalDateTime;
+
+/**
+ * Keyset position of the newest turn folded into a conversation's rolling summary.
+ * Turns after it in (createdAt, id) order are not summarized yet and are sent verbatim.
+ *
+ * @param createdAt createdAt of the newest summarized turn
+ * @param id        ID of the newest summarized turn
+ */
+record SummaryWatermark(LocalDateTime createdAt, long id) {
+
+    /**
+     * Position before every turn, for a conversation with nothing summarized yet.
+     */
+    static final SummaryWatermark NONE = new SummaryWatermark(LocalDateTime.of(1970, 1, 1, 0, 0), 0L);
+
+    /**
+     * Returns the watermark of a conversation.
+     *
+     * @param conversation the conversation
+     * @return the watermark, or {@link #NONE} if nothing is summarized yet
+     */
+    static SummaryWatermark of(Conversation conversation) {
+        Long id = conversation.getSummarizedThroughMessageId();
+        LocalDateTime createdAt = conversation.getSummarizedThroughCreatedAt();
+        return id != null && createdAt != null ? new SummaryWatermark(createdAt, id) : NONE;
+    }
+
+    /**
+     * Returns whether a turn comes after this watermark in (createdAt, id) order, so is not summarized yet.
+     *
+     * @param turnCreatedAt createdAt of the turn
+     * @param turnId        ID of the turn
+     * @return true if the turn is newer than the watermark
+     */
+    boolean isBefore(LocalDateTime turnCreatedAt, long turnId) {
+        int order = createdAt.compareTo(turnCreatedAt);
+        return order < 0 || order == 0 && id < turnId;
+    }
+}
@@ -0,0 +1,474 @@
+package com.openai.chatbot.service;
+
+import com.openai.chatbot.exception.ChatServiceException;
+import com.openai.chatbot.exception.UpstreamUnavailableException;
+import com.theokanning.openai.OpenAiHttpException;
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Fault handling around OpenAI chat completion calls.
+ * <ul>
+ *   <li>Transient failures (timeouts, connection errors, 408 and 5xx) are retried with full-jitter exponential
+ *       backoff, up to {@code max-attempts}.</li>
+ *   <li>A call still running after the observed latency percentile (p95 by default) is hedged with a second
+ *       identical call; whichever succeeds first is used and the other is cancelled. Latency is measured from
+ *       the moment the upstream scheduler dispatches the call, so queueing never triggers a hedge.</li>
+ *   <li>Retries and hedges draw on a shared budget that each call refills by {@code budget-ratio}, so they
+ *       add at most that fraction of extra load when OpenAI is struggling.</li>
+ *   <li>A circuit breaker fails calls fast with {@link UpstreamUnavailableException} while the recent
+ *       failure rate is too high.</li>
+ * </ul>
+ * Circuit breakers and latency samples are kept per upstream (model and endpoint), so one degraded upstream
+ * does not fail calls to another; the retry budget is shared. Retries, hedges, hedge wins, breaker rejections
+ * and the breaker state (tagged {@code upstream}) are published as {@code chat.upstream.*} metrics.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UpstreamResilience {
+
+    private static final Set<Integer> RETRYABLE_STATUS = Set.of(408, 500, 502, 503, 504);
+    private static final int LATENCY_SAMPLES = 256;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.resilience.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.resilience.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${chat.resilience.retry.initial-backoff:200ms}")
+    private Duration initialBackoff;
+
+    @Value("${chat.resilience.retry.max-backoff:2s}")
+    private Duration maxBackoff;
+
+    /**
+     * Retry and hedge tokens earned per call; 0.2 allows at most 20% extra calls over time.
+     */
+    @Value("${chat.resilience.retry.budget-ratio:0.2}")
+    private double budgetRatio;
+
+    /**
+     * Maximum retry and hedge tokens saved up, which also allows a short burst of retries after idle periods.
+     */
+    @Value("${chat.resilience.retry.budget-max:10}")
+    private double budgetMax;
+
+    @Value("${chat.resilience.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    @Value("${chat.resilience.hedge.percentile:0.95}")
+    private double hedgePercentile;
+
+    @Value("${chat.resilience.hedge.min-delay:200ms}")
+    private Duration hedgeMinDelay;
+
+    /**
+     * Successful calls observed before hedging starts.
+     */
+    @Value("${chat.resilience.hedge.min-samples:20}")
+    private int hedgeMinSamples;
+
+    @Value("${chat.resilience.circuit.window-size:20}")
+    private int circuitWindowSize;
+
+    @Value("${chat.resilience.circuit.minimum-calls:10}")
+    private int circuitMinimumCalls;
+
+    @Value("${chat.resilience.circuit.failure-rate-threshold:0.5}")
+    private double circuitFailureRateThreshold;
+
+    @Value("${chat.resilience.circuit.open-duration:30s}")
+    private Duration circuitOpenDuration;
+
+    @Value("${chat.resilience.circuit.half-open-calls:3}")
+    private int circuitHalfOpenCalls;
+
+    private final ConcurrentMap<String, Upstream> upstreams = new ConcurrentHashMap<>();
+    private double budget;
+
+    private ExecutorService hedgeExecutor;
+    private Timer latency;
+    private Counter retries;
+    private Counter hedges;
+    private Counter hedgeWins;
+    private Counter circuitRejected;
+
+    @PostConstruct
+    void init() {
+        budget = budgetMax;
+        // Attempts run on hedge threads, which take over the caller's trace context
+        hedgeExecutor = ContextExecutorService.wrap(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("openai-hedge-", 0).factory()),
+                ContextSnapshotFactory.builder().build());
+
+        latency = Timer.builder("chat.upstream.latency")
+                .description("Latency of successful OpenAI completion calls")
+                .register(meterRegistry);
+        retries = Counter.builder("chat.upstream.retries")
+                .description("OpenAI calls retried after a transient failure")
+                .register(meterRegistry);
+        hedges = Counter.builder("chat.upstream.hedges")
+                .description("Hedged second OpenAI calls started")
+                .register(meterRegistry);
+        hedgeWins = Counter.builder("chat.upstream.hedge.wins")
+                .description("Hedged calls that answered before the original")
+                .register(meterRegistry);
+        circuitRejected = Counter.builder("chat.upstream.circuit.rejected")
+                .description("OpenAI calls failed fast by the open circuit breaker")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    /**
+     * Runs an OpenAI call with retries, hedging and the upstream's circuit breaker.
+     * The call must mark its {@link Attempt} as {@link Attempt#dispatched() dispatched} right before the request
+     * goes out (i.e. once the upstream scheduler admits it); the hedge delay and latency samples run from there.
+     *
+     * @param upstream the upstream called (see {@link UpstreamScheduler#lane}), keying its circuit breaker and
+     *                 latency samples
+     * @param call     the upstream call, given the attempt it runs in
+     * @param <T>      the result type
+     * @return the first successful result
+     * @throws UpstreamUnavailableException if the circuit breaker is open
+     */
+    public <T> T execute(String upstream, Function<Attempt, T> call) {
+        if (!enabled) {
+            return call.apply(new Attempt());
+        }
+
+        Upstream state = upstreams.computeIfAbsent(upstream, this::newUpstream);
+        deposit();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return hedged(state, call);
+            } catch (RuntimeException ex) {
+                if (!isTransient(ex) || attempt >= maxAttempts || !withdraw()) {
+                    throw ex;
+                }
+                retries.increment();
+                Duration backoff = backoff(attempt);
+                log.warn("OpenAI call failed ({}), retry {} in {} ms", ex.getMessage(), attempt, backoff.toMillis());
+                sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * Runs an OpenAI call that cannot be retried or hedged, e.g. a stream whose tokens are already forwarded,
+     * under the circuit breaker: it fails fast while the breaker is open and its outcome is recorded.
+     * Its duration is not sampled for the hedge delay, since a stream lasts as long as the reply.
+     *
+     * @param upstream the upstream called
+     * @param call     the upstream call
+     * @param <T>      the result type
+     * @return the call's result
+     * @throws UpstreamUnavailableException if the circuit breaker is open
+     */
+    public <T> T executeOnce(String upstream, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        Upstream state = upstreams.computeIfAbsent(upstream, this::newUpstream);
+        return attempt(state, new Attempt(), attempt -> call.get(), false);
+    }
+
+    /**
+     * Returns the circuit breaker state of an upstream.
+     */
+    CircuitBreaker.State circuitState(String upstream) {
+        Upstream state = upstreams.get(upstream);
+        return state != null ? state.breaker.state() : CircuitBreaker.State.CLOSED;
+    }
+
+    /**
+     * Circuit breaker and recent successful latencies of one upstream.
+     */
+    private static final class Upstream {
+
+        final CircuitBreaker breaker;
+        final long[] latencies = new long[LATENCY_SAMPLES];
+        int latencyIndex;
+        int latencyCount;
+
+        Upstream(CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+    }
+
+    private Upstream newUpstream(String name) {
+        Upstream upstream = new Upstream(new CircuitBreaker(circuitWindowSize, circuitMinimumCalls,
+                circuitFailureRateThreshold, circuitOpenDuration, circuitHalfOpenCalls, System::nanoTime));
+        Gauge.builder("chat.upstream.circuit.state", upstream.breaker, breaker -> breaker.state().ordinal())
+                .description("Circuit breaker state: 0 closed, 1 half-open, 2 open")
+                .tag("upstream", name)
+                .register(meterRegistry);
+        return upstream;
+    }
+
+    /**
+     * Runs one attempt, hedging it with a second call if it outlasts the hedge delay.
+     */
+    private <T> T hedged(Upstream upstream, Function<Attempt, T> call) {
+        Duration delay = hedgeEnabled ? hedgeDelay(upstream) : null;
+        if (delay == null) {
+            return attempt(upstream, new Attempt(), call, true);
+        }
+
+        Attempt primaryAttempt = new Attempt();
+        CompletableFuture<T> primary = CompletableFuture.supplyAsync(
+                () -> attempt(upstream, primaryAttempt, call, true), hedgeExecutor);
+        try {
+            // The hedge delay starts at dispatch: time spent waiting for the scheduler is not OpenAI being slow
+            CompletableFuture.anyOf(primaryAttempt.dispatch, primary).get();
+            return primary.get(delay.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            // Fall through and hedge
+        } catch (ExecutionException ex) {
+            throw unwrap(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ChatServiceException("Interrupted while waiting on OpenAI", ex);
+        }
+
+        if (!withdraw()) {
+            return join(primary);
+        }
+        hedges.increment();
+        log.debug("OpenAI call exceeded {} ms, hedging", delay.toMillis());
+        Attempt hedgeAttempt = new Attempt();
+        CompletableFuture<T> hedge = CompletableFuture.supplyAsync(
+                () -> attempt(upstream, hedgeAttempt, call, true), hedgeExecutor);
+
+        CompletableFuture<T> first = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        primary.whenComplete((result, ex) -> settle(first, failed, result, ex, false, hedgeAttempt));
+        hedge.whenComplete((result, ex) -> settle(first, failed, result, ex, true, primaryAttempt));
+        return join(first);
+    }
+
+    private <T> void settle(CompletableFuture<T> first, AtomicInteger failed, T result, Throwable ex, boolean isHedge,
+                            Attempt other) {
+        if (ex == null) {
+            if (first.isDone()) {
+                return;
+            }
+            synchronized (first) {
+                if (first.isDone()) {
+                    return;
+                }
+                // Counted before the caller is released, so the metric never lags the answer
+                if (isHedge) {
+                    hedgeWins.increment();
+                }
+                first.complete(result);
+            }
+            // The loser would only hold a connection and a scheduler slot for a reply nobody reads
+            other.cancel();
+        } else if (failed.incrementAndGet() == 2) {
+            first.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * A single call guarded by the circuit breaker. A cancelled attempt says nothing about OpenAI,
+     * so the breaker ignores it and its latency is not sampled.
+     */
+    private <T> T attempt(Upstream upstream, Attempt attempt, Function<Attempt, T> call, boolean sampleLatency) {
+        CircuitBreaker circuitBreaker = upstream.breaker;
+        if (!circuitBreaker.tryAcquire()) {
+            circuitRejected.increment();
+            throw new UpstreamUnavailableException(circuitBreaker.remainingOpen());
+        }
+        attempt.start();
+        try {
+            T result = call.apply(attempt);
+            if (attempt.isCancelled()) {
+                circuitBreaker.onIgnored();
+            } else {
+                circuitBreaker.onSuccess();
+                if (sampleLatency) {
+                    recordLatency(upstream, System.nanoTime() - attempt.dispatchedAt);
+                }
+            }
+            return result;
+        } catch (RuntimeException ex) {
+            if (attempt.isCancelled()) {
+                circuitBreaker.onIgnored();
+            } else if (isTransient(ex)) {
+                circuitBreaker.onFailure();
+            } else if (ex instanceof OpenAiHttpException) {
+                // OpenAI answered, so it is up
+                circuitBreaker.onSuccess();
+            } else {
+                circuitBreaker.onIgnored();
+            }
+            throw ex;
+        } finally {
+            attempt.finish();
+        }
+    }
+
+    /**
+     * Timeouts, connection failures, 408 and 5xx answers. Other 4xx answers would fail again.
+     */
+    private static boolean isTransient(Throwable ex) {
+        if (ex instanceof OpenAiHttpException http) {
+            return RETRYABLE_STATUS.contains(http.statusCode);
+        }
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Full jitter: a random delay up to the exponentially growing, capped backoff.
+     */
+    private Duration backoff(int attempt) {
+        long cap = Math.min(maxBackoff.toMillis(), initialBackoff.toMillis() << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap + 1));
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(budgetMax, budget + budgetRatio);
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private void recordLatency(Upstream upstream, long nanos) {
+        latency.record(nanos, TimeUnit.NANOSECONDS);
+        synchronized (upstream) {
+            upstream.latencies[upstream.latencyIndex] = nanos;
+            upstream.latencyIndex = (upstream.latencyIndex + 1) % LATENCY_SAMPLES;
+            upstream.latencyCount = Math.min(upstream.latencyCount + 1, LATENCY_SAMPLES);
+        }
+    }
+
+    /**
+     * The configured percentile of recent successful latencies, or null until enough calls are observed.
+     */
+    private Duration hedgeDelay(Upstream upstream) {
+        long[] sorted;
+        synchronized (upstream) {
+            if (upstream.latencyCount < hedgeMinSamples) {
+                return null;
+            }
+            sorted = Arrays.copyOf(upstream.latencies, upstream.latencyCount);
+        }
+        Arrays.sort(sorted);
+        long percentile = sorted[(int) Math.min(sorted.length - 1, Math.ceil(hedgePercentile * sorted.length) - 1)];
+        return Duration.ofNanos(Math.max(percentile, hedgeMinDelay.toNanos()));
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            throw unwrap(ex.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        return new ChatServiceException("OpenAI call failed", cause);
+    }
+
+    /**
+     * One attempt of an OpenAI call. The call marks when it is dispatched, and a hedged attempt that lost
+     * the race is cancelled by interrupting the thread running it.
+     */
+    public static final class Attempt {
+
+        private final CompletableFuture<Void> dispatch = new CompletableFuture<>();
+        private volatile long dispatchedAt = System.nanoTime();
+        private Thread thread;
+        private boolean cancelled;
+
+        /**
+         * Marks that the upstream scheduler admitted the call and the request is going out now.
+         * A call dispatched again (after a 429) restarts the latency measurement.
+         */
+        public void dispatched() {
+            dispatchedAt = System.nanoTime();
+            dispatch.complete(null);
+        }
+
+        private synchronized void start() {
+            thread = Thread.currentThread();
+            dispatchedAt = System.nanoTime();
+            if (cancelled) {
+                thread.interrupt();
+            }
+        }
+
+        private synchronized void finish() {
+            thread = null;
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ChatServiceException("Interrupted while backing off", ex);
+        }
+    }
+}
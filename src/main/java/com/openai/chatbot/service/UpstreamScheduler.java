@@ -0,0 +1,569 @@
+package com.openai.chatbot.service;
+
+import com.openai.chatbot.exception.ChatOverloadedException;
+import com.openai.chatbot.exception.ChatServiceException;
+import com.theokanning.openai.OpenAiHttpException;
+import com.theokanning.openai.completion.chat.ChatCompletionRequest;
+import com.theokanning.openai.completion.chat.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Headers;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Admission control for OpenAI chat completion calls, kept per lane: one model on one endpoint, which is
+ * how OpenAI applies its rate limits. Throttling of one lane does not slow calls to any other.
+ * <ul>
+ *   <li>Concurrency is capped by a limit learned with AIMD: it grows by about one per round of successful
+ *       calls and is cut by {@code backoff-ratio} whenever OpenAI answers 429.</li>
+ *   <li>Requests and (estimated) tokens per minute are paced with token buckets. Their capacities start from
+ *       configuration and follow the {@code x-ratelimit-*} headers OpenAI sends with every response.</li>
+ *   <li>A {@code Retry-After} (or exhausted rate limit) pauses dispatch on the lane until it has passed.</li>
+ * </ul>
+ * Calls that cannot be dispatched yet wait in a queue; a call throttled with 429 re-queues and is retried.
+ * Only when a call's queue deadline passes does it fail, with {@link ChatOverloadedException}. A call that has
+ * somewhere else to go (the model router has another candidate) waits at most {@code fallback-wait} and is
+ * not re-queued after a 429, so it moves on instead of sitting out the throttle.
+ * Optional calls (such as embeddings for the semantic cache) use {@link #tryExecute}, which never waits
+ * and skips the call while there is no free slot or budget.
+ * The limit, in-flight calls and queue depth are published as {@code chat.upstream.*} metrics tagged
+ * {@code lane}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UpstreamScheduler {
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${chat.upstream.scheduler.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.upstream.limit.initial:16}")
+    private int initialLimit;
+
+    @Value("${chat.upstream.limit.min:1}")
+    private int minLimit;
+
+    @Value("${chat.upstream.limit.max:256}")
+    private int maxLimit;
+
+    /**
+     * Factor the concurrency limit is multiplied by on each 429.
+     */
+    @Value("${chat.upstream.limit.backoff-ratio:0.5}")
+    private double backoffRatio;
+
+    /**
+     * Starting requests-per-minute budget, 0 for none until OpenAI's headers provide one.
+     */
+    @Value("${chat.upstream.requests-per-minute:0}")
+    private long requestsPerMinute;
+
+    /**
+     * Starting tokens-per-minute budget, 0 for none until OpenAI's headers provide one.
+     */
+    @Value("${chat.upstream.tokens-per-minute:0}")
+    private long tokensPerMinute;
+
+    /**
+     * How long a call may wait for dispatch, including retries after 429, before it is rejected.
+     */
+    @Value("${chat.upstream.queue-timeout:30s}")
+    private Duration queueTimeout;
+
+    /**
+     * Pause after a 429 that carries no Retry-After header.
+     */
+    @Value("${chat.upstream.throttle-pause:1s}")
+    private Duration throttlePause;
+
+    /**
+     * How long a call that can fall back to another model waits for dispatch before giving up on this lane.
+     */
+    @Value("${chat.upstream.fallback-wait:1s}")
+    private Duration fallbackWait;
+
+    @Value("${chat.async.retry-after:2s}")
+    private Duration retryAfter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Concurrency limit, rate budgets and pause of one lane. Guarded by the scheduler's lock.
+     */
+    private static final class Lane {
+
+        final String name;
+        final TokenBucket requestBucket;
+        final TokenBucket tokenBucket;
+        double limit;
+        int inFlight;
+        int queued;
+        long pausedUntil = System.nanoTime();
+        Counter throttled;
+        Counter rejected;
+
+        Lane(String name, double limit, long requestsPerMinute, long tokensPerMinute) {
+            this.name = name;
+            this.limit = limit;
+            this.requestBucket = new TokenBucket(requestsPerMinute);
+            this.tokenBucket = new TokenBucket(tokensPerMinute);
+        }
+    }
+
+    /**
+     * Names the lane of a model on an endpoint.
+     *
+     * @param model   the model name
+     * @param baseUrl the endpoint's API base URL
+     * @return the lane name
+     */
+    public static String lane(String model, String baseUrl) {
+        return model + "@" + baseUrl;
+    }
+
+    /**
+     * Runs a chat completion call once the lane's concurrency limit and rate budgets allow it.
+     * A 429 answer lowers the limit and puts the call back in the queue until its deadline.
+     *
+     * @param lane    the lane the call goes to, see {@link #lane(String, String)}
+     * @param request the request, used to estimate its token cost
+     * @param call    the upstream call
+     * @param <T>     the result type
+     * @return the call's result
+     * @throws ChatOverloadedException if the call could not be dispatched before its queue deadline
+     */
+    public <T> T execute(String lane, ChatCompletionRequest request, Supplier<T> call) {
+        return execute(lane, request, false, call);
+    }
+
+    /**
+     * Runs a chat completion call once the lane's concurrency limit and rate budgets allow it.
+     * Without a fallback, a 429 answer lowers the limit and puts the call back in the queue until its deadline.
+     * With one, the call waits at most {@code fallback-wait} and a 429 (which still lowers the limit) is
+     * rethrown right away, so the caller can move on to the other lane.
+     *
+     * @param lane        the lane the call goes to, see {@link #lane(String, String)}
+     * @param request     the request, used to estimate its token cost
+     * @param hasFallback whether the caller can send the call elsewhere instead of waiting
+     * @param call        the upstream call
+     * @param <T>         the result type
+     * @return the call's result
+     * @throws ChatOverloadedException if the call could not be dispatched before its queue deadline
+     */
+    public <T> T execute(String lane, ChatCompletionRequest request, boolean hasFallback, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+
+        Lane state = lanes.computeIfAbsent(lane, this::newLane);
+        long cost = estimateTokens(request);
+        long deadline = System.nanoTime() + (hasFallback ? fallbackWait : queueTimeout).toNanos();
+        while (true) {
+            acquire(state, cost, deadline);
+            boolean succeeded = false;
+            try {
+                T result = call.get();
+                succeeded = true;
+                return result;
+            } catch (OpenAiHttpException ex) {
+                if (ex.statusCode != 429 || "insufficient_quota".equals(ex.code)) {
+                    throw ex;
+                }
+                onThrottled(state);
+                if (hasFallback || System.nanoTime() >= deadline) {
+                    throw ex;
+                }
+                log.warn("OpenAI throttled a completion request on {}, retrying (limit now {})", lane,
+                        (int) getLimit(lane));
+            } finally {
+                release(state, succeeded);
+            }
+        }
+    }
+
+    /**
+     * Runs an optional call only if it can be dispatched right away: a slot is free, dispatch is not paused
+     * and both buckets cover it. It never waits in the queue and is not retried; a 429 still lowers the limit.
+     *
+     * @param lane   the lane the call goes to, see {@link #lane(String, String)}
+     * @param tokens estimated token cost of the call
+     * @param call   the upstream call
+     * @param <T>    the result type
+     * @return the call's result, or empty if it was not admitted
+     */
+    public <T> Optional<T> tryExecute(String lane, long tokens, Supplier<T> call) {
+        if (!enabled) {
+            return Optional.ofNullable(call.get());
+        }
+        Lane state = lanes.computeIfAbsent(lane, this::newLane);
+        if (!tryAcquire(state, Math.max(1, tokens))) {
+            return Optional.empty();
+        }
+        boolean succeeded = false;
+        try {
+            T result = call.get();
+            succeeded = true;
+            return Optional.ofNullable(result);
+        } catch (OpenAiHttpException ex) {
+            if (ex.statusCode == 429 && !"insufficient_quota".equals(ex.code)) {
+                onThrottled(state);
+            }
+            throw ex;
+        } finally {
+            release(state, succeeded);
+        }
+    }
+
+    /**
+     * Applies OpenAI rate-limit headers from a response on a lane: bucket capacities and remaining budgets follow
+     * {@code x-ratelimit-limit-*} and {@code x-ratelimit-remaining-*}, an exhausted budget pauses dispatch
+     * until {@code x-ratelimit-reset-*}, and {@code Retry-After} pauses dispatch for that long.
+     *
+     * @param lane    the lane the response came from
+     * @param headers the response headers
+     */
+    public void onResponseHeaders(String lane, Headers headers) {
+        if (!enabled) {
+            return;
+        }
+        Lane state = lanes.computeIfAbsent(lane, this::newLane);
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            applyLimitHeaders(state, state.requestBucket, headers, "requests", now);
+            applyLimitHeaders(state, state.tokenBucket, headers, "tokens", now);
+
+            Duration wait = parseRetryAfter(headers);
+            if (wait != null) {
+                pauseUntil(state, now + wait.toNanos());
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current concurrency limit of a lane.
+     */
+    public double getLimit(String lane) {
+        Lane state = lanes.computeIfAbsent(lane, this::newLane);
+        lock.lock();
+        try {
+            return state.limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of calls in flight on a lane.
+     */
+    public int getInFlight(String lane) {
+        Lane state = lanes.computeIfAbsent(lane, this::newLane);
+        lock.lock();
+        try {
+            return state.inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of calls waiting to be dispatched on a lane.
+     */
+    public int getQueued(String lane) {
+        Lane state = lanes.computeIfAbsent(lane, this::newLane);
+        lock.lock();
+        try {
+            return state.queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Lane newLane(String name) {
+        Lane lane = new Lane(name, Math.max(minLimit, Math.min(maxLimit, initialLimit)),
+                requestsPerMinute, tokensPerMinute);
+        Gauge.builder("chat.upstream.limit", this, scheduler -> scheduler.getLimit(name))
+                .description("Learned concurrency limit for OpenAI calls")
+                .tag("lane", name)
+                .register(meterRegistry);
+        Gauge.builder("chat.upstream.in-flight", this, scheduler -> scheduler.getInFlight(name))
+                .description("OpenAI calls currently in flight")
+                .tag("lane", name)
+                .register(meterRegistry);
+        Gauge.builder("chat.upstream.queue-depth", this, scheduler -> scheduler.getQueued(name))
+                .description("OpenAI calls waiting to be dispatched")
+                .tag("lane", name)
+                .register(meterRegistry);
+        lane.throttled = Counter.builder("chat.upstream.throttled")
+                .description("OpenAI calls answered with 429")
+                .tag("lane", name)
+                .register(meterRegistry);
+        lane.rejected = Counter.builder("chat.upstream.rejected")
+                .description("OpenAI calls that could not be dispatched before their queue deadline")
+                .tag("lane", name)
+                .register(meterRegistry);
+        return lane;
+    }
+
+    /**
+     * Waits until a slot is free, dispatch is not paused and both buckets can cover the call.
+     */
+    private void acquire(Lane lane, long cost, long deadline) {
+        lock.lock();
+        lane.queued++;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long wait;
+                if (lane.inFlight >= (int) lane.limit) {
+                    wait = Long.MAX_VALUE;
+                } else if (now < lane.pausedUntil) {
+                    wait = lane.pausedUntil - now;
+                } else {
+                    wait = Math.max(lane.requestBucket.delay(1, now), lane.tokenBucket.delay(cost, now));
+                    if (wait == 0) {
+                        lane.requestBucket.take(1);
+                        lane.tokenBucket.take(cost);
+                        lane.inFlight++;
+                        return;
+                    }
+                }
+
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    lane.rejected.increment();
+                    log.warn("Rejecting OpenAI call on {} after queue timeout: {} in flight, limit {}, {} queued",
+                            lane.name, lane.inFlight, (int) lane.limit, lane.queued);
+                    throw new ChatOverloadedException(retryAfter);
+                }
+                changed.awaitNanos(Math.min(wait, remaining));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ChatServiceException("Interrupted while waiting to call OpenAI", ex);
+        } finally {
+            lane.queued--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot and the call's budget if they are available now.
+     */
+    private boolean tryAcquire(Lane lane, long cost) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (lane.inFlight >= (int) lane.limit || now < lane.pausedUntil
+                    || lane.requestBucket.delay(1, now) > 0 || lane.tokenBucket.delay(cost, now) > 0) {
+                return false;
+            }
+            lane.requestBucket.take(1);
+            lane.tokenBucket.take(cost);
+            lane.inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the call's slot; a success while the limit is in use grows the limit by about one per round.
+     */
+    private void release(Lane lane, boolean succeeded) {
+        lock.lock();
+        try {
+            if (succeeded && lane.inFlight * 2 >= lane.limit) {
+                lane.limit = Math.min(maxLimit, lane.limit + 1.0 / lane.limit);
+            }
+            lane.inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onThrottled(Lane lane) {
+        lane.throttled.increment();
+        lock.lock();
+        try {
+            lane.limit = Math.max(minLimit, lane.limit * backoffRatio);
+            long now = System.nanoTime();
+            if (lane.pausedUntil <= now) {
+                pauseUntil(lane, now + throttlePause.toNanos());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void pauseUntil(Lane lane, long until) {
+        if (until > lane.pausedUntil) {
+            lane.pausedUntil = until;
+        }
+    }
+
+    private static void applyLimitHeaders(Lane lane, TokenBucket bucket, Headers headers, String kind, long now) {
+        Long capacity = parseLong(headers.get("x-ratelimit-limit-" + kind));
+        Long remaining = parseLong(headers.get("x-ratelimit-remaining-" + kind));
+        if (capacity != null && capacity > 0) {
+            bucket.setCapacity(capacity, now);
+        }
+        if (remaining != null) {
+            bucket.capAvailable(remaining, now);
+            Duration reset = parseDuration(headers.get("x-ratelimit-reset-" + kind));
+            if (remaining <= 0 && reset != null) {
+                pauseUntil(lane, now + reset.toNanos());
+            }
+        }
+    }
+
+    /**
+     * Reads {@code retry-after-ms} or {@code Retry-After} (in seconds).
+     */
+    private static Duration parseRetryAfter(Headers headers) {
+        Long millis = parseLong(headers.get("retry-after-ms"));
+        if (millis != null) {
+            return Duration.ofMillis(millis);
+        }
+        Long seconds = parseLong(headers.get("retry-after"));
+        return seconds != null ? Duration.ofSeconds(seconds) : null;
+    }
+
+    /**
+     * Parses OpenAI's reset durations such as {@code 20ms}, {@code 1.5s} or {@code 6m0s}.
+     */
+    static Duration parseDuration(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        Matcher matcher = DURATION_PART.matcher(value.trim());
+        double millis = 0;
+        boolean matched = false;
+        while (matcher.find()) {
+            matched = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            millis += switch (matcher.group(2)) {
+                case "ms" -> amount;
+                case "s" -> amount * 1_000;
+                case "m" -> amount * 60_000;
+                default -> amount * 3_600_000;
+            };
+        }
+        return matched ? Duration.ofMillis((long) Math.ceil(millis)) : null;
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Rough token cost of a request: about four characters per prompt token plus the reply allowance.
+     */
+    private static long estimateTokens(ChatCompletionRequest request) {
+        long tokens = 0;
+        if (request.getMessages() != null) {
+            for (ChatMessage message : request.getMessages()) {
+                tokens += estimateTokens(message.getContent());
+            }
+        }
+        long replyTokens = request.getMaxTokens() != null ? request.getMaxTokens() : 0;
+        return Math.max(1, tokens + replyTokens);
+    }
+
+    /**
+     * Rough token count of a text, at about four characters per token.
+     *
+     * @param text the text, may be null
+     * @return the estimated number of tokens
+     */
+    public static long estimateTokens(String text) {
+        return text != null ? text.length() / 4 : 0;
+    }
+
+    /**
+     * Per-minute budget refilled continuously. A capacity of 0 means unlimited.
+     * Not thread-safe; guarded by the scheduler's lock.
+     */
+    private static final class TokenBucket {
+
+        private static final double NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+        private long capacity;
+        private double available;
+        private long refilledAt;
+
+        TokenBucket(long capacity) {
+            this.capacity = capacity;
+            this.available = capacity;
+            this.refilledAt = System.nanoTime();
+        }
+
+        long delay(long amount, long now) {
+            if (capacity <= 0) {
+                return 0;
+            }
+            refill(now);
+            double needed = Math.min(amount, capacity) - available;
+            return needed <= 0 ? 0 : (long) Math.ceil(needed * NANOS_PER_MINUTE / capacity);
+        }
+
+        void take(long amount) {
+            if (capacity > 0) {
+                available -= Math.min(amount, capacity);
+            }
+        }
+
+        void setCapacity(long capacity, long now) {
+            refill(now);
+            if (this.capacity <= 0) {
+                available = capacity;
+            }
+            this.capacity = capacity;
+            available = Math.min(available, capacity);
+        }
+
+        void capAvailable(long remaining, long now) {
+            if (capacity > 0) {
+                refill(now);
+                available = Math.min(available, remaining);
+            }
+        }
+
+        private void refill(long now) {
+            available = Math.min(capacity, available + (now - refilledAt) * capacity / NANOS_PER_MINUTE);
+            refilledAt = now;
+        }
+    }
+}
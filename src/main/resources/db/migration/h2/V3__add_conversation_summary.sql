@@ -0,0 +1,8 @@
+ALTER TABLE conversations ADD COLUMN summary_message_id BIGINT;
+ALTER TABLE conversations ADD COLUMN summarized_through_created_at TIMESTAMP;
+ALTER TABLE conversations ADD COLUMN summarized_through_message_id BIGINT;
+
+ALTER TABLE conversations ADD CONSTRAINT fk_conversations_summary_message
+    FOREIGN KEY (summary_message_id)
+    REFERENCES messages(id)
+    ON DELETE SET NULL;
@@ -0,0 +1,14 @@
+-- Pooled sequences (increment = Hibernate allocationSize) let Hibernate assign IDs in memory
+-- and batch inserts, which IDENTITY columns prevent.
+CREATE SEQUENCE conversations_seq START WITH 50 INCREMENT BY 50;
+CREATE SEQUENCE messages_seq START WITH 50 INCREMENT BY 50;
+
+-- Hibernate's pooled optimizer hands out (value - 49 .. value], so start one block past the current max
+ALTER SEQUENCE conversations_seq RESTART WITH (SELECT COALESCE(MAX(id), 0) + 50 FROM conversations);
+ALTER SEQUENCE messages_seq RESTART WITH (SELECT COALESCE(MAX(id), 0) + 50 FROM messages);
+
+-- Rows inserted outside Hibernate draw from the same sequences
+ALTER TABLE conversations ALTER COLUMN id DROP IDENTITY;
+ALTER TABLE conversations ALTER COLUMN id SET DEFAULT NEXT VALUE FOR conversations_seq;
+ALTER TABLE messages ALTER COLUMN id DROP IDENTITY;
+ALTER TABLE messages ALTER COLUMN id SET DEFAULT NEXT VALUE FOR messages_seq;
@@ -0,0 +1,4 @@
+-- Serves the keyset-paginated conversation list (WHERE user_uuid = ? ORDER BY updated_at DESC, id DESC)
+-- straight from the index; supersedes the single-column user_uuid index
+CREATE INDEX idx_conversations_user_updated ON conversations(user_uuid, updated_at DESC, id DESC);
+DROP INDEX idx_conversations_user_uuid;
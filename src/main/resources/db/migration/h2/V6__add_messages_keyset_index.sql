@@ -0,0 +1,5 @@
+-- One composite index serves every per-conversation message read in (created_at, id) order,
+-- including keyset paging before/after a message; it supersedes both single-column indexes
+CREATE INDEX idx_messages_conversation_created ON messages(conversation_id, created_at, id);
+DROP INDEX idx_messages_conversation_id;
+DROP INDEX idx_messages_created_at;
@@ -0,0 +1,48 @@
+-- Schema for server databases, equivalent to the H2 migrations V1 to V6 (which keep their H2-specific syntax
+-- so existing file databases still validate). Standard SQL only: IDs are drawn from the sequences by
+-- Hibernate and public IDs are generated by the application, so no vendor functions are needed.
+-- Later migrations are added with the same version to both sets.
+
+-- Pooled sequences (increment = Hibernate allocationSize) let Hibernate assign IDs in memory and batch inserts
+CREATE SEQUENCE conversations_seq START WITH 50 INCREMENT BY 50;
+CREATE SEQUENCE messages_seq START WITH 50 INCREMENT BY 50;
+
+CREATE TABLE conversations (
+    id BIGINT PRIMARY KEY,
+    public_id UUID NOT NULL,
+    user_uuid UUID NOT NULL,
+    title VARCHAR(255),
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    summary_message_id BIGINT,
+    summarized_through_created_at TIMESTAMP,
+    summarized_through_message_id BIGINT,
+    CONSTRAINT uk_conversations_public_id UNIQUE (public_id)
+);
+
+CREATE TABLE messages (
+    id BIGINT PRIMARY KEY,
+    conversation_id BIGINT NOT NULL,
+    role VARCHAR(20) NOT NULL,
+    content TEXT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT fk_messages_conversation
+        FOREIGN KEY (conversation_id)
+        REFERENCES conversations(id)
+        ON DELETE CASCADE,
+    CONSTRAINT chk_messages_role
+        CHECK (role IN ('user', 'assistant', 'system'))
+);
+
+ALTER TABLE conversations ADD CONSTRAINT fk_conversations_summary_message
+    FOREIGN KEY (summary_message_id)
+    REFERENCES messages(id)
+    ON DELETE SET NULL;
+
+CREATE INDEX idx_conversations_created_at ON conversations(created_at DESC);
+
+-- Serves the keyset-paginated conversation list (WHERE user_uuid = ? ORDER BY updated_at DESC, id DESC)
+CREATE INDEX idx_conversations_user_updated ON conversations(user_uuid, updated_at DESC, id DESC);
+
+-- Serves every per-conversation message read in (created_at, id) order, including keyset paging
+CREATE INDEX idx_messages_conversation_created ON messages(conversation_id, created_at, id);
@@ -0,0 +1,20 @@
+-- Cold storage: the turns of conversations idle past the archive cutoff are moved out of messages into one
+-- compressed row per conversation, so the hot message table and its index only hold active conversations.
+-- archived_at marks a conversation whose turns are in message_archives; rehydrated_at keeps a conversation
+-- that was just brought back from being archived again straight away
+ALTER TABLE conversations ADD COLUMN archived_at TIMESTAMP;
+ALTER TABLE conversations ADD COLUMN rehydrated_at TIMESTAMP;
+
+CREATE TABLE message_archives (
+    conversation_id BIGINT PRIMARY KEY,
+    message_count INT NOT NULL,
+    content BYTEA NOT NULL,
+    archived_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT fk_message_archives_conversation
+        FOREIGN KEY (conversation_id)
+        REFERENCES conversations(id)
+        ON DELETE CASCADE
+);
+
+-- Serves the archive job's scan for conversations idle since the cutoff
+CREATE INDEX idx_conversations_updated_at ON conversations(updated_at);
@@ -0,0 +1,15 @@
+-- Compressed storage for message bodies: bodies above the compression threshold are stored in
+-- content_compressed (raw DEFLATE with a preset dictionary) and content is left null.
+-- Existing rows keep their text and are compressed in the background by the message compression job
+ALTER TABLE messages ALTER COLUMN content DROP NOT NULL;
+ALTER TABLE messages ADD COLUMN content_compressed BYTEA;
+ALTER TABLE messages ADD CONSTRAINT ck_messages_content
+    CHECK (content IS NOT NULL OR content_compressed IS NOT NULL);
+
+-- Preset dictionaries trained on recent messages; compressed bodies name theirs, so rows are never orphaned
+CREATE TABLE message_dictionaries (
+    id INT PRIMARY KEY,
+    content BYTEA NOT NULL,
+    sample_count INT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,175 @@
+package com.openai.chatbot.cache
+
+import com.openai.chatbot.cache.ConversationCache.ConversationListEntry
+import com.openai.chatbot.cache.ConversationCache.MessageTailEntry
+import com.openai.chatbot.dto.ConversationSummaryDto
+import com.openai.chatbot.dto.MessageDto
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.springframework.beans.factory.ObjectProvider
+import org.springframework.transaction.support.TransactionSynchronizationManager
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.function.Supplier
+
+/**
+ * Unit tests for ConversationCache using Spock framework.
+ */
+class ConversationCacheSpec extends Specification {
+
+    UUID user = UUID.randomUUID()
+    UUID conversationId = UUID.randomUUID()
+
+    def "getConversationList should load once and serve later reads from memory"() {
+        given: "a cache and a loader"
+        def cache = cache(null)
+        Supplier<ConversationListEntry> loader = Mock()
+
+        when: "the list is read twice"
+        def first = cache.getConversationList(user, loader)
+        def second = cache.getConversationList(user, loader)
+
+        then: "the loader runs once"
+        1 * loader.get() >> listEntry("Trip")
+        second.is(first)
+    }
+
+    def "evictConversationList should make the next read load again"() {
+        given: "a cached list"
+        def cache = cache(null)
+        cache.getConversationList(user, { listEntry("Old") } as Supplier)
+
+        when: "the list is evicted and read again"
+        cache.evictConversationList(user)
+        def reloaded = cache.getConversationList(user, { listEntry("New") } as Supplier)
+
+        then: "the fresh list is returned"
+        reloaded.conversations()*.title == ["New"]
+    }
+
+    def "eviction should be repeated after the surrounding transaction commits"() {
+        given: "a cached tail and an active transaction synchronization"
+        def cache = cache(null)
+        cache.getMessageTail(conversationId, { tailEntry("Old") } as Supplier)
+        TransactionSynchronizationManager.initSynchronization()
+
+        when: "a writer evicts the tail and a racing read caches stale data before the commit"
+        cache.evictMessageTail(conversationId)
+        cache.getMessageTail(conversationId, { tailEntry("Stale") } as Supplier)
+        TransactionSynchronizationManager.synchronizations*.afterCommit()
+        def afterCommit = cache.getMessageTail(conversationId, { tailEntry("Committed") } as Supplier)
+
+        then: "the stale entry is dropped at commit"
+        afterCommit.messages()*.content == ["Committed"]
+
+        cleanup:
+        TransactionSynchronizationManager.clearSynchronization()
+    }
+
+    def "a read that loaded the state before an eviction should not cache it"() {
+        given: "a cache with a shared tier"
+        ConversationCacheTier tier = Mock()
+        def cache = cache(tier)
+
+        when: "the writer's commit evicts the tail while a reader is still loading the old one"
+        def stale = cache.getMessageTail(conversationId, {
+            cache.evictMessageTail(conversationId)
+            tailEntry("Stale")
+        } as Supplier)
+        def next = cache.getMessageTail(conversationId, { tailEntry("Committed") } as Supplier)
+
+        then: "the stale tail is returned to its reader but never cached"
+        stale.messages()*.content == ["Stale"]
+        next.messages()*.content == ["Committed"]
+        _ * tier.get(_, _) >> Optional.empty()
+        0 * tier.put(_, { it.messages()*.content == ["Stale"] }, _)
+        1 * tier.put("conversations:tail:" + conversationId, _, Duration.ofMinutes(10))
+    }
+
+    def "an eviction relayed from another node should stop a racing read from caching"() {
+        given:
+        def cache = cache(null)
+
+        when: "another node's eviction arrives while this node loads the list"
+        cache.getConversationList(user, {
+            cache.evictLocal("conversations:list:" + user)
+            listEntry("Stale")
+        } as Supplier)
+        def next = cache.getConversationList(user, { listEntry("Fresh") } as Supplier)
+
+        then:
+        next.conversations()*.title == ["Fresh"]
+    }
+
+    def "the cache should stay within its memory weight"() {
+        given: "a cache bounded to a few kilobytes"
+        def cache = cache(null)
+        cache.maxWeightBytes = 4096
+        cache.init()
+
+        when: "tails much larger than the bound are cached"
+        (1..10).each { cache.getMessageTail(UUID.randomUUID(), { tailEntry("x" * 1000) } as Supplier) }
+        cache.local.cleanUp()
+
+        then: "entries are evicted to respect the bound"
+        cache.local.policy().eviction().get().weightedSize().asLong <= 4096
+        cache.local.estimatedSize() < 10
+    }
+
+    def "the shared tier should be read on a local miss and evicted with the local entry"() {
+        given: "a cache backed by a shared tier that already holds the list"
+        ConversationCacheTier tier = Mock()
+        def cache = cache(tier)
+        Supplier<ConversationListEntry> loader = Mock()
+
+        when: "the list is read"
+        def list = cache.getConversationList(user, loader)
+
+        then: "it comes from the shared tier without loading"
+        1 * tier.get("conversations:list:" + user, ConversationListEntry) >> Optional.of(listEntry("Shared"))
+        0 * loader.get()
+        list.conversations()*.title == ["Shared"]
+
+        when: "the list is evicted"
+        cache.evictConversationList(user)
+
+        then: "the shared tier is evicted too"
+        1 * tier.evict("conversations:list:" + user)
+    }
+
+    def "a disabled cache should always load"() {
+        given: "a disabled cache"
+        def cache = cache(null)
+        cache.enabled = false
+        Supplier<MessageTailEntry> loader = Mock()
+
+        when: "the tail is read twice"
+        cache.getMessageTail(conversationId, loader)
+        cache.getMessageTail(conversationId, loader)
+
+        then: "the loader runs every time"
+        2 * loader.get() >> tailEntry("Hi")
+    }
+
+    private ConversationCache cache(ConversationCacheTier tier) {
+        ObjectProvider<ConversationCacheTier> provider = Stub() {
+            getIfAvailable() >> tier
+        }
+        def cache = new ConversationCache(new SimpleMeterRegistry(), provider)
+        cache.enabled = true
+        cache.maxWeightBytes = 1024 * 1024
+        cache.localTtl = Duration.ofMinutes(10)
+        cache.listSize = 20
+        cache.tailSize = 50
+        cache.init()
+        cache
+    }
+
+    private static ConversationListEntry listEntry(String title) {
+        new ConversationListEntry([ConversationSummaryDto.builder().id(UUID.randomUUID()).title(title).build()], [1L])
+    }
+
+    private static MessageTailEntry tailEntry(String content) {
+        new MessageTailEntry([MessageDto.builder().id(1L).role("user").content(content).build()])
+    }
+}
@@ -0,0 +1,163 @@
+package com.openai.chatbot.compression
+
+import com.openai.chatbot.support.MessageCorpus
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.springframework.jdbc.core.JdbcTemplate
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * Unit tests for MessageContentCodec and DictionaryTrainer, with a benchmark of CPU cost versus bytes saved.
+ */
+class MessageContentCodecSpec extends Specification {
+
+    JdbcTemplate jdbcTemplate = Mock()
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+
+    @Subject
+    MessageContentCodec codec
+
+    def setup() {
+        codec = codec(true)
+    }
+
+    def "bodies below the threshold should be stored as text"() {
+        expect:
+        codec.compress("Short reply") == null
+    }
+
+    def "large bodies should round-trip through the compressed format"() {
+        given:
+        def reply = new MessageCorpus().reply() * 2
+
+        when:
+        def stored = codec.compress(reply)
+
+        then:
+        stored != null
+        stored.length < reply.getBytes(StandardCharsets.UTF_8).length / 2
+        codec.decompress(stored) == reply
+        codec.read(null, stored) == reply
+        codec.read("Plain", null) == "Plain"
+
+        and: "the bytes saved are counted"
+        bytes("raw") == reply.getBytes(StandardCharsets.UTF_8).length
+        bytes("compressed") == stored.length
+    }
+
+    def "multi-byte text should round-trip"() {
+        given:
+        def reply = ("Привет, мир! 你好，世界！ 🎉 " * 100)
+
+        expect:
+        codec.decompress(codec.compress(reply)) == reply
+    }
+
+    def "bodies that would not shrink should be stored as text"() {
+        given: "no threshold, so the header alone outweighs the savings"
+        def unlimited = codec(true, 1)
+
+        expect:
+        unlimited.compress("Hi!") == null
+    }
+
+    def "nothing should be compressed when compression is disabled, but compressed rows are still read"() {
+        given:
+        def reply = new MessageCorpus().reply() * 2
+        def stored = codec.compress(reply)
+        def disabled = codec(false)
+
+        expect:
+        disabled.compress(reply) == null
+        disabled.decompress(stored) == reply
+    }
+
+    def "a stored dictionary should be used for new bodies and loaded by ID to read them"() {
+        given: "a dictionary trained on the corpus"
+        def dictionary = DictionaryTrainer.train(new MessageCorpus(1).replies(200).collect { utf8(it) }, 32768)
+        def reply = new MessageCorpus(2).reply()
+        jdbcTemplate.queryForObject(_ as String, Integer) >> 1
+
+        when: "it is added and a body compressed"
+        codec.addDictionary(dictionary, 200)
+        def stored = codec.compress(reply)
+
+        then:
+        codec.currentDictionaryId == 1
+        stored[1..4] == [0, 0, 0, 1]
+
+        when: "another node reads the body"
+        def reader = codec(true)
+        def read = reader.decompress(stored)
+
+        then: "it loads the dictionary once"
+        1 * jdbcTemplate.query(_ as String, _, 1) >> [dictionary]
+        read == reply
+        reader.decompress(stored) == reply
+    }
+
+    def "the trained dictionary should keep the text shared across samples and fit the size limit"() {
+        given:
+        def samples = new MessageCorpus(1).replies(300).collect { utf8(it) }
+
+        when:
+        def dictionary = new String(DictionaryTrainer.train(samples, 4096), StandardCharsets.UTF_8)
+
+        then:
+        dictionary.length() > 0
+        dictionary.getBytes(StandardCharsets.UTF_8).length <= 4096
+        ["Keep in mind that", "Let me know", "First, make sure that the"].every { dictionary.contains(it) }
+
+        and: "nothing is kept from samples that share nothing"
+        DictionaryTrainer.train([utf8("abcdefghijklmnop"), utf8("qrstuvwxyz012345")], 4096).length == 0
+    }
+
+    def "benchmark: a trained dictionary should save more bytes than plain DEFLATE at every level"() {
+        given: "a dictionary trained on one corpus and replies from another sample of it"
+        def dictionary = DictionaryTrainer.train(new MessageCorpus(1).replies(500).collect { utf8(it) }, 32768)
+        def replies = new MessageCorpus(99).replies(500).collect { utf8(it) }
+        long rawBytes = replies.sum { it.length } as long
+
+        when: "each level is measured with and without the dictionary"
+        def results = [:]
+        [1, 6, 9].each { level ->
+            [none: null, trained: dictionary].each { name, dict ->
+                // Warm up, then time compression and decompression of the whole sample
+                replies.take(50).each { MessageContentCodec.deflate(it, dict, level) }
+                long start = System.nanoTime()
+                def stored = replies.collect { MessageContentCodec.deflate(it, dict, level) }
+                long compressNanos = System.nanoTime() - start
+                start = System.nanoTime()
+                stored.each { MessageContentCodec.inflate(it, dict) }
+                long decompressNanos = System.nanoTime() - start
+                long storedBytes = stored.sum { it.length } as long
+                results["${name}/${level}".toString()] = storedBytes
+                printf("level %d, %-7s dictionary: %5.1f%% of %d bytes, %6.1f µs compress, %5.1f µs decompress " +
+                        "per message%n", level, name, 100.0 * storedBytes / rawBytes, rawBytes,
+                        compressNanos / 1000.0 / replies.size(), decompressNanos / 1000.0 / replies.size())
+            }
+        }
+
+        then:
+        [1, 6, 9].every { results["trained/$it".toString()] < results["none/$it".toString()] }
+    }
+
+    private MessageContentCodec codec(boolean enabled, int threshold = 1024) {
+        def codec = new MessageContentCodec(jdbcTemplate, meterRegistry)
+        codec.enabled = enabled
+        codec.threshold = threshold
+        codec.level = 6
+        codec.init()
+        codec
+    }
+
+    private double bytes(String type) {
+        meterRegistry.get("chat.message-compression.bytes").tag("type", type).counter().count()
+    }
+
+    private static byte[] utf8(String text) {
+        text.getBytes(StandardCharsets.UTF_8)
+    }
+}
@@ -0,0 +1,176 @@
+package com.openai.chatbot.config
+
+import com.openai.chatbot.service.UpstreamScheduler
+import com.openai.chatbot.support.OpenAiStubServer
+import com.theokanning.openai.completion.chat.ChatCompletionRequest
+import com.theokanning.openai.completion.chat.ChatMessage
+import io.micrometer.observation.ObservationRegistry
+import okhttp3.Protocol
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for OpenAiConfig against a local OpenAI stub server.
+ */
+class OpenAiConfigSpec extends Specification {
+
+    @AutoCleanup
+    OpenAiStubServer stub = OpenAiStubServer.start()
+
+    OpenAiConfig config = new OpenAiConfig()
+
+    UpstreamScheduler upstreamScheduler = Mock()
+
+    def setup() {
+        config.apiKey = "test-api-key"
+        config.baseUrl = stub.baseUrl
+        config.model = "gpt-3.5-turbo"
+        config.connectTimeout = Duration.ofSeconds(2)
+        config.readTimeout = Duration.ofSeconds(5)
+        config.writeTimeout = Duration.ofSeconds(3)
+        config.maxIdleConnections = 64
+        config.keepAlive = Duration.ofMinutes(5)
+        config.maxRequests = 300
+        config.maxRequestsPerHost = 200
+        config.http2Enabled = true
+    }
+
+    def "openAiHttpClient should apply the configured pool, dispatcher limits, timeouts and protocols"() {
+        when: "the client is created"
+        def client = config.openAiHttpClient(upstreamScheduler, ObservationRegistry.NOOP)
+
+        then: "each phase has its own timeout"
+        client.connectTimeoutMillis() == 2000
+        client.readTimeoutMillis() == 5000
+        client.writeTimeoutMillis() == 3000
+
+        and: "dispatcher limits come from configuration"
+        client.dispatcher().maxRequests == 300
+        client.dispatcher().maxRequestsPerHost == 200
+
+        and: "HTTP/2 is negotiated when available"
+        client.protocols() == [Protocol.HTTP_2, Protocol.HTTP_1_1]
+
+        when: "HTTP/2 is disabled"
+        config.http2Enabled = false
+
+        then: "only HTTP/1.1 is offered"
+        config.openAiHttpClient(upstreamScheduler, ObservationRegistry.NOOP).protocols() == [Protocol.HTTP_1_1]
+    }
+
+    def "openAiHttpClient should reject a missing API key"() {
+        given: "the placeholder API key"
+        config.apiKey = "your-api-key-here"
+
+        when: "the client is created"
+        config.openAiHttpClient(upstreamScheduler, ObservationRegistry.NOOP)
+
+        then: "startup fails with a clear message"
+        def ex = thrown(IllegalStateException)
+        ex.message.contains("OPENAI_API_KEY")
+    }
+
+    def "openAiService should call the configured base URL with the API key"() {
+        given: "a service built on the configured client"
+        def service = config.openAiService(config.openAiHttpClient(upstreamScheduler, ObservationRegistry.NOOP))
+
+        when: "a completion is requested"
+        def result = service.createChatCompletion(request())
+
+        then: "the stub answered it"
+        result.choices[0].message.content == "Stub reply"
+        stub.requests.get() == 1
+        stub.authorizations == ["Bearer test-api-key"]
+
+        cleanup:
+        service.shutdownExecutor()
+    }
+
+    def "responses should hand their rate-limit headers to the upstream scheduler"() {
+        given: "a stub reporting its rate limits"
+        stub.responseHeaders["x-ratelimit-limit-requests"] = "500"
+        stub.responseHeaders["x-ratelimit-remaining-requests"] = "499"
+        def service = config.openAiService(config.openAiHttpClient(upstreamScheduler, ObservationRegistry.NOOP))
+
+        when: "a completion is requested"
+        service.createChatCompletion(request())
+
+        then: "the scheduler sees the headers on the default model's lane"
+        1 * upstreamScheduler.onResponseHeaders(UpstreamScheduler.lane("gpt-3.5-turbo", stub.baseUrl), {
+            it.get("x-ratelimit-limit-requests") == "500" && it.get("x-ratelimit-remaining-requests") == "499"
+        })
+
+        cleanup:
+        service.shutdownExecutor()
+    }
+
+    def "a service for another model should use its own API key and scheduler lane"() {
+        given: "a service for a routed model with its own key"
+        def lane = UpstreamScheduler.lane("gpt-4o", stub.baseUrl)
+        def client = config.openAiHttpClient(upstreamScheduler, ObservationRegistry.NOOP)
+        def service = OpenAiConfig.createOpenAiService(client, stub.baseUrl, "fallback-key", upstreamScheduler, lane)
+
+        when: "a completion is requested"
+        service.createChatCompletion(request())
+
+        then: "it is sent with that key and its headers go to that model's lane only"
+        stub.authorizations == ["Bearer fallback-key"]
+        1 * upstreamScheduler.onResponseHeaders(lane, _)
+        0 * upstreamScheduler.onResponseHeaders(_, _)
+
+        cleanup:
+        service.shutdownExecutor()
+    }
+
+    def "the read timeout should cut off a slow upstream"() {
+        given: "a stub slower than the read timeout"
+        stub.latencyMs = 1500
+        config.readTimeout = Duration.ofMillis(300)
+        def service = config.openAiService(config.openAiHttpClient(upstreamScheduler, ObservationRegistry.NOOP))
+
+        when: "a completion is requested"
+        service.createChatCompletion(request())
+
+        then: "the call fails on the read timeout"
+        def ex = thrown(RuntimeException)
+        ex instanceof java.net.SocketTimeoutException || ex.cause instanceof java.net.SocketTimeoutException
+
+        cleanup:
+        service.shutdownExecutor()
+    }
+
+    def "concurrent calls should run in parallel and keep their connections pooled"() {
+        given: "a stub with some latency and a service on the configured client"
+        stub.latencyMs = 300
+        def client = config.openAiHttpClient(upstreamScheduler, ObservationRegistry.NOOP)
+        def service = config.openAiService(client)
+        def executor = Executors.newVirtualThreadPerTaskExecutor()
+
+        when: "32 completions are requested at once"
+        def calls = (1..32).collect { { -> service.createChatCompletion(request()) } as Callable }
+        def results = executor.invokeAll(calls)*.get(10, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        then: "they were all in flight together"
+        results.every { it.choices[0].message.content == "Stub reply" }
+        stub.peakInFlight.get() == 32
+
+        and: "the connections stay pooled for reuse instead of the library default of 5"
+        client.connectionPool().idleConnectionCount() > 5
+
+        cleanup:
+        service.shutdownExecutor()
+    }
+
+    private static ChatCompletionRequest request() {
+        ChatCompletionRequest.builder()
+                .model("gpt-3.5-turbo")
+                .messages([new ChatMessage("user", "Hello")])
+                .build()
+    }
+}
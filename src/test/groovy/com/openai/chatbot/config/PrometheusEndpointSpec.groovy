@@ -0,0 +1,73 @@
+package com.openai.chatbot.config
+
+import com.openai.chatbot.support.OpenAiStubServer
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.web.server.LocalServerPort
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.DynamicPropertyRegistry
+import org.springframework.test.context.DynamicPropertySource
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+
+/**
+ * Tests that a chat against a local OpenAI stub shows up on the Prometheus scrape endpoint.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ContextConfiguration
+@ActiveProfiles("test")
+// Metrics export is off in tests unless asked for
+@AutoConfigureObservability(tracing = false)
+class PrometheusEndpointSpec extends Specification {
+
+    @Shared
+    static OpenAiStubServer stub = OpenAiStubServer.start()
+
+    @LocalServerPort
+    int port
+
+    HttpClient client = HttpClient.newHttpClient()
+
+    @DynamicPropertySource
+    static void openAiProperties(DynamicPropertyRegistry registry) {
+        registry.add("openai.base-url", { stub.baseUrl })
+    }
+
+    def cleanupSpec() {
+        stub.close()
+    }
+
+    def "the scrape should expose chat stage histograms, token counters and pool gauges"() {
+        given: "a chat answered by the stub"
+        def chat = client.send(HttpRequest.newBuilder(URI.create("http://localhost:${port}/api/chat"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString('{"message": "Hello metrics", "useCache": false}'))
+                .build(), HttpResponse.BodyHandlers.ofString())
+
+        when:
+        def scrape = client.send(HttpRequest.newBuilder(URI.create("http://localhost:${port}/actuator/prometheus")).build(),
+                HttpResponse.BodyHandlers.ofString())
+
+        then:
+        chat.statusCode() == 200
+        scrape.statusCode() == 200
+
+        and: "each stage is a histogram"
+        ["context_assembly", "upstream", "save_messages"].every {
+            scrape.body().contains('chat_stage_seconds_bucket{stage="' + it + '",le="+Inf"} 1')
+        }
+
+        and: "the stub's token usage is counted"
+        scrape.body().contains('chat_tokens_total{model="gpt-3.5-turbo",type="prompt"} 1.0')
+
+        and: "database and OpenAI connection pools are published"
+        scrape.body().contains("hikaricp_connections_active")
+        scrape.body().contains('okhttp_pool_connection_count_connections{client="openai",state="idle"}')
+        scrape.body().contains('okhttp_dispatcher_running{client="openai"}')
+    }
+}
@@ -0,0 +1,112 @@
+package com.openai.chatbot.config
+
+import com.openai.chatbot.exception.ConversationNotFoundException
+import com.openai.chatbot.service.ConversationService
+import io.micrometer.core.instrument.MeterRegistry
+import org.flywaydb.core.Flyway
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.context.runner.ApplicationContextRunner
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.TestPropertySource
+import spock.lang.Specification
+
+import javax.sql.DataSource
+
+/**
+ * Tests read-replica routing against two in-memory H2 databases.
+ * The replica gets the schema but never receives the primary's rows, standing in for a replica that lags
+ * indefinitely: a read that finds a row went to the primary, one that misses it went to the replica.
+ */
+@SpringBootTest
+@ContextConfiguration
+@ActiveProfiles("test")
+@TestPropertySource(properties = [
+        "spring.datasource.url=jdbc:h2:mem:primarydb;DB_CLOSE_DELAY=-1",
+        "chat.datasource.replica.jdbc-url=jdbc:h2:mem:replicadb;DB_CLOSE_DELAY=-1",
+        "chat.datasource.read-your-writes-window=500ms",
+        "chat.conversation-cache.enabled=false"])
+class ReadReplicaConfigSpec extends Specification {
+
+    @Autowired
+    ConversationService conversationService
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    DataSource replicaDataSource
+
+    @Autowired
+    MeterRegistry meterRegistry
+
+    def setup() {
+        Flyway.configure()
+                .dataSource(replicaDataSource)
+                .locations("classpath:db/migration/h2")
+                .load()
+                .migrate()
+    }
+
+    def "a conversation should be read from the primary right after a write and from the replica after the window"() {
+        given: "a conversation with a message pair written to the primary"
+        def user = UUID.randomUUID()
+        def conversationId = conversationService.createConversation(user).publicId
+        conversationService.saveMessagePair(conversationId, "Hello replica", "Hi")
+
+        when: "it is read within the read-your-writes window"
+        def detail = conversationService.getConversationById(conversationId)
+        def messages = conversationService.getMessages(conversationId, null, null, 10)
+        def list = conversationService.listConversationsByUser(user, null, 10)
+
+        then: "the reads see the latest message"
+        detail.messages*.content == ["Hello replica", "Hi"]
+        messages.messages*.content == ["Hello replica", "Hi"]
+        list.conversations*.id == [conversationId]
+
+        when: "the window has passed"
+        Thread.sleep(700)
+        conversationService.getConversationById(conversationId)
+
+        then: "the read goes to the replica, which has not caught up"
+        thrown(ConversationNotFoundException)
+
+        and: "the user's list is read from the replica too"
+        conversationService.listConversationsByUser(user, null, 10).conversations.isEmpty()
+    }
+
+    def "writes and pinned reads should go to the primary and other reads to the replica"() {
+        given:
+        def writes = connections("primary", "write")
+        def pinnedReads = connections("primary", "read-your-writes")
+        def reads = connections("replica", "read")
+
+        when: "a conversation is written and read back, and another user's list is read"
+        def conversationId = conversationService.createConversation(UUID.randomUUID()).publicId
+        conversationService.saveMessagePair(conversationId, "Count me", "Counted")
+        conversationService.getConversationById(conversationId)
+        conversationService.listConversationsByUser(UUID.randomUUID(), null, 10)
+
+        then:
+        connections("primary", "write") > writes
+        connections("primary", "read-your-writes") == pinnedReads + 1
+        connections("replica", "read") == reads + 1
+    }
+
+    def "a blank replica URL should leave the single pool in place"() {
+        given:
+        def runner = new ApplicationContextRunner()
+                .withUserConfiguration(ReadReplicaConfig)
+                .withPropertyValues("chat.datasource.replica.jdbc-url=" + url)
+
+        expect:
+        runner.run { context -> assert !context.containsBean("routingDataSource") }
+
+        where:
+        url << ["", "  "]
+    }
+
+    private double connections(String pool, String reason) {
+        meterRegistry.get("chat.datasource.connections").tag("pool", pool).tag("reason", reason).counter().count()
+    }
+}
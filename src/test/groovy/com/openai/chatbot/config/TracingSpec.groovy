@@ -0,0 +1,122 @@
+package com.openai.chatbot.config
+
+import com.openai.chatbot.support.OpenAiStubServer
+import io.opentelemetry.sdk.common.CompletableResultCode
+import io.opentelemetry.sdk.trace.data.SpanData
+import io.opentelemetry.sdk.trace.export.SpanExporter
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.context.TestConfiguration
+import org.springframework.boot.test.web.server.LocalServerPort
+import org.springframework.context.annotation.Bean
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.DynamicPropertyRegistry
+import org.springframework.test.context.DynamicPropertySource
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Tests that a chat against a local OpenAI stub is traced end to end in a single trace.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ContextConfiguration
+@ActiveProfiles("test")
+// Tracing is off in tests unless asked for
+@AutoConfigureObservability
+class TracingSpec extends Specification {
+
+    @Shared
+    static OpenAiStubServer stub = OpenAiStubServer.start()
+
+    @LocalServerPort
+    int port
+
+    @Autowired
+    CollectingSpanExporter spanExporter
+
+    @DynamicPropertySource
+    static void openAiProperties(DynamicPropertyRegistry registry) {
+        registry.add("openai.base-url", { stub.baseUrl })
+    }
+
+    def cleanupSpec() {
+        stub.close()
+    }
+
+    def "a chat should produce one trace spanning the request, services, queries and the OpenAI call"() {
+        when:
+        def response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:${port}/api/chat"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString('{"message": "Hello tracing", "useCache": false}'))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString())
+        def server = awaitSpan { it.kind.name() == "SERVER" && it.attributes.asMap().values().contains("/api/chat") }
+        def trace = spanExporter.spans.findAll { it.traceId == server.traceId }
+
+        then:
+        response.statusCode() == 200
+
+        and: "the controller, conversation service, JDBC queries and OpenAI call are in the request's trace"
+        trace*.name.contains("chat")
+        trace*.name.contains("conversation-service#start-conversation")
+        trace*.name.contains("query")
+        trace.any { it.kind.name() == "CLIENT" && it.attributes.asMap().values().contains("/v1/chat/completions") }
+
+        and: "the trace context was sent to OpenAI"
+        stub.traceparents.any { it?.contains(server.traceId) }
+    }
+
+    private SpanData awaitSpan(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 15_000
+        while (System.currentTimeMillis() < deadline) {
+            def span = spanExporter.spans.find(condition)
+            if (span != null) {
+                // Child spans end before the server span, so they are already exported
+                return span
+            }
+            Thread.sleep(100)
+        }
+        throw new AssertionError("Span not exported; got " + spanExporter.spans*.name)
+    }
+
+    @TestConfiguration
+    static class TracingTestConfig {
+
+        @Bean
+        CollectingSpanExporter collectingSpanExporter() {
+            new CollectingSpanExporter()
+        }
+    }
+
+    /**
+     * Keeps every exported span in memory.
+     */
+    static class CollectingSpanExporter implements SpanExporter {
+
+        final List<SpanData> spans = new CopyOnWriteArrayList<>()
+
+        @Override
+        CompletableResultCode export(Collection<SpanData> batch) {
+            spans.addAll(batch)
+            CompletableResultCode.ofSuccess()
+        }
+
+        @Override
+        CompletableResultCode flush() {
+            CompletableResultCode.ofSuccess()
+        }
+
+        @Override
+        CompletableResultCode shutdown() {
+            CompletableResultCode.ofSuccess()
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.openai.chatbot.controller
 
 import com.openai.chatbot.dto.ChatResponse
+import com.openai.chatbot.exception.ChatOverloadedException
 import com.openai.chatbot.service.ChatService
 import org.springframework.http.HttpStatus
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter
 import spock.lang.Specification
 import spock.lang.Subject
 
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+
 /**
  * Unit tests for ChatController using Spock framework.
  */
@@ -26,13 +32,13 @@ class ChatControllerSpec extends Specification {
 
         and: "chat service returns a response"
         def serviceResponse = new ChatResponse("I'm doing well!", "gpt-3.5-turbo")
-        chatService.chat(request.message, request.conversationId) >> serviceResponse
+        chatService.chatAsync(request.message, request.conversationId, true) >> CompletableFuture.completedFuture(serviceResponse)
 
         when: "chat endpoint is called"
-        def response = chatController.chat(request)
+        def response = chatController.chat(request).join()
 
         then: "service is called once with correct parameters"
-        1 * chatService.chat(request.message, request.conversationId) >> serviceResponse
+        1 * chatService.chatAsync(request.message, request.conversationId, true) >> CompletableFuture.completedFuture(serviceResponse)
 
         and: "response has OK status"
         response.statusCode == HttpStatus.OK
@@ -49,13 +55,13 @@ class ChatControllerSpec extends Specification {
 
         and: "chat service is configured to return a response"
         def expectedResponse = new ChatResponse("42", "gpt-4")
-        chatService.chat(userMessage, request.conversationId) >> expectedResponse
+        chatService.chatAsync(userMessage, request.conversationId, true) >> CompletableFuture.completedFuture(expectedResponse)
 
         when: "chat endpoint is called"
-        def response = chatController.chat(request)
+        def response = chatController.chat(request).join()
 
         then: "service receives the exact user message and conversation ID"
-        1 * chatService.chat(userMessage, request.conversationId) >> expectedResponse
+        1 * chatService.chatAsync(userMessage, request.conversationId, true) >> CompletableFuture.completedFuture(expectedResponse)
 
         and: "controller returns the service response"
         response.body == expectedResponse
@@ -65,15 +71,31 @@ class ChatControllerSpec extends Specification {
         given: "a chat request"
         def request = new com.openai.chatbot.dto.ChatRequest(message: "Test")
 
-        and: "chat service throws an exception"
+        and: "chat service fails"
         def exception = new RuntimeException("Service error")
-        chatService.chat(_, _) >> { throw exception }
+        chatService.chatAsync(_, _, _) >> CompletableFuture.failedFuture(exception)
 
-        when: "chat endpoint is called"
-        chatController.chat(request)
+        when: "chat endpoint is called and its result awaited"
+        chatController.chat(request).join()
+
+        then: "the service failure is propagated"
+        def ex = thrown(CompletionException)
+        ex.cause == exception
+    }
+
+    def "chat should propagate rejection when too many chats are in flight"() {
+        given: "a chat request"
+        def request = new com.openai.chatbot.dto.ChatRequest(message: "Test")
+
+        and: "the chat executor is full"
+        chatService.chatAsync(_, _, _) >> CompletableFuture.failedFuture(new ChatOverloadedException(Duration.ofSeconds(2)))
+
+        when: "chat endpoint is called and its result awaited"
+        chatController.chat(request).join()
 
-        then: "exception is propagated"
-        thrown(RuntimeException)
+        then: "the rejection reaches the exception handler"
+        def ex = thrown(CompletionException)
+        ex.cause instanceof ChatOverloadedException
     }
 
     def "chat should handle empty message from request"() {
@@ -82,13 +104,13 @@ class ChatControllerSpec extends Specification {
 
         and: "chat service is configured"
         def serviceResponse = new ChatResponse("Please provide a message", "gpt-3.5-turbo")
-        chatService.chat("", request.conversationId) >> serviceResponse
+        chatService.chatAsync("", request.conversationId, true) >> CompletableFuture.completedFuture(serviceResponse)
 
         when: "chat endpoint is called"
-        def response = chatController.chat(request)
+        def response = chatController.chat(request).join()
 
         then: "service is called with empty message and conversation ID"
-        1 * chatService.chat("", request.conversationId) >> serviceResponse
+        1 * chatService.chatAsync("", request.conversationId, true) >> CompletableFuture.completedFuture(serviceResponse)
 
         and: "response is returned successfully"
         response.statusCode == HttpStatus.OK
@@ -102,13 +124,13 @@ class ChatControllerSpec extends Specification {
 
         and: "chat service processes the long message"
         def serviceResponse = new ChatResponse("Processed long message", "gpt-3.5-turbo")
-        chatService.chat(longMessage, request.conversationId) >> serviceResponse
+        chatService.chatAsync(longMessage, request.conversationId, true) >> CompletableFuture.completedFuture(serviceResponse)
 
         when: "chat endpoint is called"
-        def response = chatController.chat(request)
+        def response = chatController.chat(request).join()
 
         then: "service is called with the long message and conversation ID"
-        1 * chatService.chat(longMessage, request.conversationId) >> serviceResponse
+        1 * chatService.chatAsync(longMessage, request.conversationId, true) >> CompletableFuture.completedFuture(serviceResponse)
 
         and: "response is successful"
         response.statusCode == HttpStatus.OK
@@ -122,13 +144,13 @@ class ChatControllerSpec extends Specification {
 
         and: "chat service processes the message"
         def serviceResponse = new ChatResponse("Response to special chars", "gpt-3.5-turbo")
-        chatService.chat(specialMessage, request.conversationId) >> serviceResponse
+        chatService.chatAsync(specialMessage, request.conversationId, true) >> CompletableFuture.completedFuture(serviceResponse)
 
         when: "chat endpoint is called"
-        def response = chatController.chat(request)
+        def response = chatController.chat(request).join()
 
         then: "service is called with the special message and conversation ID"
-        1 * chatService.chat(specialMessage, request.conversationId) >> serviceResponse
+        1 * chatService.chatAsync(specialMessage, request.conversationId, true) >> CompletableFuture.completedFuture(serviceResponse)
 
         and: "response is successful"
         response.statusCode == HttpStatus.OK
@@ -142,12 +164,73 @@ class ChatControllerSpec extends Specification {
         and: "chat service returns response with specific model"
         def modelName = "gpt-4-turbo"
         def serviceResponse = new ChatResponse("Response", modelName)
-        chatService.chat(_, _) >> serviceResponse
+        chatService.chatAsync(_, _, _) >> CompletableFuture.completedFuture(serviceResponse)
 
         when: "chat endpoint is called"
-        def response = chatController.chat(request)
+        def response = chatController.chat(request).join()
 
         then: "response contains correct model information"
         response.body.model == modelName
     }
+
+    def "chat should bypass the response cache when the request opts out"() {
+        given: "a chat request with the cache switched off"
+        def request = new com.openai.chatbot.dto.ChatRequest(message: "Hello", useCache: false)
+
+        when: "chat endpoint is called"
+        chatController.chat(request).join()
+
+        then: "the service is asked not to use the cache"
+        1 * chatService.chatAsync("Hello", null, false) >> CompletableFuture.completedFuture(new ChatResponse("Hi", "gpt-4"))
+    }
+
+    def "streamChat should delegate to ChatService and return an SseEmitter"() {
+        given: "a chat request"
+        def request = new com.openai.chatbot.dto.ChatRequest(message: "Stream me")
+        def conversationId = UUID.randomUUID()
+
+        when: "stream endpoint is called"
+        def emitter = chatController.streamChat(request)
+
+        then: "service streams the message and tokens are forwarded"
+        1 * chatService.streamChatAsync("Stream me", null, _) >> { args ->
+            args[2].accept("Hel")
+            args[2].accept("lo")
+            CompletableFuture.completedFuture(new ChatResponse("Hello", "gpt-3.5-turbo", conversationId))
+        }
+
+        and: "an emitter is returned"
+        emitter instanceof SseEmitter
+    }
+
+    def "streamChat should not propagate service exceptions to the caller"() {
+        given: "a chat request"
+        def request = new com.openai.chatbot.dto.ChatRequest(message: "Test")
+
+        and: "chat service fails"
+        chatService.streamChatAsync(_, _, _) >> CompletableFuture.failedFuture(new RuntimeException("Service error"))
+
+        when: "stream endpoint is called"
+        def emitter = chatController.streamChat(request)
+
+        then: "the failure is reported on the stream instead of thrown"
+        noExceptionThrown()
+        emitter != null
+    }
+
+    def "streamChat should reject the request with ChatOverloadedException when no slot is free"() {
+        given: "a chat request"
+        def request = new com.openai.chatbot.dto.ChatRequest(message: "Test")
+
+        and: "the chat executor is full"
+        def overloaded = new ChatOverloadedException(Duration.ofSeconds(2))
+        chatService.streamChatAsync(_, _, _) >> CompletableFuture.failedFuture(overloaded)
+
+        when: "stream endpoint is called"
+        chatController.streamChat(request)
+
+        then: "the rejection surfaces before the event stream opens, so it maps to 429"
+        def ex = thrown(ChatOverloadedException)
+        ex.is(overloaded)
+    }
 }
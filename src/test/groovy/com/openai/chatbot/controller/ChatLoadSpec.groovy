@@ -0,0 +1,216 @@
+package com.openai.chatbot.controller
+
+import com.theokanning.openai.client.OpenAiApi
+import com.theokanning.openai.completion.chat.ChatCompletionChoice
+import com.theokanning.openai.completion.chat.ChatCompletionRequest
+import com.theokanning.openai.completion.chat.ChatCompletionResult
+import com.theokanning.openai.completion.chat.ChatMessage
+import com.theokanning.openai.service.OpenAiService
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.context.TestConfiguration
+import org.springframework.boot.test.web.server.LocalServerPort
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Primary
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.TestPropertySource
+import spock.lang.Specification
+
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Load test for POST /api/chat against a slow OpenAI stand-in.
+ * Fires a burst of concurrent chats at a node with a small Tomcat thread pool and records
+ * how many of them are in flight upstream at the same time. Chats are handled asynchronously,
+ * so in either execution mode the bound is the chat executor's in-flight limit, not Tomcat's threads.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ContextConfiguration
+@ActiveProfiles("test")
+// Per-request console logging would serialize the burst on the appender and skew the measurement;
+// the upstream limiter starts fully open since the stand-in never throttles, and hedging is off
+// since the stand-in holds calls on purpose. Held calls are released together, so their message pairs queue
+// for the database pool at once; the default 30s pool timeout applies rather than the production fail-fast one
+@TestPropertySource(properties = ["logging.level.root=WARN", "logging.level.com.openai.chatbot=WARN",
+        "chat.upstream.limit.initial=256", "chat.resilience.hedge.enabled=false",
+        "spring.datasource.hikari.connection-timeout=30000"])
+abstract class ChatLoadSpec extends Specification {
+
+    static final int TOMCAT_MAX_THREADS = 50
+    static final int CONCURRENT_CHATS = 200
+    static final long UPSTREAM_LATENCY_MS = 300
+    static final long MAX_HOLD_MS = 5000
+    static final int WARM_UP_CHATS = 20
+    static final int HOLD_UNTIL = 150
+
+    @LocalServerPort
+    int port
+
+    @Autowired
+    LatencyOpenAiService latencyOpenAiService
+
+    /**
+     * Warms the node up with a few chats, then fires the burst and returns its responses.
+     *
+     * @param holdUntil upstream calls are held until this many are in flight at once (0 for plain latency)
+     */
+    List<HttpResponse<String>> runBurst(int holdUntil = 0) {
+        def client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build()
+        // A cold node spends the first requests on class loading and JIT, which would cap the measured peak
+        send(client, "warm-up", WARM_UP_CHATS)
+        latencyOpenAiService.peakInFlight.set(0)
+        latencyOpenAiService.holdUntil = holdUntil
+        return send(client, "burst", CONCURRENT_CHATS)
+    }
+
+    private List<HttpResponse<String>> send(HttpClient client, String prefix, int count) {
+        // Distinct prompts, so neither the response cache nor request coalescing collapses the burst
+        def futures = (1..count).collect { i ->
+            def request = HttpRequest.newBuilder(URI.create("http://localhost:${port}/api/chat"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString('{"message": "' + prefix + ' ' + i + '", "useCache": false}'))
+                    .build()
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        }
+        CompletableFuture.allOf(futures as CompletableFuture[]).join()
+        return futures*.join()
+    }
+
+    /**
+     * Number of chats observed in flight upstream at once.
+     */
+    int peakInFlight() {
+        latencyOpenAiService.peakInFlight.get()
+    }
+
+    /**
+     * OpenAI stand-in with fixed latency that tracks concurrent in-flight calls.
+     * When {@link #holdUntil} is set, calls are also held until that many are in flight at once
+     * (or {@link #MAX_HOLD_MS} passes), so the measured peak reflects what the node can admit
+     * rather than how quickly a small test machine can push requests through.
+     */
+    static class LatencyOpenAiService extends OpenAiService {
+
+        final AtomicInteger inFlight = new AtomicInteger()
+        final AtomicInteger peakInFlight = new AtomicInteger()
+        volatile int holdUntil = 0
+
+        LatencyOpenAiService() {
+            super((OpenAiApi) null)
+        }
+
+        @Override
+        ChatCompletionResult createChatCompletion(ChatCompletionRequest request) {
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max)
+            try {
+                Thread.sleep(UPSTREAM_LATENCY_MS)
+                long deadline = System.currentTimeMillis() + MAX_HOLD_MS
+                while (peakInFlight.get() < holdUntil && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20)
+                }
+            } finally {
+                inFlight.decrementAndGet()
+            }
+
+            def choice = new ChatCompletionChoice()
+            choice.setMessage(new ChatMessage("assistant", "Hi"))
+            def result = new ChatCompletionResult()
+            result.setChoices([choice])
+            return result
+        }
+    }
+
+    @TestConfiguration
+    static class LatencyOpenAiConfig {
+
+        @Bean
+        @Primary
+        LatencyOpenAiService latencyOpenAiService() {
+            new LatencyOpenAiService()
+        }
+    }
+}
+
+/**
+ * Platform threads: servlet threads are released while chats wait on OpenAI, so in-flight chats
+ * are not capped by the Tomcat thread pool.
+ */
+@TestPropertySource(properties = [
+        "spring.threads.virtual.enabled=false",
+        "server.tomcat.threads.max=" + ChatLoadSpec.TOMCAT_MAX_THREADS
+])
+class PlatformThreadChatLoadSpec extends ChatLoadSpec {
+
+    def "in-flight chats should exceed the Tomcat thread pool size"() {
+        when: "a burst of concurrent chats hits the node"
+        def responses = runBurst(HOLD_UNTIL)
+        int peak = peakInFlight()
+
+        then: "all chats succeed"
+        responses.every { it.statusCode() == 200 }
+
+        and: "well over the Tomcat thread cap are in flight together"
+        peak > TOMCAT_MAX_THREADS * 2
+    }
+}
+
+/**
+ * Virtual thread mode: chats run on virtual threads and are likewise not capped by the Tomcat thread pool.
+ */
+@TestPropertySource(properties = [
+        "spring.threads.virtual.enabled=true",
+        "server.tomcat.threads.max=" + ChatLoadSpec.TOMCAT_MAX_THREADS
+])
+class VirtualThreadChatLoadSpec extends ChatLoadSpec {
+
+    def "in-flight chats should exceed the Tomcat thread pool size"() {
+        when: "a burst of concurrent chats hits the node"
+        def responses = runBurst(HOLD_UNTIL)
+        int peak = peakInFlight()
+
+        then: "all chats succeed"
+        responses.every { it.statusCode() == 200 }
+
+        and: "well over the Tomcat thread cap are in flight together"
+        peak > TOMCAT_MAX_THREADS * 2
+    }
+}
+
+/**
+ * Backpressure: with a small in-flight limit and queue, the overflow is turned away with 429 and Retry-After
+ * instead of queueing without bound.
+ */
+@TestPropertySource(properties = [
+        "chat.async.max-in-flight=20",
+        "chat.async.queue-capacity=20",
+        "chat.async.retry-after=3s"
+])
+class BackpressureChatLoadSpec extends ChatLoadSpec {
+
+    def "chats beyond the in-flight limit and queue should be rejected with Retry-After"() {
+        when: "a burst far larger than the limit and queue hits the node"
+        // Holding calls for more than the limit can ever reach keeps the first chats busy for the whole burst
+        def responses = runBurst(21)
+        def rejected = responses.findAll { it.statusCode() == 429 }
+
+        then: "upstream concurrency never exceeds the limit"
+        peakInFlight() <= 20
+
+        and: "at least the limit plus the queue were served and the rest rejected"
+        responses.every { it.statusCode() in [200, 429] }
+        responses.count { it.statusCode() == 200 } >= 40
+        !rejected.isEmpty()
+
+        and: "rejections tell the client when to retry"
+        rejected.every { it.headers().firstValue("Retry-After").orElse(null) == "3" }
+    }
+}
@@ -0,0 +1,92 @@
+package com.openai.chatbot.controller
+
+import com.openai.chatbot.dto.ConversationPageDto
+import com.openai.chatbot.dto.MessagePageDto
+import com.openai.chatbot.service.ConversationExportService
+import com.openai.chatbot.service.ConversationService
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.zip.GZIPInputStream
+
+/**
+ * Unit tests for ConversationController using Spock framework.
+ */
+class ConversationControllerSpec extends Specification {
+
+    static final UUID DEFAULT_USER = UUID.fromString("00000000-0000-0000-0000-000000000000")
+
+    ConversationService conversationService = Mock()
+    ConversationExportService conversationExportService = Mock()
+
+    @Subject
+    ConversationController conversationController = new ConversationController(conversationService, conversationExportService)
+
+    def "listConversations should pass the cursor and cap the page size"() {
+        given: "a page returned by the service"
+        def page = new ConversationPageDto([], "next")
+
+        when: "a page larger than the maximum is requested"
+        def response = conversationController.listConversations(null, "cursor", 1000)
+
+        then: "the service receives the default user, the cursor and the capped size"
+        1 * conversationService.listConversationsByUser(DEFAULT_USER, "cursor", 100) >> page
+
+        and: "the page is returned"
+        response.statusCode == HttpStatus.OK
+        response.body.nextCursor == "next"
+    }
+
+    def "getMessages should pass the anchors and cap the page size"() {
+        given: "a conversation ID"
+        def id = UUID.randomUUID()
+
+        when: "messages are requested"
+        def response = conversationController.getMessages(id, 42L, null, 0)
+
+        then: "the service receives the anchors and a page size of at least one"
+        1 * conversationService.getMessages(id, 42L, null, 1) >> new MessagePageDto([], false)
+        response.statusCode == HttpStatus.OK
+    }
+
+    def "exportConversations should stream NDJSON as is when gzip is not accepted"() {
+        when: "the export is requested without Accept-Encoding"
+        def response = conversationController.exportConversations(null, null)
+        def out = new ByteArrayOutputStream()
+        response.body.writeTo(out)
+
+        then: "the service writes the user's history straight to the response"
+        1 * conversationExportService.exportUserHistory(DEFAULT_USER, _) >> { UUID user, OutputStream stream ->
+            stream.write('{"type":"conversation"}\n'.bytes)
+            1L
+        }
+        out.toString("UTF-8") == '{"type":"conversation"}\n'
+
+        and: "the response is an uncompressed NDJSON attachment"
+        response.headers.getContentType().toString() == "application/x-ndjson"
+        response.headers.getFirst(HttpHeaders.CONTENT_DISPOSITION).startsWith("attachment")
+        !response.headers.containsKey(HttpHeaders.CONTENT_ENCODING)
+    }
+
+    def "exportConversations should gzip the stream when the client accepts it"() {
+        given: "a user ID"
+        def user = UUID.randomUUID()
+
+        when: "the export is requested with gzip accepted"
+        def response = conversationController.exportConversations(user, "gzip, deflate")
+        def out = new ByteArrayOutputStream()
+        response.body.writeTo(out)
+
+        then: "the service output is compressed"
+        1 * conversationExportService.exportUserHistory(user, _) >> { UUID u, OutputStream stream ->
+            stream.write('{"type":"message"}\n'.bytes)
+            1L
+        }
+        new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).text == '{"type":"message"}\n'
+
+        and: "the response declares the gzip encoding"
+        response.headers.getFirst(HttpHeaders.CONTENT_ENCODING) == "gzip"
+    }
+}
@@ -1,6 +1,7 @@
 package com.openai.chatbot.exception
 
 import org.springframework.core.MethodParameter
+import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpStatus
 import org.springframework.validation.BeanPropertyBindingResult
 import org.springframework.validation.FieldError
@@ -8,6 +9,7 @@ import org.springframework.web.bind.MethodArgumentNotValidException
 import spock.lang.Specification
 import spock.lang.Subject
 
+import java.time.Duration
 import java.time.LocalDateTime
 
 /**
@@ -142,6 +144,50 @@ class GlobalExceptionHandlerSpec extends Specification {
         response.body.message == "Failed to process chat request. Please try again later."
     }
 
+    def "handleChatOverloadedException should return TOO_MANY_REQUESTS with Retry-After"() {
+        given: "a ChatOverloadedException"
+        def exception = new ChatOverloadedException(Duration.ofSeconds(3))
+
+        when: "exception handler processes the exception"
+        def response = exceptionHandler.handleChatOverloadedException(exception)
+
+        then: "response has TOO_MANY_REQUESTS status and tells the client when to retry"
+        response.statusCode == HttpStatus.TOO_MANY_REQUESTS
+        response.headers.getFirst(HttpHeaders.RETRY_AFTER) == "3"
+        response.body.status == 429
+        response.body.error == "Too Many Requests"
+        response.body.timestamp instanceof LocalDateTime
+    }
+
+    def "handleUpstreamUnavailableException should return SERVICE_UNAVAILABLE with Retry-After"() {
+        given: "an UpstreamUnavailableException"
+        def exception = new UpstreamUnavailableException(Duration.ofMillis(12_500))
+
+        when: "exception handler processes the exception"
+        def response = exceptionHandler.handleUpstreamUnavailableException(exception)
+
+        then: "response has SERVICE_UNAVAILABLE status and tells the client when to retry"
+        response.statusCode == HttpStatus.SERVICE_UNAVAILABLE
+        response.headers.getFirst(HttpHeaders.RETRY_AFTER) == "12"
+        response.body.status == 503
+        response.body.error == "Service Unavailable"
+    }
+
+    def "handleInvalidCursorException should return BAD_REQUEST"() {
+        given: "an InvalidCursorException"
+        def exception = new InvalidCursorException("not-a-cursor", new IllegalArgumentException("bad base64"))
+
+        when: "exception handler processes the exception"
+        def response = exceptionHandler.handleInvalidCursorException(exception)
+
+        then: "response has BAD_REQUEST status"
+        response.statusCode == HttpStatus.BAD_REQUEST
+        response.body.status == 400
+        response.body.error == "Bad Request"
+        response.body.message == "Invalid cursor: not-a-cursor"
+        response.body.timestamp instanceof LocalDateTime
+    }
+
     def "handleGenericException should return INTERNAL_SERVER_ERROR for unexpected exceptions"() {
         given: "an unexpected exception"
         def exception = new RuntimeException("Unexpected error occurred")
@@ -0,0 +1,334 @@
+package com.openai.chatbot.service
+
+import com.theokanning.openai.OpenAiError
+import com.theokanning.openai.OpenAiHttpException
+import com.theokanning.openai.Usage
+import com.theokanning.openai.client.OpenAiApi
+import com.theokanning.openai.completion.chat.ChatCompletionChoice
+import com.theokanning.openai.completion.chat.ChatCompletionRequest
+import com.theokanning.openai.completion.chat.ChatCompletionResult
+import com.theokanning.openai.completion.chat.ChatMessage
+import com.theokanning.openai.embedding.Embedding
+import com.theokanning.openai.embedding.EmbeddingRequest
+import com.theokanning.openai.embedding.EmbeddingResult
+import com.theokanning.openai.service.OpenAiService
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import okhttp3.Headers
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Unit tests for ChatCompletionCache using Spock framework.
+ */
+class ChatCompletionCacheSpec extends Specification {
+
+    OpenAiService openAiService = Mock()
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    UpstreamScheduler upstreamScheduler
+    UpstreamResilience upstreamResilience
+    ModelRouter.Route route
+    ChatMetrics chatMetrics = new ChatMetrics(meterRegistry)
+
+    @Subject
+    ChatCompletionCache cache
+
+    def setup() {
+        upstreamScheduler = new UpstreamScheduler(meterRegistry)
+        upstreamScheduler.enabled = false
+        upstreamResilience = new UpstreamResilience(meterRegistry)
+        upstreamResilience.enabled = false
+        chatMetrics.init()
+        route = routeTo(openAiService)
+        cache = new ChatCompletionCache(openAiService, upstreamScheduler, upstreamResilience, chatMetrics,
+                meterRegistry)
+        cache.enabled = true
+        cache.maxEntries = 100
+        cache.ttl = Duration.ofHours(1)
+        cache.semanticEnabled = false
+        cache.embeddingModel = "text-embedding-ada-002"
+        cache.baseUrl = "http://openai.test/"
+        cache.similarityThreshold = 0.95
+        cache.semanticMaxEntries = 100
+        cache.singleFlightEnabled = true
+        cache.init()
+    }
+
+    def "createChatCompletion should serve a repeated prompt from cache regardless of case and whitespace"() {
+        when: "the same question is asked twice with different spacing and case"
+        def first = cache.createChatCompletion(request("gpt-4", "What is Java?"), true, route, false)
+        def second = cache.createChatCompletion(request("gpt-4", "  what is   JAVA? "), true, route, false)
+
+        then: "OpenAI is called only once"
+        1 * openAiService.createChatCompletion(_) >> result("A language")
+
+        and: "both calls get the same reply"
+        second.is(first)
+
+        and: "the hit and the miss are recorded"
+        meterRegistry.get("cache.gets").tag("cache", "chat.responses").tag("result", "hit").functionCounter().count() == 1
+        meterRegistry.get("cache.gets").tag("cache", "chat.responses").tag("result", "miss").functionCounter().count() == 1
+    }
+
+    def "token usage should be counted for upstream calls but not for cache hits"() {
+        given:
+        def reply = result("A language")
+        reply.usage = new Usage(promptTokens: 12, completionTokens: 30, totalTokens: 42)
+
+        when: "the same question is asked twice"
+        cache.createChatCompletion(request("gpt-4", "What is Java?"), true, route, false)
+        cache.createChatCompletion(request("gpt-4", "What is Java?"), true, route, false)
+
+        then: "only the upstream call is billed"
+        1 * openAiService.createChatCompletion(_) >> reply
+        meterRegistry.get("chat.tokens").tag("model", "gpt-4").tag("type", "prompt").counter().count() == 12
+        meterRegistry.get("chat.tokens").tag("model", "gpt-4").tag("type", "completion").counter().count() == 30
+    }
+
+    def "createChatCompletion should key the cache on the model and the whole prompt"() {
+        when: "the same question is sent to another model and with earlier history"
+        cache.createChatCompletion(request("gpt-4", "What is Java?"), true, route, false)
+        cache.createChatCompletion(request("gpt-3.5-turbo", "What is Java?"), true, route, false)
+        cache.createChatCompletion(new ChatCompletionRequest(model: "gpt-4", messages: [
+                new ChatMessage("user", "I mean the island"), new ChatMessage("user", "What is Java?")]), true, route, false)
+
+        then: "each one goes to OpenAI"
+        3 * openAiService.createChatCompletion(_) >> result("Answer")
+    }
+
+    def "createChatCompletion should bypass the cache when the request opts out"() {
+        given: "a cached reply"
+        openAiService.createChatCompletion(_) >> result("Cached")
+        cache.createChatCompletion(request("gpt-4", "Tell me a joke"), true, route, false)
+
+        when: "the same prompt is sent with the cache switched off"
+        def reply = cache.createChatCompletion(request("gpt-4", "Tell me a joke"), false, route, false)
+
+        then: "OpenAI is asked again"
+        1 * openAiService.createChatCompletion(_) >> result("Fresh")
+        reply.choices[0].message.content == "Fresh"
+    }
+
+    def "createChatCompletion should not cache replies without content"() {
+        when: "OpenAI first returns no choices and then a reply"
+        cache.createChatCompletion(request("gpt-4", "Hello"), true, route, false)
+        def reply = cache.createChatCompletion(request("gpt-4", "Hello"), true, route, false)
+
+        then: "the empty result is not served from cache"
+        2 * openAiService.createChatCompletion(_) >>> [new ChatCompletionResult(choices: []), result("Hi")]
+        reply.choices[0].message.content == "Hi"
+    }
+
+    def "createChatCompletion should pass everything through when the cache and coalescing are disabled"() {
+        given: "the cache and coalescing disabled by configuration"
+        cache.enabled = false
+        cache.singleFlightEnabled = false
+
+        when: "the same prompt is sent twice"
+        cache.createChatCompletion(request("gpt-4", "Hello"), true, route, false)
+        cache.createChatCompletion(request("gpt-4", "Hello"), true, route, false)
+
+        then: "both go to OpenAI"
+        2 * openAiService.createChatCompletion(_) >> result("Hi")
+    }
+
+    def "createChatCompletion should serve near-duplicate first questions by embedding similarity"() {
+        given: "semantic lookup enabled with embeddings for three questions"
+        cache.semanticEnabled = true
+        def vectors = [
+                "how do i reset my password?"     : [1.0d, 0.0d, 0.0d],
+                "how can i reset my password?"    : [0.99d, 0.1d, 0.0d],
+                "what are your opening hours?"    : [0.0d, 1.0d, 0.0d]
+        ]
+        openAiService.createEmbeddings(_) >> { EmbeddingRequest embeddingRequest ->
+            new EmbeddingResult(data: [new Embedding(embedding: vectors[embeddingRequest.input[0]])])
+        }
+
+        when: "a question, a rephrasing of it and an unrelated question are asked"
+        def original = cache.createChatCompletion(request("gpt-4", "How do I reset my password?"), true, route, false)
+        def rephrased = cache.createChatCompletion(request("gpt-4", "How can I reset my password?"), true, route, false)
+        def unrelated = cache.createChatCompletion(request("gpt-4", "What are your opening hours?"), true, route, false)
+
+        then: "only the original and the unrelated question go to OpenAI"
+        2 * openAiService.createChatCompletion(_) >>> [result("Use the reset link"), result("9 to 5")]
+
+        and: "the rephrasing gets the cached reply"
+        rephrased.is(original)
+        unrelated.choices[0].message.content == "9 to 5"
+        meterRegistry.get("chat.cache.semantic.hits").counter().count() == 1
+    }
+
+    def "createChatCompletion should still answer when the embedding call fails"() {
+        given: "semantic lookup enabled but the embeddings API failing"
+        cache.semanticEnabled = true
+        openAiService.createEmbeddings(_) >> { throw new RuntimeException("embeddings down") }
+
+        when: "a question is asked"
+        def reply = cache.createChatCompletion(request("gpt-4", "Hello"), true, route, false)
+
+        then: "the completion is still returned"
+        1 * openAiService.createChatCompletion(_) >> result("Hi")
+        reply.choices[0].message.content == "Hi"
+    }
+
+    def "createChatCompletion should skip the embedding call while upstream dispatch is paused"() {
+        given: "semantic lookup enabled and the embedding model's scheduler lane paused by a Retry-After"
+        cache.semanticEnabled = true
+        upstreamScheduler.enabled = true
+        upstreamScheduler.initialLimit = 8
+        upstreamScheduler.minLimit = 1
+        upstreamScheduler.maxLimit = 64
+        upstreamScheduler.queueTimeout = Duration.ofSeconds(5)
+        upstreamScheduler.onResponseHeaders(UpstreamScheduler.lane("text-embedding-ada-002", "http://openai.test/"),
+                Headers.of("retry-after-ms", "5000"))
+
+        when: "a question is asked"
+        def reply = cache.createChatCompletion(request("gpt-4", "Hello"), true, route, false)
+
+        then: "no embedding is requested, and the completion still goes out on its own lane"
+        0 * openAiService.createEmbeddings(_)
+        1 * openAiService.createChatCompletion(_) >> result("Hi")
+        reply.choices[0].message.content == "Hi"
+    }
+
+    def "createChatCompletion should coalesce identical concurrent requests even when bypassing the cache"() {
+        given: "an upstream slow enough for all callers to arrive while it is in flight"
+        def upstream = new SlowOpenAiService()
+        cache = new ChatCompletionCache(upstream, upstreamScheduler, upstreamResilience, chatMetrics, meterRegistry)
+        route = routeTo(upstream)
+        cache.enabled = true
+        cache.maxEntries = 100
+        cache.ttl = Duration.ofHours(1)
+        cache.singleFlightEnabled = true
+        cache.init()
+        def start = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(6)
+
+        when: "six callers send the same prompt at once without using the cache"
+        def futures = (1..6).collect {
+            executor.submit({
+                start.await()
+                cache.createChatCompletion(request("gpt-4", "Breaking news?"), false, route, false)
+            } as Callable)
+        }
+        start.countDown()
+        def results = futures*.get(5, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        then: "one upstream call serves all of them"
+        upstream.calls.get() == 1
+        results.every { it.choices[0].message.content == "Slow reply" }
+        meterRegistry.get("chat.upstream.coalesced").counter().count() == 5
+    }
+
+    def "upstream latency should be reported to the route for every call, failed ones included, but not for cache hits"() {
+        when: "a prompt is answered, then served from cache"
+        cache.createChatCompletion(request("gpt-4", "Hello"), true, route, false)
+        cache.createChatCompletion(request("gpt-4", "Hello"), true, route, false)
+
+        then: "only the upstream call is timed"
+        1 * openAiService.createChatCompletion(_) >> { Thread.sleep(20); result("Hi") }
+        route.averageNanos >= TimeUnit.MILLISECONDS.toNanos(20)
+
+        when: "an upstream call fails after a slow wait"
+        cache.createChatCompletion(request("gpt-4", "Fail"), true, route, false)
+
+        then: "its duration is reported too"
+        thrown(RuntimeException)
+        1 * openAiService.createChatCompletion(_) >> { Thread.sleep(200); throw new RuntimeException("timeout") }
+        route.averageNanos >= TimeUnit.MILLISECONDS.toNanos(50)
+    }
+
+    def "a throttled call with a fallback should be handed back instead of re-queued"() {
+        given: "the scheduler enabled with a long queue timeout"
+        upstreamScheduler.enabled = true
+        upstreamScheduler.initialLimit = 8
+        upstreamScheduler.minLimit = 1
+        upstreamScheduler.maxLimit = 64
+        upstreamScheduler.backoffRatio = 0.5
+        upstreamScheduler.queueTimeout = Duration.ofSeconds(30)
+        upstreamScheduler.fallbackWait = Duration.ofSeconds(1)
+        upstreamScheduler.throttlePause = Duration.ofSeconds(1)
+
+        when: "the route answers 429 and the router has another candidate"
+        cache.createChatCompletion(request("gpt-4", "Hello"), false, route, true)
+
+        then: "the 429 reaches the caller after a single attempt"
+        def ex = thrown(OpenAiHttpException)
+        ex.statusCode == 429
+        1 * openAiService.createChatCompletion(_) >> {
+            throw new OpenAiHttpException(new OpenAiError(new OpenAiError.OpenAiErrorDetails(
+                    "Slow down", "requests", null, "rate_limit_exceeded")), null, 429)
+        }
+    }
+
+    def "createChatCompletion should not coalesce prompts that differ only in case, whitespace or sampling"() {
+        given: "an upstream slow enough for all callers to arrive while it is in flight"
+        def upstream = new SlowOpenAiService()
+        cache = new ChatCompletionCache(upstream, upstreamScheduler, upstreamResilience, chatMetrics, meterRegistry)
+        route = routeTo(upstream)
+        cache.enabled = false
+        cache.maxEntries = 100
+        cache.ttl = Duration.ofHours(1)
+        cache.singleFlightEnabled = true
+        cache.init()
+        def requests = [request("gpt-4", "Fix my SQL"), request("gpt-4", "fix   my sql"),
+                        new ChatCompletionRequest(model: "gpt-4", temperature: 1.5,
+                                messages: [new ChatMessage("user", "Fix my SQL")])]
+        def start = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(3)
+
+        when: "the three requests are sent at once"
+        def futures = requests.collect { chatRequest ->
+            executor.submit({
+                start.await()
+                cache.createChatCompletion(chatRequest, false, route, false)
+            } as Callable)
+        }
+        start.countDown()
+        futures*.get(5, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        then: "each gets its own upstream call"
+        upstream.calls.get() == 3
+        meterRegistry.get("chat.upstream.coalesced").counter().count() == 0
+    }
+
+    /**
+     * OpenAI stand-in that answers slowly. A plain subclass is used because stub invocations are serialized.
+     */
+    static class SlowOpenAiService extends OpenAiService {
+
+        final AtomicInteger calls = new AtomicInteger()
+
+        SlowOpenAiService() {
+            super((OpenAiApi) null)
+        }
+
+        @Override
+        ChatCompletionResult createChatCompletion(ChatCompletionRequest request) {
+            calls.incrementAndGet()
+            Thread.sleep(300)
+            result("Slow reply")
+        }
+    }
+
+    private ModelRouter.Route routeTo(OpenAiService client) {
+        new ModelRouter.Route("gpt-4", UpstreamScheduler.lane("gpt-4", "http://openai.test/"), client, 0, 0, null,
+                meterRegistry)
+    }
+
+    private static ChatCompletionRequest request(String model, String message) {
+        new ChatCompletionRequest(model: model, messages: [new ChatMessage("user", message)])
+    }
+
+    private static ChatCompletionResult result(String content) {
+        new ChatCompletionResult(choices: [new ChatCompletionChoice(message: new ChatMessage("assistant", content))])
+    }
+}
@@ -0,0 +1,79 @@
+package com.openai.chatbot.service
+
+import com.openai.chatbot.exception.ChatOverloadedException
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit tests for ChatRequestExecutor.
+ */
+class ChatRequestExecutorSpec extends Specification {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    ChatRequestExecutor executor = new ChatRequestExecutor(meterRegistry)
+
+    def setup() {
+        executor.maxInFlight = 2
+        executor.queueCapacity = 1
+        executor.retryAfter = Duration.ofSeconds(5)
+        executor.init()
+    }
+
+    def cleanup() {
+        executor.shutdown()
+    }
+
+    def "submit should run the task and complete the future with its result"() {
+        expect:
+        executor.submit { "done" }.get(5, TimeUnit.SECONDS) == "done"
+    }
+
+    def "submit should queue beyond the in-flight limit and reject once the queue is full"() {
+        given: "two running tasks blocked on a latch"
+        def release = new CountDownLatch(1)
+        def started = new CountDownLatch(2)
+        def running = (1..2).collect {
+            executor.submit { started.countDown(); release.await(); "ran" }
+        }
+        started.await(5, TimeUnit.SECONDS)
+
+        when: "a third task is queued and a fourth submitted"
+        def queued = executor.submit { "queued" }
+        def rejected = executor.submit { "rejected" }
+
+        then: "the in-flight and queue gauges reflect the backlog"
+        meterRegistry.get("chat.async.in-flight").gauge().value() == 2
+        meterRegistry.get("chat.async.queued").gauge().value() == 1
+
+        and: "the fourth is rejected straight away with the Retry-After hint"
+        rejected.isCompletedExceptionally()
+        when:
+        rejected.join()
+        then:
+        def ex = thrown(CompletionException)
+        ex.cause instanceof ChatOverloadedException
+        (ex.cause as ChatOverloadedException).retryAfter == Duration.ofSeconds(5)
+        meterRegistry.get("chat.async.rejected").counter().count() == 1
+
+        when: "the running tasks finish"
+        release.countDown()
+
+        then: "the queued task runs as well"
+        running*.get(5, TimeUnit.SECONDS) == ["ran", "ran"]
+        queued.get(5, TimeUnit.SECONDS) == "queued"
+    }
+
+    def "submit should fail the future when the task throws"() {
+        when:
+        executor.submit { throw new IllegalStateException("boom") }.join()
+
+        then:
+        def ex = thrown(CompletionException)
+        ex.cause instanceof IllegalStateException
+    }
+}
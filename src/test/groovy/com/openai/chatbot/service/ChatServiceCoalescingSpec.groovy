@@ -0,0 +1,105 @@
+package com.openai.chatbot.service
+
+import com.theokanning.openai.client.OpenAiApi
+import com.theokanning.openai.completion.chat.ChatCompletionChoice
+import com.theokanning.openai.completion.chat.ChatCompletionRequest
+import com.theokanning.openai.completion.chat.ChatCompletionResult
+import com.theokanning.openai.completion.chat.ChatMessage
+import com.theokanning.openai.service.OpenAiService
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.context.TestConfiguration
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Primary
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Integration tests verifying that identical concurrent chats share one OpenAI call
+ * while each caller still gets its own persisted conversation.
+ */
+@SpringBootTest
+@ContextConfiguration
+@ActiveProfiles("test")
+class ChatServiceCoalescingSpec extends Specification {
+
+    static final int CONCURRENT_CHATS = 8
+
+    @Autowired
+    ChatService chatService
+
+    @Autowired
+    ConversationService conversationService
+
+    @Autowired
+    CountingOpenAiService countingOpenAiService
+
+    def "identical concurrent chats should share one upstream call and each persist its own pair"() {
+        given: "callers released together with the same popular question, bypassing the response cache"
+        def start = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(CONCURRENT_CHATS)
+        def calls = (1..CONCURRENT_CHATS).collect {
+            { -> start.await(); chatService.chat("What's new today?", null, false) } as Callable
+        }
+
+        when: "all chats run concurrently"
+        def futures = calls.collect { executor.submit(it as Callable) }
+        start.countDown()
+        def responses = futures*.get(10, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        then: "OpenAI is called once"
+        countingOpenAiService.calls.get() == 1
+
+        and: "every caller gets the answer in its own conversation"
+        responses.every { it.response == "Fresh news" }
+        responses*.conversationId.toSet().size() == CONCURRENT_CHATS
+
+        and: "each conversation holds its own message pair"
+        responses.every { response ->
+            conversationService.getConversationById(response.conversationId).messages*.content == ["What's new today?", "Fresh news"]
+        }
+    }
+
+    /**
+     * OpenAI stand-in that counts calls and answers slowly enough for all callers to arrive.
+     * A plain subclass is used instead of a Spock stub because stub invocations are serialized.
+     */
+    static class CountingOpenAiService extends OpenAiService {
+
+        final AtomicInteger calls = new AtomicInteger()
+
+        CountingOpenAiService() {
+            super((OpenAiApi) null)
+        }
+
+        @Override
+        ChatCompletionResult createChatCompletion(ChatCompletionRequest request) {
+            calls.incrementAndGet()
+            Thread.sleep(500)
+
+            def choice = new ChatCompletionChoice()
+            choice.setMessage(new ChatMessage("assistant", "Fresh news"))
+            def result = new ChatCompletionResult()
+            result.setChoices([choice])
+            return result
+        }
+    }
+
+    @TestConfiguration
+    static class CountingOpenAiConfig {
+
+        @Bean
+        @Primary
+        CountingOpenAiService countingOpenAiService() {
+            new CountingOpenAiService()
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.openai.chatbot.service
+
+import com.openai.chatbot.exception.ChatServiceException
+import com.openai.chatbot.repository.ConversationRepository
+import com.theokanning.openai.client.OpenAiApi
+import com.theokanning.openai.completion.chat.ChatCompletionChoice
+import com.theokanning.openai.completion.chat.ChatCompletionRequest
+import com.theokanning.openai.completion.chat.ChatCompletionResult
+import com.theokanning.openai.completion.chat.ChatMessage
+import com.theokanning.openai.service.OpenAiService
+import com.zaxxer.hikari.HikariDataSource
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.context.TestConfiguration
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Primary
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import spock.lang.Specification
+
+import javax.sql.DataSource
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Integration tests verifying that ChatService does not pin a JDBC connection
+ * while waiting on the OpenAI API, and writes nothing when the call fails.
+ */
+@SpringBootTest
+@ContextConfiguration
+@ActiveProfiles("test")
+class ChatServiceConnectionUsageSpec extends Specification {
+
+    static final int CONCURRENT_CHATS = 8
+
+    @Autowired
+    ChatService chatService
+
+    @Autowired
+    SlowOpenAiService slowOpenAiService
+
+    @Autowired
+    ConversationRepository conversationRepository
+
+    def "concurrent slow chats should not hold a connection while waiting on OpenAI"() {
+        given: "a pool of callers issuing chats at the same time"
+        def executor = Executors.newFixedThreadPool(CONCURRENT_CHATS)
+        def calls = (1..CONCURRENT_CHATS).collect { i ->
+            { -> chatService.chat("Question " + i, null) } as Callable
+        }
+
+        when: "all chats run concurrently"
+        def responses = executor.invokeAll(calls).collect { it.get() }
+        executor.shutdown()
+        executor.awaitTermination(5, TimeUnit.SECONDS)
+
+        then: "every chat succeeds"
+        responses.size() == CONCURRENT_CHATS
+        responses.every { it.response == "Slow answer" && it.conversationId != null }
+
+        and: "all chats were waiting on the upstream call at the same time"
+        slowOpenAiService.allInFlightObserved
+
+        and: "no connection is pinned while the chats wait on the upstream call"
+        slowOpenAiService.peakActiveConnections.get() <= 1
+    }
+
+    def "a chat failing upstream should not leave an empty conversation behind"() {
+        given:
+        def conversationsBefore = conversationRepository.count()
+
+        when: "a new conversation's first chat fails upstream"
+        chatService.chat(SlowOpenAiService.FAILING_MESSAGE, null)
+
+        then:
+        thrown(ChatServiceException)
+        conversationRepository.count() == conversationsBefore
+    }
+
+    /**
+     * OpenAI stand-in that blocks until every concurrent chat is in flight, then samples the pool
+     * before letting any of them return.
+     * A plain subclass is used instead of a Spock stub because stub invocations are serialized.
+     */
+    static class SlowOpenAiService extends OpenAiService {
+
+        static final String FAILING_MESSAGE = "Fail upstream"
+
+        final CountDownLatch inFlight = new CountDownLatch(CONCURRENT_CHATS)
+        final CountDownLatch sampled = new CountDownLatch(CONCURRENT_CHATS)
+        final AtomicInteger peakActiveConnections = new AtomicInteger()
+        final DataSource dataSource
+        volatile boolean allInFlightObserved
+
+        SlowOpenAiService(DataSource dataSource) {
+            super((OpenAiApi) null)
+            this.dataSource = dataSource
+        }
+
+        @Override
+        ChatCompletionResult createChatCompletion(ChatCompletionRequest request) {
+            if (request.messages.last().content == FAILING_MESSAGE) {
+                throw new IllegalStateException("Upstream failure")
+            }
+            def pool = dataSource.unwrap(HikariDataSource).hikariPoolMXBean
+            inFlight.countDown()
+            if (inFlight.await(10, TimeUnit.SECONDS)) {
+                allInFlightObserved = true
+            }
+            long deadline = System.currentTimeMillis() + 300
+            while (System.currentTimeMillis() < deadline) {
+                peakActiveConnections.accumulateAndGet(pool.activeConnections, Math::max)
+                Thread.sleep(5)
+            }
+            // Hold every call until all have sampled, so no chat is already saving its reply meanwhile
+            sampled.countDown()
+            sampled.await(10, TimeUnit.SECONDS)
+
+            def choice = new ChatCompletionChoice()
+            choice.setMessage(new ChatMessage("assistant", "Slow answer"))
+            def result = new ChatCompletionResult()
+            result.setChoices([choice])
+            return result
+        }
+    }
+
+    @TestConfiguration
+    static class SlowOpenAiConfig {
+
+        @Bean
+        @Primary
+        SlowOpenAiService slowOpenAiService(DataSource dataSource) {
+            new SlowOpenAiService(dataSource)
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package com.openai.chatbot.service
 
+import com.openai.chatbot.config.ModelRoutingProperties
 import com.openai.chatbot.exception.ChatServiceException
+import com.openai.chatbot.exception.UpstreamUnavailableException
+import com.theokanning.openai.OpenAiError
+import com.theokanning.openai.OpenAiHttpException
+import com.theokanning.openai.completion.chat.ChatCompletionChunk
 import com.theokanning.openai.completion.chat.ChatCompletionRequest
 import com.theokanning.openai.completion.chat.ChatCompletionResult
 import com.theokanning.openai.completion.chat.ChatMessage
 import com.theokanning.openai.completion.chat.ChatCompletionChoice
+import com.openai.chatbot.support.OpenAiStubServer
 import com.theokanning.openai.service.OpenAiService
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.reactivex.Flowable
+import okhttp3.OkHttpClient
 import spock.lang.Specification
 import spock.lang.Subject
 
+import java.time.Duration
+import java.util.concurrent.CompletionException
+import java.util.concurrent.TimeUnit
+
 /**
  * Unit tests for ChatService using Spock framework.
  */
@@ -16,24 +29,45 @@ class ChatServiceSpec extends Specification {
 
     OpenAiService openAiService = Mock()
     ConversationService conversationService = Mock()
+    ContextAssemblyService contextAssemblyService = Mock()
+    ConversationSummaryService conversationSummaryService = Mock()
+    UpstreamScheduler upstreamScheduler
+    UpstreamResilience upstreamResilience
+    ChatCompletionCache chatCompletionCache
+    ChatRequestExecutor chatRequestExecutor
+    SimpleMeterRegistry metricsRegistry = new SimpleMeterRegistry()
+    ChatMetrics chatMetrics = new ChatMetrics(metricsRegistry)
+
+    static final String LANE = UpstreamScheduler.lane("gpt-3.5-turbo", "http://openai.test/")
 
     @Subject
     ChatService chatService
 
     def setup() {
-        chatService = new ChatService(openAiService, conversationService)
-        chatService.modelName = "gpt-3.5-turbo"
+        // The response cache is disabled here, so every completion goes to the mocked OpenAI service
+        upstreamScheduler = new UpstreamScheduler(new SimpleMeterRegistry())
+        upstreamScheduler.enabled = false
+        upstreamResilience = new UpstreamResilience(new SimpleMeterRegistry())
+        upstreamResilience.enabled = false
+        chatMetrics.init()
+        chatCompletionCache = new ChatCompletionCache(openAiService, upstreamScheduler, upstreamResilience, chatMetrics,
+                new SimpleMeterRegistry())
+        chatCompletionCache.enabled = false
+        chatRequestExecutor = new ChatRequestExecutor(new SimpleMeterRegistry())
+        chatRequestExecutor.maxInFlight = 4
+        chatRequestExecutor.queueCapacity = 4
+        chatRequestExecutor.retryAfter = Duration.ofSeconds(1)
+        chatRequestExecutor.init()
+        chatService = chatServiceWith(new ModelRoutingProperties())
+
+        // By default there is no earlier history, so the prompt is just the new message
+        contextAssemblyService.assemble(_, _, _) >> { UUID id, String message, String model -> [new ChatMessage("user", message)] }
     }
 
     def "chat should return ChatResponse when OpenAI returns valid response"() {
         given: "a user message"
         def userMessage = "Hello, how are you?"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-
         and: "OpenAI service returns a valid response"
         def chatMessage = new ChatMessage("assistant", "I'm doing well, thank you!")
         def choice = new ChatCompletionChoice()
@@ -41,35 +75,80 @@ class ChatServiceSpec extends Specification {
 
         def result = new ChatCompletionResult()
         result.setChoices([choice])
+        UUID createdId = null
 
         when: "chat method is called"
         def response = chatService.chat(userMessage)
 
-        then: "conversation is created"
-        1 * conversationService.createConversation(_) >> conversation
-
-        and: "OpenAI service is called with correct parameters"
+        then: "OpenAI service is called with correct parameters"
         1 * openAiService.createChatCompletion(_ as ChatCompletionRequest) >> result
 
-        and: "messages are saved to conversation"
-        1 * conversationService.saveMessagePair(conversationId, userMessage, "I'm doing well, thank you!")
+        and: "the conversation is created together with its first messages"
+        1 * conversationService.startConversation(_ as UUID, _, userMessage, "I'm doing well, thank you!") >> { args ->
+            createdId = args[0]
+        }
+        0 * conversationService.createConversation(_)
 
         and: "response contains expected data"
         response.response == "I'm doing well, thank you!"
         response.model == "gpt-3.5-turbo"
+        response.conversationId == createdId
+    }
+
+    def "chatAsync should complete with the ChatResponse off the calling thread"() {
+        given: "an existing conversation and a valid OpenAI response"
+        def conversationId = UUID.randomUUID()
+        def choice = new ChatCompletionChoice()
+        choice.setMessage(new ChatMessage("assistant", "Async hello"))
+        def result = new ChatCompletionResult()
+        result.setChoices([choice])
+        String callingThread = null
+        openAiService.createChatCompletion(_ as ChatCompletionRequest) >> {
+            callingThread = Thread.currentThread().name
+            result
+        }
+
+        when: "chatAsync is called and awaited"
+        def response = chatService.chatAsync("Hello", conversationId, true).get(5, TimeUnit.SECONDS)
+
+        then: "OpenAI was called on a chat executor thread"
+        callingThread.startsWith("chat-")
+
+        and: "the reply was persisted and returned"
+        1 * conversationService.saveMessagePair(conversationId, "Hello", "Async hello")
+        response.response == "Async hello"
         response.conversationId == conversationId
     }
 
+    def "chatAsync should fail the future with ChatServiceException when OpenAI fails"() {
+        given: "OpenAI fails"
+        openAiService.createChatCompletion(_ as ChatCompletionRequest) >> { throw new RuntimeException("API down") }
+
+        when: "chatAsync is called and awaited"
+        chatService.chatAsync("Hello", UUID.randomUUID(), true).join()
+
+        then: "the future carries the ChatServiceException"
+        def ex = thrown(CompletionException)
+        ex.cause instanceof ChatServiceException
+    }
+
+    def "chat should not wrap backpressure exceptions"() {
+        given: "OpenAI calls are being failed fast"
+        openAiService.createChatCompletion(_ as ChatCompletionRequest) >> {
+            throw new UpstreamUnavailableException(Duration.ofSeconds(10))
+        }
+
+        when: "chat method is called"
+        chatService.chat("Hello", UUID.randomUUID(), true)
+
+        then: "the exception reaches the handler as is, to be answered with 503"
+        thrown(UpstreamUnavailableException)
+    }
+
     def "chat should throw ChatServiceException when OpenAI returns null result"() {
         given: "a user message"
         def userMessage = "Hello"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-        conversationService.createConversation(_) >> conversation
-
         and: "OpenAI service returns null"
         openAiService.createChatCompletion(_ as ChatCompletionRequest) >> null
 
@@ -85,12 +164,6 @@ class ChatServiceSpec extends Specification {
         given: "a user message"
         def userMessage = "Hello"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-        conversationService.createConversation(_) >> conversation
-
         and: "OpenAI service returns result with empty choices"
         def result = new ChatCompletionResult()
         result.setChoices([])
@@ -108,12 +181,6 @@ class ChatServiceSpec extends Specification {
         given: "a user message"
         def userMessage = "Hello"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-        conversationService.createConversation(_) >> conversation
-
         and: "OpenAI service returns result with null choices"
         def result = new ChatCompletionResult()
         result.setChoices(null)
@@ -131,12 +198,6 @@ class ChatServiceSpec extends Specification {
         given: "a user message"
         def userMessage = "Hello"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-        conversationService.createConversation(_) >> conversation
-
         and: "OpenAI service returns result with null message"
         def choice = new ChatCompletionChoice()
         choice.setMessage(null)
@@ -157,12 +218,6 @@ class ChatServiceSpec extends Specification {
         given: "a user message"
         def userMessage = "Hello"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-        conversationService.createConversation(_) >> conversation
-
         and: "OpenAI service returns message with null content"
         def chatMessage = new ChatMessage("assistant", null)
         def choice = new ChatCompletionChoice()
@@ -184,12 +239,6 @@ class ChatServiceSpec extends Specification {
         given: "a user message"
         def userMessage = "Hello"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-        conversationService.createConversation(_) >> conversation
-
         and: "OpenAI service throws an exception"
         def originalException = new RuntimeException("API Error")
         openAiService.createChatCompletion(_ as ChatCompletionRequest) >> { throw originalException }
@@ -201,21 +250,18 @@ class ChatServiceSpec extends Specification {
         def exception = thrown(ChatServiceException)
         exception.message == "Failed to get response from OpenAI"
         exception.cause == originalException
+
+        and: "no conversation is created"
+        0 * conversationService._
     }
 
     def "chat should use configured model name in request"() {
         given: "a custom model name"
-        chatService.modelName = "gpt-4"
+        chatService = chatServiceWith(new ModelRoutingProperties(), "gpt-4")
 
         and: "a user message"
         def userMessage = "Test message"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-        conversationService.createConversation(_) >> conversation
-
         and: "OpenAI service returns a valid response"
         def chatMessage = new ChatMessage("assistant", "Response")
         def choice = new ChatCompletionChoice()
@@ -242,12 +288,6 @@ class ChatServiceSpec extends Specification {
         given: "a specific user message"
         def userMessage = "What is the weather today?"
 
-        and: "conversation service creates a new conversation"
-        def conversationId = UUID.randomUUID()
-        def conversation = Mock(com.openai.chatbot.entity.Conversation)
-        conversation.getPublicId() >> conversationId
-        conversationService.createConversation(_) >> conversation
-
         and: "OpenAI service returns a valid response"
         def chatMessage = new ChatMessage("assistant", "It's sunny")
         def choice = new ChatCompletionChoice()
@@ -270,4 +310,332 @@ class ChatServiceSpec extends Specification {
         capturedRequest.messages[0].role == "user"
         capturedRequest.messages[0].content == userMessage
     }
+
+    def "chat should request background summarization after saving the message pair"() {
+        given: "an existing conversation"
+        def conversationId = UUID.randomUUID()
+
+        and: "OpenAI service returns a valid response"
+        def choice = new ChatCompletionChoice()
+        choice.setMessage(new ChatMessage("assistant", "Sure"))
+        def result = new ChatCompletionResult()
+        result.setChoices([choice])
+        openAiService.createChatCompletion(_ as ChatCompletionRequest) >> result
+
+        when: "chat is called"
+        chatService.chat("Go on", conversationId)
+
+        then: "the message pair is saved first"
+        1 * conversationService.saveMessagePair(conversationId, "Go on", "Sure")
+
+        then: "summarization is requested for the conversation"
+        1 * conversationSummaryService.summarizeIfNeeded(conversationId)
+    }
+
+    def "chat should send the assembled conversation history to OpenAI"() {
+        given: "an existing conversation with earlier turns"
+        def conversationId = UUID.randomUUID()
+        def history = [
+                new ChatMessage("user", "My name is Ada"),
+                new ChatMessage("assistant", "Nice to meet you, Ada"),
+                new ChatMessage("user", "What is my name?")
+        ]
+
+        and: "OpenAI service returns a valid response"
+        def choice = new ChatCompletionChoice()
+        choice.setMessage(new ChatMessage("assistant", "Ada"))
+        def result = new ChatCompletionResult()
+        result.setChoices([choice])
+
+        ChatCompletionRequest capturedRequest = null
+        openAiService.createChatCompletion(_ as ChatCompletionRequest) >> { args ->
+            capturedRequest = args[0]
+            return result
+        }
+
+        when: "chat is called for the existing conversation"
+        chatService.chat("What is my name?", conversationId)
+
+        then: "context is assembled for that conversation"
+        1 * contextAssemblyService.assemble(conversationId, "What is my name?", "gpt-3.5-turbo") >> history
+
+        and: "no new conversation is created"
+        0 * conversationService.createConversation(_)
+
+        and: "the request carries the assembled history"
+        capturedRequest.messages == history
+    }
+
+    def "streamChat should forward tokens as they arrive and save the assembled reply once"() {
+        given: "a user message"
+        def userMessage = "Tell me a story"
+
+        and: "OpenAI streams a role-only chunk followed by content chunks"
+        openAiService.streamChatCompletion(_ as ChatCompletionRequest) >> Flowable.fromIterable([
+                chunk(new ChatMessage("assistant", null)),
+                chunk(new ChatMessage(null, "Once ")),
+                chunk(new ChatMessage(null, "upon ")),
+                chunk(new ChatMessage(null, "a time"))
+        ])
+
+        and: "a consumer collecting tokens"
+        def tokens = []
+
+        when: "streamChat is called"
+        def response = chatService.streamChat(userMessage, null, { tokens << it })
+
+        then: "each content token is forwarded in order"
+        tokens == ["Once ", "upon ", "a time"]
+
+        and: "the conversation is created with the assembled reply in a single call"
+        1 * conversationService.startConversation(_ as UUID, _, userMessage, "Once upon a time")
+
+        and: "response contains the assembled reply"
+        response.response == "Once upon a time"
+        response.model == "gpt-3.5-turbo"
+        response.conversationId != null
+
+        and: "the time to the first token is recorded once"
+        metricsRegistry.get("chat.stage").tag("stage", "first_token").timer().count() == 1
+    }
+
+    def "streamChatAsync should stream on a chat executor thread"() {
+        given: "OpenAI streams a single content chunk"
+        def conversationId = UUID.randomUUID()
+        String streamingThread = null
+        openAiService.streamChatCompletion(_ as ChatCompletionRequest) >> {
+            streamingThread = Thread.currentThread().name
+            Flowable.just(chunk(new ChatMessage(null, "Hi")))
+        }
+
+        when: "streamChatAsync is called and awaited"
+        def response = chatService.streamChatAsync("Hello", conversationId, { }).get(5, TimeUnit.SECONDS)
+
+        then: "the stream was consumed on a chat executor thread, counted against the in-flight limit"
+        streamingThread.startsWith("chat-")
+
+        and: "the reply was persisted and returned"
+        1 * conversationService.saveMessagePair(conversationId, "Hello", "Hi")
+        response.response == "Hi"
+    }
+
+    def "streamChat should throw ChatServiceException when the stream carries no content"() {
+        given: "an existing conversation"
+        def conversationId = UUID.randomUUID()
+
+        and: "OpenAI stream completes without content"
+        openAiService.streamChatCompletion(_ as ChatCompletionRequest) >> Flowable.fromIterable([
+                chunk(new ChatMessage("assistant", null))
+        ])
+
+        when: "streamChat is called"
+        chatService.streamChat("Hello", conversationId, { })
+
+        then: "ChatServiceException is thrown and nothing is saved"
+        def exception = thrown(ChatServiceException)
+        exception.message == "No response generated from OpenAI"
+        0 * conversationService.saveMessagePair(_, _, _)
+    }
+
+    def "streamChat should not persist anything when the token consumer fails"() {
+        given: "an existing conversation"
+        def conversationId = UUID.randomUUID()
+
+        and: "OpenAI streams content"
+        openAiService.streamChatCompletion(_ as ChatCompletionRequest) >> Flowable.fromIterable([
+                chunk(new ChatMessage(null, "Hello")),
+                chunk(new ChatMessage(null, " world"))
+        ])
+
+        when: "the consumer fails on the first token"
+        chatService.streamChat("Hello", conversationId, { throw new UncheckedIOException(new IOException("client gone")) })
+
+        then: "ChatServiceException is thrown and nothing is saved"
+        thrown(ChatServiceException)
+        0 * conversationService.saveMessagePair(_, _, _)
+    }
+
+    def "streamChat should hold an upstream scheduler slot and re-queue a stream throttled before its first token"() {
+        given: "an enabled scheduler"
+        enableScheduler()
+        def conversationId = UUID.randomUUID()
+        def inFlightDuringStream = []
+
+        and: "OpenAI throttles the first stream and answers the second"
+        2 * openAiService.streamChatCompletion(_ as ChatCompletionRequest) >>> [
+                Flowable.error(throttled()),
+                Flowable.fromIterable([chunk(new ChatMessage(null, "Hi"))])
+                        .doOnNext { inFlightDuringStream << upstreamScheduler.getInFlight(LANE) }
+        ]
+
+        when:
+        def response = chatService.streamChat("Hello", conversationId, { })
+
+        then: "the stream was retried, counted as in flight, and released"
+        response.response == "Hi"
+        inFlightDuringStream == [1]
+        upstreamScheduler.getInFlight(LANE) == 0
+        upstreamScheduler.getLimit(LANE) < 8
+    }
+
+    def "streamChat should not replay a stream that fails after tokens were sent"() {
+        given:
+        enableScheduler()
+        def tokens = []
+
+        when: "the stream fails with a 429 after its first token"
+        chatService.streamChat("Hello", UUID.randomUUID(), { tokens << it })
+
+        then: "it is opened once and fails without duplicate tokens"
+        1 * openAiService.streamChatCompletion(_ as ChatCompletionRequest) >>
+                Flowable.just(chunk(new ChatMessage(null, "Hi")))
+                        .concatWith(Flowable.<ChatCompletionChunk> error(throttled()).delay(50, TimeUnit.MILLISECONDS, true))
+        thrown(ChatServiceException)
+        tokens == ["Hi"]
+        0 * conversationService.saveMessagePair(_, _, _)
+    }
+
+    def "streamChat should be refused while the circuit is open and report its failures"() {
+        given: "a breaker that opens after two failures"
+        enableResilience()
+
+        when: "two streams fail to connect"
+        2.times {
+            try {
+                chatService.streamChat("Hello", UUID.randomUUID(), { })
+            } catch (ChatServiceException ignored) {
+            }
+        }
+
+        then: "both failures reach the breaker"
+        2 * openAiService.streamChatCompletion(_ as ChatCompletionRequest) >>
+                Flowable.error(new UncheckedIOException(new IOException("connection reset")))
+        upstreamResilience.circuitState(LANE) == CircuitBreaker.State.OPEN
+
+        when: "another stream is requested"
+        chatService.streamChat("Hello", UUID.randomUUID(), { })
+
+        then: "it fails fast without calling OpenAI"
+        thrown(UpstreamUnavailableException)
+        0 * openAiService.streamChatCompletion(_)
+    }
+
+    def "a client going away mid-stream should not count against the circuit"() {
+        given:
+        enableResilience()
+        openAiService.streamChatCompletion(_ as ChatCompletionRequest) >>
+                Flowable.fromIterable([chunk(new ChatMessage(null, "Hello"))])
+
+        when: "the consumer fails on every stream"
+        3.times {
+            try {
+                chatService.streamChat("Hello", UUID.randomUUID(), { throw new UncheckedIOException(new IOException("client gone")) })
+            } catch (ChatServiceException ex) {
+                assert ex.cause instanceof UncheckedIOException
+            }
+        }
+
+        then:
+        upstreamResilience.circuitState(LANE) == CircuitBreaker.State.CLOSED
+    }
+
+    def "chat should fall back to the next model, with a prompt assembled for it, and report that model"() {
+        given: "the default model failing and a fallback model on another endpoint"
+        def fallback = OpenAiStubServer.start()
+        fallback.reply = "From the fallback"
+        chatService = chatServiceWith(new ModelRoutingProperties(models: [
+                new ModelRoutingProperties.Model(name: "gpt-3.5-turbo"),
+                new ModelRoutingProperties.Model(name: "gpt-4o", baseUrl: fallback.baseUrl)]))
+        def conversationId = UUID.randomUUID()
+
+        when:
+        def response = chatService.chat("Hello", conversationId)
+
+        then: "the default model fails with a 503"
+        1 * openAiService.createChatCompletion({ it.model == "gpt-3.5-turbo" }) >> {
+            throw new OpenAiHttpException(new OpenAiError(new OpenAiError.OpenAiErrorDetails(
+                    "Overloaded", "server_error", null, null)), null, 503)
+        }
+
+        and: "the prompt is assembled once per model tried"
+        1 * contextAssemblyService.assemble(conversationId, "Hello", "gpt-3.5-turbo") >> [new ChatMessage("user", "Hello")]
+        1 * contextAssemblyService.assemble(conversationId, "Hello", "gpt-4o") >> [new ChatMessage("user", "Hello")]
+
+        and: "the fallback answers and is reported"
+        fallback.requests.get() == 1
+        response.response == "From the fallback"
+        response.model == "gpt-4o"
+
+        cleanup:
+        fallback.close()
+    }
+
+    private void enableResilience() {
+        upstreamResilience.enabled = true
+        upstreamResilience.maxAttempts = 1
+        upstreamResilience.initialBackoff = Duration.ofMillis(10)
+        upstreamResilience.maxBackoff = Duration.ofMillis(10)
+        upstreamResilience.budgetRatio = 0.2
+        upstreamResilience.budgetMax = 10
+        upstreamResilience.hedgeEnabled = false
+        upstreamResilience.circuitWindowSize = 4
+        upstreamResilience.circuitMinimumCalls = 2
+        upstreamResilience.circuitFailureRateThreshold = 0.5
+        upstreamResilience.circuitOpenDuration = Duration.ofSeconds(30)
+        upstreamResilience.circuitHalfOpenCalls = 1
+        upstreamResilience.init()
+    }
+
+    private void enableScheduler() {
+        upstreamScheduler.enabled = true
+        upstreamScheduler.initialLimit = 8
+        upstreamScheduler.minLimit = 1
+        upstreamScheduler.maxLimit = 64
+        upstreamScheduler.backoffRatio = 0.5
+        upstreamScheduler.queueTimeout = Duration.ofSeconds(5)
+        upstreamScheduler.throttlePause = Duration.ofMillis(10)
+        upstreamScheduler.retryAfter = Duration.ofSeconds(2)
+    }
+
+    private ChatService chatServiceWith(ModelRoutingProperties routing, String defaultModel = "gpt-3.5-turbo") {
+        def modelRouter = new ModelRouter(openAiService, new OkHttpClient(), upstreamScheduler, routing,
+                new SimpleMeterRegistry())
+        modelRouter.defaultModel = defaultModel
+        modelRouter.baseUrl = "http://openai.test/"
+        modelRouter.init()
+        new ChatService(chatCompletionCache, conversationService, contextAssemblyService,
+                conversationSummaryService, chatRequestExecutor, upstreamScheduler, upstreamResilience, modelRouter,
+                chatMetrics)
+    }
+
+    private static OpenAiHttpException throttled() {
+        new OpenAiHttpException(new OpenAiError(new OpenAiError.OpenAiErrorDetails("Slow down", "requests", null,
+                "rate_limit_exceeded")), null, 429)
+    }
+
+    private static ChatCompletionChunk chunk(ChatMessage delta) {
+        def choice = new ChatCompletionChoice()
+        choice.setMessage(delta)
+        def chunk = new ChatCompletionChunk()
+        chunk.setChoices([choice])
+        return chunk
+    }
+
+    def "chat should time each stage of the pipeline"() {
+        given:
+        def choice = new ChatCompletionChoice()
+        choice.setMessage(new ChatMessage("assistant", "Hi"))
+        def result = new ChatCompletionResult()
+        result.setChoices([choice])
+        openAiService.createChatCompletion(_) >> result
+
+        when:
+        chatService.chat("Hello")
+
+        then: "every non-streaming stage is recorded once"
+        ["context_assembly", "upstream", "save_messages"].every {
+            metricsRegistry.get("chat.stage").tag("stage", it).timer().count() == 1
+        }
+        metricsRegistry.get("chat.stage").tag("stage", "first_token").timer().count() == 0
+    }
 }
@@ -0,0 +1,97 @@
+package com.openai.chatbot.service
+
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit tests for CircuitBreaker, driven by a manual clock.
+ */
+class CircuitBreakerSpec extends Specification {
+
+    long now = 0
+    CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, Duration.ofSeconds(30), 2, { now })
+
+    def "should stay closed until the minimum number of calls is recorded"() {
+        when: "three calls fail"
+        3.times { assert breaker.tryAcquire(); breaker.onFailure() }
+
+        then: "too few calls to judge"
+        breaker.state() == CircuitBreaker.State.CLOSED
+    }
+
+    def "should open once the failure rate reaches the threshold and reject calls"() {
+        given: "two successes and two failures"
+        2.times { breaker.tryAcquire(); breaker.onSuccess() }
+        breaker.tryAcquire(); breaker.onFailure()
+
+        when: "the fourth call fails too"
+        breaker.tryAcquire(); breaker.onFailure()
+
+        then: "the breaker is open and fails calls fast"
+        breaker.state() == CircuitBreaker.State.OPEN
+        !breaker.tryAcquire()
+        breaker.remainingOpen() == Duration.ofSeconds(30)
+    }
+
+    def "should let trial calls through after the open duration and close when they succeed"() {
+        given: "an open breaker"
+        4.times { breaker.tryAcquire(); breaker.onFailure() }
+
+        when: "the open duration passes"
+        now += TimeUnit.SECONDS.toNanos(30)
+
+        then: "exactly the configured trial calls are permitted"
+        breaker.tryAcquire()
+        breaker.tryAcquire()
+        !breaker.tryAcquire()
+        breaker.state() == CircuitBreaker.State.HALF_OPEN
+
+        when: "both trials succeed"
+        2.times { breaker.onSuccess() }
+
+        then: "the breaker closes"
+        breaker.state() == CircuitBreaker.State.CLOSED
+        breaker.tryAcquire()
+    }
+
+    def "a failed trial call should re-open the breaker"() {
+        given: "a half-open breaker"
+        4.times { breaker.tryAcquire(); breaker.onFailure() }
+        now += TimeUnit.SECONDS.toNanos(30)
+        breaker.tryAcquire()
+
+        when: "the trial fails"
+        breaker.onFailure()
+
+        then: "the breaker is open for another full period"
+        breaker.state() == CircuitBreaker.State.OPEN
+        breaker.remainingOpen() == Duration.ofSeconds(30)
+    }
+
+    def "an ignored trial call should give its permit back"() {
+        given: "a half-open breaker with both trials taken"
+        4.times { breaker.tryAcquire(); breaker.onFailure() }
+        now += TimeUnit.SECONDS.toNanos(30)
+        2.times { breaker.tryAcquire() }
+
+        when: "one trial ends without telling anything about the upstream"
+        breaker.onIgnored()
+
+        then: "another trial may run"
+        breaker.tryAcquire()
+    }
+
+    def "old outcomes should slide out of the window"() {
+        given: "three failures followed by enough successes to push them out"
+        3.times { breaker.tryAcquire(); breaker.onFailure() }
+        10.times { breaker.tryAcquire(); breaker.onSuccess() }
+
+        when: "another call fails"
+        breaker.tryAcquire(); breaker.onFailure()
+
+        then: "one failure in ten keeps the breaker closed"
+        breaker.state() == CircuitBreaker.State.CLOSED
+    }
+}
@@ -0,0 +1,169 @@
+package com.openai.chatbot.service
+
+import com.openai.chatbot.datasource.ReadYourWrites
+import com.openai.chatbot.entity.Conversation
+import com.openai.chatbot.entity.Message
+import com.openai.chatbot.repository.ConversationRepository
+import com.openai.chatbot.repository.MessageRepository
+import org.springframework.data.domain.Pageable
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.time.LocalDateTime
+
+import static com.openai.chatbot.service.SummaryWatermark.NONE
+
+/**
+ * Unit tests for ContextAssemblyService using Spock framework.
+ */
+class ContextAssemblyServiceSpec extends Specification {
+
+    static final String MODEL = "gpt-3.5-turbo"
+
+    ConversationRepository conversationRepository = Mock()
+    MessageRepository messageRepository = Mock()
+    ConversationArchiveService conversationArchiveService = Mock()
+
+    @Subject
+    ContextAssemblyService contextAssemblyService
+
+    UUID conversationId = UUID.randomUUID()
+    Conversation conversation = Conversation.builder().id(7L).publicId(conversationId).build()
+
+    def setup() {
+        contextAssemblyService = new ContextAssemblyService(conversationRepository, messageRepository,
+                new ReadYourWrites(), conversationArchiveService)
+        contextAssemblyService.maxTokens = 3000
+        contextAssemblyService.maxMessages = 20
+    }
+
+    def "assemble should return only the new message for a new conversation"() {
+        when: "context is assembled without a conversation"
+        def prompt = contextAssemblyService.assemble(null, "Hello", MODEL)
+
+        then: "no history is read"
+        0 * conversationRepository._
+        0 * messageRepository._
+
+        and: "prompt contains only the new user message"
+        prompt.size() == 1
+        prompt[0].role == "user"
+        prompt[0].content == "Hello"
+    }
+
+    def "assemble should return recent history in chronological order followed by the new message"() {
+        given: "a conversation without a summary"
+        conversationRepository.findByPublicId(conversationId) >> Optional.of(conversation)
+
+        when: "context is assembled"
+        def prompt = contextAssemblyService.assemble(conversationId, "And now?", MODEL)
+
+        then: "a bounded page of the most recent turns is read, newest first"
+        1 * messageRepository.findRecentTurns(7L, NONE.createdAt(), 0L, { Pageable p -> p.pageSize == 20 }) >> [
+                message("assistant", "Second answer"),
+                message("user", "Second question"),
+                message("assistant", "First answer"),
+                message("user", "First question")
+        ]
+
+        and: "history is sent oldest first, ending with the new message"
+        prompt*.content == ["First question", "First answer", "Second question", "Second answer", "And now?"]
+        prompt*.role == ["user", "assistant", "user", "assistant", "user"]
+    }
+
+    def "assemble should drop the oldest messages that do not fit the token budget"() {
+        given: "a tight token budget"
+        contextAssemblyService.maxTokens = 20
+
+        and: "a conversation whose oldest message is too large for what is left"
+        conversationRepository.findByPublicId(conversationId) >> Optional.of(conversation)
+        messageRepository.findRecentTurns(7L, NONE.createdAt(), 0L, _) >> [
+                message("assistant", "a b"),
+                message("user", "c d"),
+                message("assistant", "e f g h i j"),
+                message("user", "k")
+        ]
+
+        when: "context is assembled"
+        def prompt = contextAssemblyService.assemble(conversationId, "hi", MODEL)
+
+        then: "only the newest contiguous messages within budget are kept"
+        prompt*.content == ["c d", "a b", "hi"]
+    }
+
+    def "assemble should always include the new message even if it exceeds the budget"() {
+        given: "a budget smaller than the new message"
+        contextAssemblyService.maxTokens = 5
+        conversationRepository.findByPublicId(conversationId) >> Optional.of(conversation)
+        messageRepository.findRecentTurns(7L, NONE.createdAt(), 0L, _) >> [message("assistant", "Earlier")]
+
+        when: "context is assembled"
+        def prompt = contextAssemblyService.assemble(conversationId, "This message alone is longer than the budget", MODEL)
+
+        then: "history is dropped but the new message is kept"
+        prompt*.content == ["This message alone is longer than the budget"]
+    }
+
+    def "assemble should lead with the summary and only read turns newer than it"() {
+        given: "a conversation summarized through message 40"
+        conversation.summaryMessageId = 41L
+        def summarizedAt = LocalDateTime.of(2026, 1, 1, 12, 0)
+        conversation.summarizedThroughCreatedAt = summarizedAt
+        conversation.summarizedThroughMessageId = 40L
+        conversationRepository.findByPublicId(conversationId) >> Optional.of(conversation)
+        messageRepository.findById(41L) >> Optional.of(message("system", "The user is Ada, planning a trip"))
+
+        when: "context is assembled"
+        def prompt = contextAssemblyService.assemble(conversationId, "Where was I going?", MODEL)
+
+        then: "only turns after the summarized range are read"
+        1 * messageRepository.findRecentTurns(7L, summarizedAt, 40L, _) >> [
+                message("assistant", "Lisbon sounds great"),
+                message("user", "I like Lisbon")
+        ]
+
+        and: "summary comes first as a system message, then the recent turns"
+        prompt*.role == ["system", "user", "assistant", "user"]
+        prompt[0].content == ContextAssemblyService.SUMMARY_PREFIX + "The user is Ada, planning a trip"
+        prompt*.content.drop(1) == ["I like Lisbon", "Lisbon sounds great", "Where was I going?"]
+    }
+
+    def "assemble should fall back to the new message for an unknown conversation"() {
+        given: "no conversation with the given ID"
+        conversationRepository.findByPublicId(conversationId) >> Optional.empty()
+
+        when: "context is assembled"
+        def prompt = contextAssemblyService.assemble(conversationId, "Hello", MODEL)
+
+        then: "no messages are read"
+        0 * messageRepository._
+
+        and: "prompt contains only the new user message"
+        prompt*.content == ["Hello"]
+    }
+
+    def "assemble should read the recent turns of an archived conversation from the archive"() {
+        given: "an archived conversation summarized through message 2"
+        def base = LocalDateTime.of(2026, 1, 1, 12, 0)
+        conversation.archivedAt = base.plusDays(90)
+        conversation.summarizedThroughCreatedAt = base.plusMinutes(1)
+        conversation.summarizedThroughMessageId = 2L
+        conversationRepository.findByPublicId(conversationId) >> Optional.of(conversation)
+        messageRepository.findRecentTurns(7L, base.plusMinutes(1), 2L, _) >> []
+        conversationArchiveService.load(7L) >> [
+                new ConversationArchiveService.ArchivedMessage(1L, "user", "Old question", base),
+                new ConversationArchiveService.ArchivedMessage(2L, "assistant", "Old answer", base.plusMinutes(1)),
+                new ConversationArchiveService.ArchivedMessage(3L, "user", "Last question", base.plusMinutes(2)),
+                new ConversationArchiveService.ArchivedMessage(4L, "assistant", "Last answer", base.plusMinutes(3))]
+
+        when: "context is assembled"
+        def prompt = contextAssemblyService.assemble(conversationId, "Picking this up again", MODEL)
+
+        then: "the archived turns newer than the summary come first, in order"
+        prompt*.content == ["Last question", "Last answer", "Picking this up again"]
+    }
+
+    private static Message message(String role, String content) {
+        Message.builder().role(role).content(content).build()
+    }
+}
@@ -0,0 +1,218 @@
+package com.openai.chatbot.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.openai.chatbot.repository.ConversationRepository
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.TestPropertySource
+import spock.lang.Specification
+
+import java.sql.Timestamp
+import java.time.LocalDateTime
+
+/**
+ * Integration tests for archiving cold conversations and rehydrating them against the test H2 database.
+ */
+@SpringBootTest
+@ContextConfiguration
+@ActiveProfiles("test")
+@TestPropertySource(properties = "chat.conversation-cache.enabled=false")
+class ConversationArchiveServiceSpec extends Specification {
+
+    @Autowired
+    ConversationArchiveService conversationArchiveService
+
+    @Autowired
+    ConversationArchiveJob conversationArchiveJob
+
+    @Autowired
+    ConversationService conversationService
+
+    @Autowired
+    ConversationExportService conversationExportService
+
+    @Autowired
+    ContextAssemblyService contextAssemblyService
+
+    @Autowired
+    ConversationRepository conversationRepository
+
+    @Autowired
+    JdbcTemplate jdbcTemplate
+
+    @Autowired
+    ObjectMapper objectMapper
+
+    LocalDateTime cutoff = LocalDateTime.now().minusDays(90)
+
+    def "the job should archive only conversations idle since the cutoff"() {
+        given: "a cold conversation and an active one"
+        def cold = conversationWithTurns(UUID.randomUUID(), 2)
+        idle(cold, 100)
+        def active = conversationWithTurns(UUID.randomUUID(), 2)
+
+        when: "the job runs"
+        conversationArchiveJob.archiveIdleSince(cutoff)
+
+        then: "the cold conversation's turns left the messages table in one compressed row"
+        hotMessages(cold) == 0
+        jdbcTemplate.queryForObject("SELECT message_count FROM message_archives WHERE conversation_id = ?",
+                Integer, idOf(cold)) == 4
+        archivedAt(cold) != null
+
+        and: "the active one is untouched"
+        hotMessages(active) == 4
+        archivedAt(active) == null
+    }
+
+    def "getConversationById should rehydrate an archived conversation with its original IDs"() {
+        given: "an archived conversation"
+        def conversationId = conversationWithTurns(UUID.randomUUID(), 3)
+        def before = conversationService.getConversationById(conversationId).messages
+        archive(conversationId)
+
+        when: "it is read"
+        def after = conversationService.getConversationById(conversationId).messages
+
+        then: "the same messages come back in the same order"
+        after*.id == before*.id
+        after*.content == before*.content
+        after*.timestamp == before*.timestamp
+
+        and: "the archive row is gone"
+        hotMessages(conversationId) == 6
+        archivedAt(conversationId) == null
+        jdbcTemplate.queryForObject("SELECT COUNT(*) FROM message_archives WHERE conversation_id = ?",
+                Integer, idOf(conversationId)) == 0
+    }
+
+    def "getMessages should rehydrate an archived conversation"() {
+        given:
+        def conversationId = conversationWithTurns(UUID.randomUUID(), 2)
+        archive(conversationId)
+
+        when:
+        def page = conversationService.getMessages(conversationId, null, null, 10)
+
+        then:
+        page.messages*.content == ["Question 1", "Answer 1", "Question 2", "Answer 2"]
+        archivedAt(conversationId) == null
+    }
+
+    def "saveMessagePair should append after the archived turns"() {
+        given:
+        def conversationId = conversationWithTurns(UUID.randomUUID(), 1)
+        archive(conversationId)
+
+        when: "the conversation is resumed"
+        conversationService.saveMessagePair(conversationId, "Back again", "Welcome back")
+
+        then:
+        conversationService.getConversationById(conversationId).messages*.content ==
+                ["Question 1", "Answer 1", "Back again", "Welcome back"]
+    }
+
+    def "a rehydrated conversation should not be archived again until it is idle again"() {
+        given: "a conversation rehydrated after being archived"
+        def conversationId = conversationWithTurns(UUID.randomUUID(), 1)
+        archive(conversationId)
+        conversationService.getMessages(conversationId, null, null, 10)
+
+        expect:
+        !conversationArchiveService.archive(idOf(conversationId), cutoff)
+    }
+
+    def "archiving should keep the summary message and context assembly should read the archived turns"() {
+        given: "a conversation whose first turn is summarized"
+        def conversationId = conversationWithTurns(UUID.randomUUID(), 2)
+        def firstAnswer = conversationService.getConversationById(conversationId).messages[1]
+        conversationService.saveSummary(conversationId, "They said hello", firstAnswer.timestamp, firstAnswer.id)
+        archive(conversationId)
+
+        when: "the next prompt is assembled"
+        def prompt = contextAssemblyService.assemble(conversationId, "Next", "gpt-3.5-turbo")
+
+        then: "the summary stayed in the messages table"
+        hotMessages(conversationId) == 1
+
+        and: "the prompt has the summary and the unsummarized turn, without rehydrating"
+        prompt*.content == [ContextAssemblyService.SUMMARY_PREFIX + "They said hello",
+                            "Question 2", "Answer 2", "Next"]
+        archivedAt(conversationId) != null
+    }
+
+    def "exportUserHistory should include archived messages in order"() {
+        given: "a user with an archived conversation and an active one"
+        def user = UUID.randomUUID()
+        def archived = conversationWithTurns(user, 2)
+        archive(archived)
+        def active = conversationWithTurns(user, 1)
+
+        when:
+        def out = new ByteArrayOutputStream()
+        def exported = conversationExportService.exportUserHistory(user, out)
+        def lines = out.toString("UTF-8").readLines().collect { objectMapper.readValue(it, Map) }
+
+        then:
+        exported == 6
+        lines*.type == ["conversation", "message", "message", "message", "message",
+                        "conversation", "message", "message"]
+        lines[1..4]*.content == ["Question 1", "Answer 1", "Question 2", "Answer 2"]
+        lines[1..4].every { it.conversationId == archived.toString() && it.id && it.timestamp }
+        lines[5].id == active.toString()
+        archivedAt(archived) != null
+    }
+
+    def "exportUserHistory should leave system rows out of archived conversations"() {
+        given: "an archived conversation with a summary and a stray system row among its turns"
+        def user = UUID.randomUUID()
+        def conversationId = conversationWithTurns(user, 1)
+        def firstAnswer = conversationService.getConversationById(conversationId).messages[1]
+        conversationService.saveSummary(conversationId, "They said hello", firstAnswer.timestamp, firstAnswer.id)
+        jdbcTemplate.update("INSERT INTO messages (conversation_id, role, content, created_at) VALUES (?, ?, ?, ?)",
+                idOf(conversationId), "system", "Internal note", Timestamp.valueOf(LocalDateTime.now()))
+        archive(conversationId)
+
+        when:
+        def out = new ByteArrayOutputStream()
+        def exported = conversationExportService.exportUserHistory(user, out)
+        def lines = out.toString("UTF-8").readLines().collect { objectMapper.readValue(it, Map) }
+
+        then: "only the user and assistant turns are exported"
+        exported == 2
+        lines.findAll { it.type == "message" }*.role == ["user", "assistant"]
+    }
+
+    private UUID conversationWithTurns(UUID user, int turns) {
+        def conversationId = conversationService.createConversation(user).publicId
+        (1..turns).each { conversationService.saveMessagePair(conversationId, "Question $it", "Answer $it") }
+        conversationId
+    }
+
+    private void archive(UUID conversationId) {
+        idle(conversationId, 100)
+        assert conversationArchiveService.archive(idOf(conversationId), cutoff)
+    }
+
+    private void idle(UUID conversationId, int days) {
+        jdbcTemplate.update("UPDATE conversations SET updated_at = ? WHERE public_id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(days)), conversationId)
+    }
+
+    private Long idOf(UUID conversationId) {
+        conversationRepository.findIdByPublicId(conversationId).get()
+    }
+
+    private int hotMessages(UUID conversationId) {
+        jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages WHERE conversation_id = ?",
+                Integer, idOf(conversationId))
+    }
+
+    private Timestamp archivedAt(UUID conversationId) {
+        jdbcTemplate.queryForObject("SELECT archived_at FROM conversations WHERE public_id = ?",
+                Timestamp, conversationId)
+    }
+}
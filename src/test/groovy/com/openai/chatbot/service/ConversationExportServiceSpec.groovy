@@ -0,0 +1,122 @@
+package com.openai.chatbot.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.openai.chatbot.repository.ConversationRepository
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import spock.lang.Specification
+
+import java.sql.Timestamp
+import java.time.LocalDateTime
+
+/**
+ * Integration tests for ConversationExportService against the test H2 database.
+ */
+@SpringBootTest
+@ContextConfiguration
+@ActiveProfiles("test")
+class ConversationExportServiceSpec extends Specification {
+
+    @Autowired
+    ConversationExportService conversationExportService
+
+    @Autowired
+    ConversationService conversationService
+
+    @Autowired
+    ConversationRepository conversationRepository
+
+    @Autowired
+    JdbcTemplate jdbcTemplate
+
+    @Autowired
+    ObjectMapper objectMapper
+
+    def "exportUserHistory should write each conversation followed by its messages as NDJSON"() {
+        given: "a user with one conversation holding two turns and one empty conversation"
+        def user = UUID.randomUUID()
+        def first = conversationService.createConversation(user).publicId
+        conversationService.saveMessagePair(first, "Hi", "Hello")
+        conversationService.saveMessagePair(first, "How are you?", "Fine")
+        def second = conversationService.createConversation(user).publicId
+
+        and: "another user's conversation"
+        def other = conversationService.createConversation(UUID.randomUUID()).publicId
+        conversationService.saveMessagePair(other, "Not mine", "Indeed")
+
+        when: "the user's history is exported"
+        def out = new ByteArrayOutputStream()
+        def exported = conversationExportService.exportUserHistory(user, out)
+        def lines = out.toString("UTF-8").readLines().collect { objectMapper.readValue(it, Map) }
+
+        then: "every line is a JSON document, conversations followed by their messages in order"
+        exported == 4
+        lines*.type == ["conversation", "message", "message", "message", "message", "conversation"]
+        lines[0].id == first.toString()
+        lines[0].title == "Hi"
+        lines[1..4]*.content == ["Hi", "Hello", "How are you?", "Fine"]
+        lines[1..4]*.role == ["user", "assistant", "user", "assistant"]
+        lines[1..4].every { it.conversationId == first.toString() && it.timestamp }
+        lines[5].id == second.toString()
+
+        and: "other users' data is not included"
+        !lines.any { it.content == "Not mine" }
+    }
+
+    def "exportUserHistory should leave out the rolling summary of a summarized conversation"() {
+        given: "a conversation whose first turn is folded into a summary"
+        def user = UUID.randomUUID()
+        def conversationId = conversationService.createConversation(user).publicId
+        conversationService.saveMessagePair(conversationId, "My name is Ada", "Hello Ada")
+        conversationService.saveMessagePair(conversationId, "Plan a trip", "Where to?")
+        def firstAnswer = conversationService.getConversationById(conversationId).messages[1]
+        conversationService.saveSummary(conversationId, "The user is Ada", firstAnswer.timestamp, firstAnswer.id)
+
+        when: "the user's history is exported"
+        def out = new ByteArrayOutputStream()
+        def exported = conversationExportService.exportUserHistory(user, out)
+        def lines = out.toString("UTF-8").readLines().collect { objectMapper.readValue(it, Map) }
+
+        then: "only the user and assistant messages are exported"
+        exported == 4
+        lines*.type == ["conversation", "message", "message", "message", "message"]
+        lines[1..4]*.role == ["user", "assistant", "user", "assistant"]
+        !lines.any { it.content == "The user is Ada" }
+    }
+
+    def "exportUserHistory should stream a large history without buffering it"() {
+        given: "a user with 50,000 messages"
+        def user = UUID.randomUUID()
+        def conversationId = conversationService.createConversation(user).publicId
+        seedMessages(conversationId, 50_000)
+
+        and: "an output that only counts lines"
+        def lineCount = 0L
+        def out = new OutputStream() {
+            @Override
+            void write(int b) {
+                if (b == '\n' as char) {
+                    lineCount++
+                }
+            }
+        }
+
+        when: "the history is exported"
+        def exported = conversationExportService.exportUserHistory(user, out)
+
+        then: "every message is written"
+        exported == 50_000
+        lineCount == 50_001
+    }
+
+    private void seedMessages(UUID conversationId, int count) {
+        Long id = conversationRepository.findIdByPublicId(conversationId).get()
+        def now = Timestamp.valueOf(LocalDateTime.now())
+        def rows = (1..count).collect { i -> [id, i % 2 ? "user" : "assistant", "Seeded message " + i, now] as Object[] }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO messages (conversation_id, role, content, created_at) VALUES (?, ?, ?, ?)", rows)
+    }
+}
@@ -0,0 +1,295 @@
+package com.openai.chatbot.service
+
+import com.openai.chatbot.exception.InvalidCursorException
+import com.openai.chatbot.repository.ConversationRepository
+import com.openai.chatbot.repository.MessageRepository
+import jakarta.persistence.EntityManagerFactory
+import org.hibernate.SessionFactory
+import org.hibernate.engine.spi.SessionFactoryImplementor
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import spock.lang.Specification
+
+import java.sql.Timestamp
+import java.time.LocalDateTime
+
+/**
+ * Integration tests for ConversationService against the test H2 database.
+ * Subclasses run the same features against other databases.
+ */
+@SpringBootTest
+@ContextConfiguration
+@ActiveProfiles("test")
+class ConversationServiceIntegrationSpec extends Specification {
+
+    static final UUID USER = UUID.fromString("00000000-0000-0000-0000-000000000001")
+
+    @Autowired
+    ConversationService conversationService
+
+    @Autowired
+    ConversationRepository conversationRepository
+
+    @Autowired
+    MessageRepository messageRepository
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory
+
+    @Autowired
+    JdbcTemplate jdbcTemplate
+
+    def "saveMessagePair should append both messages, set the title and bump updatedAt"() {
+        given: "a new conversation"
+        def conversationId = conversationService.createConversation(USER).publicId
+        def created = conversationRepository.findByPublicId(conversationId).get()
+
+        when: "two message pairs are saved"
+        conversationService.saveMessagePair(conversationId, "Plan a trip to Lisbon", "Sure, when?")
+        conversationService.saveMessagePair(conversationId, "In May", "Great choice")
+        def detail = conversationService.getConversationById(conversationId)
+
+        then: "messages are stored in order"
+        detail.messages*.content == ["Plan a trip to Lisbon", "Sure, when?", "In May", "Great choice"]
+        detail.messages*.role == ["user", "assistant", "user", "assistant"]
+
+        and: "the title comes from the first message only"
+        detail.title == "Plan a trip to Lisbon"
+
+        and: "updatedAt is bumped"
+        !detail.updatedAt.isBefore(created.updatedAt)
+    }
+
+    def "saveMessagePair per-turn cost should be flat as the conversation grows"() {
+        given: "a short conversation and one with thousands of messages"
+        def shortId = conversationService.createConversation(USER).publicId
+        def longId = conversationService.createConversation(USER).publicId
+        conversationService.saveMessagePair(shortId, "Hi", "Hello")
+        seedMessages(longId, 5000)
+
+        and: "Hibernate statistics"
+        def statistics = entityManagerFactory.unwrap(SessionFactory).statistics
+        statistics.statisticsEnabled = true
+
+        when: "a pair is appended to each conversation"
+        def shortCost = measure(statistics, shortId)
+        def longCost = measure(statistics, longId)
+
+        then: "both cost the same three statements: ID lookup, one batched insert of both rows, conversation update"
+        shortCost.statements == 3
+        longCost.statements == 3
+        shortCost.inserts == 2
+        longCost.inserts == 2
+
+        and: "neither the message collection nor any message is loaded"
+        longCost.collectionLoads == 0
+        longCost.entityLoads == 0
+
+        cleanup:
+        statistics.statisticsEnabled = false
+    }
+
+    def "listConversationsByUser should page through all conversations with a keyset cursor"() {
+        given: "a user with 45 conversations, some sharing the same updatedAt"
+        def user = UUID.randomUUID()
+        def ids = (1..45).collect { conversationService.createConversation(user).publicId }
+        def tie = Timestamp.valueOf(LocalDateTime.of(2024, 1, 1, 12, 0))
+        jdbcTemplate.update("UPDATE conversations SET updated_at = ? WHERE user_uuid = ? AND id % 3 = 0", tie, user)
+
+        when: "pages of 20 are fetched until there is no next cursor"
+        def pages = []
+        String cursor = null
+        while (true) {
+            def page = conversationService.listConversationsByUser(user, cursor, 20)
+            pages << page
+            cursor = page.nextCursor
+            if (cursor == null) {
+                break
+            }
+        }
+        def listed = pages.collectMany { it.conversations }
+
+        then: "the pages are full except the last"
+        pages*.conversations*.size() == [20, 20, 5]
+
+        and: "every conversation is listed exactly once, most recently updated first"
+        listed*.id as Set == ids as Set
+        listed.size() == 45
+        listed*.updatedAt == listed*.updatedAt.sort(false).reverse()
+    }
+
+    def "listConversationsByUser should reject a malformed cursor"() {
+        when: "a page is requested with a cursor that was not issued by the service"
+        conversationService.listConversationsByUser(USER, "not-a-cursor", 20)
+
+        then: "an InvalidCursorException is thrown"
+        thrown(InvalidCursorException)
+    }
+
+    def "getMessages should return the tail and page back and forth around a message"() {
+        given: "a conversation with 10 messages"
+        def conversationId = conversationService.createConversation(USER).publicId
+        (0..<5).each { conversationService.saveMessagePair(conversationId, "Question " + it, "Answer " + it) }
+
+        when: "the last screenful is requested"
+        def tail = conversationService.getMessages(conversationId, null, null, 4)
+
+        then: "the latest messages come back in chronological order"
+        tail.messages*.content == ["Question 3", "Answer 3", "Question 4", "Answer 4"]
+        tail.hasMore
+
+        when: "older messages are paged back from the first one shown"
+        def older = conversationService.getMessages(conversationId, tail.messages.first().id, null, 4)
+        def oldest = conversationService.getMessages(conversationId, older.messages.first().id, null, 4)
+
+        then: "each page continues where the previous one stopped"
+        older.messages*.content == ["Question 1", "Answer 1", "Question 2", "Answer 2"]
+        older.hasMore
+        oldest.messages*.content == ["Question 0", "Answer 0"]
+        !oldest.hasMore
+
+        when: "newer messages and a range are requested"
+        def newer = conversationService.getMessages(conversationId, null, oldest.messages.last().id, 3)
+        def range = conversationService.getMessages(conversationId, tail.messages.first().id, oldest.messages.last().id, 10)
+
+        then: "they follow the anchors in chronological order"
+        newer.messages*.content == ["Question 1", "Answer 1", "Question 2"]
+        newer.hasMore
+        range.messages*.content == ["Question 1", "Answer 1", "Question 2", "Answer 2"]
+        !range.hasMore
+    }
+
+    def "getMessages should reject an anchor from another conversation"() {
+        given: "two conversations"
+        def first = conversationService.createConversation(USER).publicId
+        def second = conversationService.createConversation(USER).publicId
+        conversationService.saveMessagePair(first, "Hi", "Hello")
+        def foreignId = conversationService.getMessages(first, null, null, 1).messages.first().id
+
+        when: "the second conversation is paged from a message of the first"
+        conversationService.getMessages(second, foreignId, null, 10)
+
+        then: "an InvalidCursorException is thrown"
+        thrown(InvalidCursorException)
+    }
+
+    def "the first conversation page and the message tail should be cached until a write changes them"() {
+        given: "a user with two conversations"
+        def user = UUID.randomUUID()
+        def older = conversationService.createConversation(user).publicId
+        conversationService.saveMessagePair(older, "Older question", "Older answer")
+        def newer = conversationService.createConversation(user).publicId
+        conversationService.saveMessagePair(newer, "Newer question", "Newer answer")
+
+        and: "Hibernate statistics"
+        def statistics = entityManagerFactory.unwrap(SessionFactory).statistics
+        statistics.statisticsEnabled = true
+
+        when: "the sidebar and the open conversation are read twice"
+        conversationService.listConversationsByUser(user, null, 20)
+        conversationService.getMessages(older, null, null, 50)
+        statistics.clear()
+        def list = conversationService.listConversationsByUser(user, null, 20)
+        def tail = conversationService.getMessages(older, null, null, 50)
+
+        then: "the second reads do not touch the database"
+        statistics.prepareStatementCount == 0
+        list.conversations*.id == [newer, older]
+        tail.messages*.content == ["Older question", "Older answer"]
+
+        when: "a new pair is saved to the older conversation"
+        conversationService.saveMessagePair(older, "Follow-up", "Reply")
+        list = conversationService.listConversationsByUser(user, null, 20)
+        tail = conversationService.getMessages(older, null, null, 50)
+
+        then: "both reads reflect the write"
+        list.conversations*.id == [older, newer]
+        tail.messages*.content == ["Older question", "Older answer", "Follow-up", "Reply"]
+
+        when: "a new conversation is created"
+        def newest = conversationService.createConversation(user).publicId
+
+        then: "it appears in the list"
+        conversationService.listConversationsByUser(user, null, 20).conversations*.id == [newest, older, newer]
+
+        cleanup:
+        statistics.statisticsEnabled = false
+    }
+
+    private Map measure(def statistics, UUID conversationId) {
+        // Warm up, then measure one call. A call that had to fetch the next block of message IDs from
+        // the sequence is measured again, so the count covers the append alone.
+        conversationService.saveMessagePair(conversationId, "warm up", "ok")
+        long sequenceBefore
+        do {
+            sequenceBefore = messagesSequenceValue()
+            statistics.clear()
+            conversationService.saveMessagePair(conversationId, "How long is this?", "Not long")
+        } while (messagesSequenceValue() != sequenceBefore)
+        [statements: statistics.prepareStatementCount, inserts: statistics.entityInsertCount,
+         collectionLoads: statistics.collectionLoadCount, entityLoads: statistics.entityLoadCount]
+    }
+
+    private long messagesSequenceValue() {
+        jdbcTemplate.queryForObject(
+                "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE UPPER(SEQUENCE_NAME) = 'MESSAGES_SEQ'",
+                Long)
+    }
+
+    private void seedMessages(UUID conversationId, int count) {
+        Long id = conversationRepository.findIdByPublicId(conversationId).get()
+        def now = Timestamp.valueOf(LocalDateTime.now())
+        def messageIds = allocateMessageIds(count)
+        def rows = (1..count).collect { i ->
+            [messageIds[i - 1], id, i % 2 ? "user" : "assistant", "Seeded message " + i, now] as Object[]
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO messages (id, conversation_id, role, content, created_at) VALUES (?, ?, ?, ?, ?)", rows)
+    }
+
+    /**
+     * Draws message IDs from the sequence the way Hibernate's pooled optimizer does (each value ends a block of 50),
+     * using the dialect's own next-value syntax.
+     */
+    private List<Long> allocateMessageIds(int count) {
+        def dialect = entityManagerFactory.unwrap(SessionFactoryImplementor).jdbcServices.dialect
+        def nextValue = dialect.sequenceSupport.getSequenceNextValString("messages_seq")
+        def ids = []
+        while (ids.size() < count) {
+            long high = jdbcTemplate.queryForObject(nextValue, Long)
+            ids.addAll((high - 49)..high)
+        }
+        ids
+    }
+
+    def "saveSummary should store one system message and update it in place"() {
+        given: "a conversation with two turns"
+        def conversationId = conversationService.createConversation(USER).publicId
+        conversationService.saveMessagePair(conversationId, "My name is Ada", "Hello Ada")
+        def before = conversationRepository.findByPublicId(conversationId).get()
+
+        when: "a summary is saved twice"
+        def summarizedAt = LocalDateTime.of(2024, 6, 1, 9, 0)
+        conversationService.saveSummary(conversationId, "First summary", summarizedAt.minusSeconds(1), 1L)
+        conversationService.saveSummary(conversationId, "Second summary", summarizedAt, 2L)
+        def after = conversationRepository.findByPublicId(conversationId).get()
+
+        then: "the conversation points at a single system-role summary message"
+        after.summaryMessageId != null
+        after.summarizedThroughMessageId == 2L
+        after.summarizedThroughCreatedAt == summarizedAt
+        with(messageRepository.findById(after.summaryMessageId).get()) {
+            role == "system"
+            content == "Second summary"
+        }
+
+        and: "summarizing does not reorder the conversation list"
+        after.updatedAt == before.updatedAt
+
+        and: "the summary is not part of the visible history"
+        conversationService.getConversationById(conversationId).messages*.role == ["user", "assistant"]
+    }
+}
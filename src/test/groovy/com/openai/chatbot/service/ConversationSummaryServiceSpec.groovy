@@ -0,0 +1,249 @@
+package com.openai.chatbot.service
+
+import com.openai.chatbot.config.ModelRoutingProperties
+import com.openai.chatbot.datasource.ReadYourWrites
+import com.openai.chatbot.entity.Conversation
+import com.openai.chatbot.entity.Message
+import com.openai.chatbot.exception.UpstreamUnavailableException
+import com.openai.chatbot.repository.ConversationRepository
+import com.openai.chatbot.repository.MessageRepository
+import com.theokanning.openai.completion.chat.ChatCompletionChoice
+import com.theokanning.openai.completion.chat.ChatCompletionRequest
+import com.theokanning.openai.completion.chat.ChatCompletionResult
+import com.theokanning.openai.completion.chat.ChatMessage
+import com.theokanning.openai.service.OpenAiService
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import okhttp3.OkHttpClient
+import org.springframework.data.domain.Pageable
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.time.Duration
+import java.time.LocalDateTime
+
+import static com.openai.chatbot.service.SummaryWatermark.NONE
+
+/**
+ * Unit tests for ConversationSummaryService using Spock framework.
+ */
+class ConversationSummaryServiceSpec extends Specification {
+
+    ChatCompletionCache chatCompletionCache = Mock()
+    ConversationService conversationService = Mock()
+    ConversationRepository conversationRepository = Mock()
+    MessageRepository messageRepository = Mock()
+    ModelRoutingProperties routing = new ModelRoutingProperties()
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+
+    @Subject
+    ConversationSummaryService summaryService
+
+    static final LocalDateTime T0 = LocalDateTime.of(2024, 1, 1, 12, 0)
+
+    UUID conversationId = UUID.randomUUID()
+    Conversation conversation = Conversation.builder().id(3L).publicId(conversationId).build()
+
+    def setup() {
+        summaryService = summaryService()
+        conversationRepository.findByPublicId(conversationId) >> Optional.of(conversation)
+    }
+
+    def "summarizeIfNeeded should do nothing while below the threshold"() {
+        given: "fewer unsummarized turns than the threshold"
+        messageRepository.countTurnsAfter(3L, NONE.createdAt(), 0L) >> 11
+
+        when: "summarization is requested"
+        summaryService.summarizeIfNeeded(conversationId)
+
+        then: "OpenAI is not called and nothing is saved"
+        0 * chatCompletionCache._
+        0 * conversationService._
+    }
+
+    def "summarizeIfNeeded should fold the oldest turns and keep the newest ones verbatim"() {
+        given: "enough unsummarized turns to trigger a pass"
+        messageRepository.countTurnsAfter(3L, NONE.createdAt(), 0L) >> 12
+        def turns = (1..8).collect { i -> message(i as Long, i % 2 ? "user" : "assistant", "Turn " + i) }
+
+        ChatCompletionRequest capturedRequest = null
+
+        when: "summarization is requested"
+        summaryService.summarizeIfNeeded(conversationId)
+
+        then: "only the turns beyond the kept tail are read"
+        1 * messageRepository.findAfter(3L, NONE.createdAt(), 0L, { Pageable p -> p.pageSize == 8 }) >> turns
+
+        and: "OpenAI is asked for a summary of those turns"
+        1 * chatCompletionCache.createChatCompletion(_ as ChatCompletionRequest, false, _, _) >> { args ->
+            capturedRequest = args[0]
+            result("Eight turns, summarized")
+        }
+
+        and: "the summary is saved through the last folded turn"
+        1 * conversationService.saveSummary(conversationId, "Eight turns, summarized", at(8), 8L)
+
+        and: "the request carries the transcript"
+        capturedRequest.messages[0].role == "system"
+        capturedRequest.messages[1].content.contains("Current summary:\n(none)")
+        capturedRequest.messages[1].content.contains("user: Turn 1")
+        capturedRequest.messages[1].content.contains("assistant: Turn 8")
+    }
+
+    def "summarizeIfNeeded should extend the previous summary incrementally"() {
+        given: "a conversation already summarized through message 20"
+        conversation.summaryMessageId = 21L
+        conversation.summarizedThroughCreatedAt = at(20)
+        conversation.summarizedThroughMessageId = 20L
+        messageRepository.findById(21L) >> Optional.of(message(21L, "system", "Earlier summary"))
+        messageRepository.countTurnsAfter(3L, at(20), 20L) >> 14
+        def turns = (22..29).collect { i -> message(i as Long, "user", "Turn " + i) }
+
+        ChatCompletionRequest capturedRequest = null
+
+        when: "summarization is requested"
+        summaryService.summarizeIfNeeded(conversationId)
+
+        then: "only turns after the summarized range are read, capped per pass"
+        1 * messageRepository.findAfter(3L, at(20), 20L, { Pageable p -> p.pageSize == 10 }) >> turns
+
+        and: "the previous summary is included in the request"
+        1 * chatCompletionCache.createChatCompletion(_ as ChatCompletionRequest, false, _, _) >> { args ->
+            capturedRequest = args[0]
+            result("Updated summary")
+        }
+        capturedRequest.messages[1].content.contains("Current summary:\nEarlier summary")
+
+        and: "the summary is saved through the last folded turn"
+        1 * conversationService.saveSummary(conversationId, "Updated summary", at(29), 29L)
+    }
+
+    def "summarizeIfNeeded should advance the watermark to the newest folded turn, not the highest ID"() {
+        given: "turns whose IDs came from different nodes' sequence blocks"
+        messageRepository.countTurnsAfter(3L, NONE.createdAt(), 0L) >> 12
+        def turns = [51L, 52L, 3L, 4L, 101L, 102L, 5L, 6L].withIndex().collect { id, i ->
+            Message.builder().id(id).role(i % 2 ? "assistant" : "user").content("Turn " + i).createdAt(at(i)).build()
+        }
+        messageRepository.findAfter(3L, NONE.createdAt(), 0L, _) >> turns
+        chatCompletionCache.createChatCompletion(_, false, _, _) >> result("Summary")
+
+        when: "summarization is requested"
+        summaryService.summarizeIfNeeded(conversationId)
+
+        then: "the watermark is the keyset position of the last turn read"
+        1 * conversationService.saveSummary(conversationId, "Summary", at(7), 6L)
+    }
+
+    def "summarizeIfNeeded should swallow upstream failures"() {
+        given: "enough turns to trigger a pass"
+        messageRepository.countTurnsAfter(3L, NONE.createdAt(), 0L) >> 12
+        messageRepository.findAfter(_, _, _, _) >> [message(1L, "user", "Hi")]
+
+        and: "OpenAI fails"
+        chatCompletionCache.createChatCompletion(_, false, _, _) >> { throw new RuntimeException("API Error") }
+
+        when: "summarization is requested"
+        summaryService.summarizeIfNeeded(conversationId)
+
+        then: "no exception escapes and nothing is saved"
+        noExceptionThrown()
+        0 * conversationService.saveSummary(_, _, _, _)
+    }
+
+    def "summarizeIfNeeded should do nothing when disabled"() {
+        given: "summarization is disabled"
+        summaryService.enabled = false
+
+        when: "summarization is requested"
+        summaryService.summarizeIfNeeded(conversationId)
+
+        then: "nothing is read"
+        0 * messageRepository._
+        0 * chatCompletionCache._
+    }
+
+    def "validate should reject keeping as many recent turns as trigger a pass"() {
+        given: "a kept tail as large as the threshold"
+        summaryService.keepRecentMessages = keepRecent
+
+        when: "the configuration is validated"
+        summaryService.validate()
+
+        then: "startup fails"
+        thrown(IllegalStateException)
+
+        where:
+        keepRecent << [12, 20, -1]
+    }
+
+    def "validate should accept any configuration while disabled"() {
+        given: "an invalid configuration with summarization disabled"
+        summaryService.enabled = false
+        summaryService.keepRecentMessages = 12
+
+        when: "the configuration is validated"
+        summaryService.validate()
+
+        then: "startup proceeds"
+        noExceptionThrown()
+    }
+
+    def "summaries should go to the routed model and fall back like chat replies"() {
+        given: "two routed models, the first one unavailable"
+        routing.models = [new ModelRoutingProperties.Model(name: "primary"),
+                          new ModelRoutingProperties.Model(name: "secondary")]
+        summaryService = summaryService()
+        messageRepository.countTurnsAfter(3L, NONE.createdAt(), 0L) >> 12
+        messageRepository.findAfter(_, _, _, _) >> [message(1L, "user", "Hi")]
+        def models = []
+
+        when: "summarization is requested"
+        summaryService.summarizeIfNeeded(conversationId)
+
+        then: "the primary fails over to the secondary, which writes the summary"
+        2 * chatCompletionCache.createChatCompletion(_ as ChatCompletionRequest, false, _, _) >> { args ->
+            models << args[0].model
+            if (args[0].model == "primary") {
+                assert args[3]
+                throw new UpstreamUnavailableException(Duration.ofSeconds(30))
+            }
+            assert !args[3]
+            result("Summary")
+        }
+        models == ["primary", "secondary"]
+        1 * conversationService.saveSummary(conversationId, "Summary", _, 1L)
+    }
+
+    private ConversationSummaryService summaryService() {
+        def router = new ModelRouter(Mock(OpenAiService), new OkHttpClient(), new UpstreamScheduler(meterRegistry),
+                routing, meterRegistry)
+        router.defaultModel = "gpt-3.5-turbo"
+        router.baseUrl = "http://openai.test/"
+        router.init()
+        def readYourWrites = new ReadYourWrites()
+        def service = new ConversationSummaryService(chatCompletionCache, router,
+                new ContextAssemblyService(conversationRepository, messageRepository, readYourWrites,
+                        Mock(ConversationArchiveService)),
+                conversationService, conversationRepository, messageRepository, readYourWrites)
+        service.enabled = true
+        service.thresholdMessages = 12
+        service.keepRecentMessages = 4
+        service.summaryMaxTokens = 400
+        service
+    }
+
+    private static Message message(Long id, String role, String content) {
+        Message.builder().id(id).role(role).content(content).createdAt(at(id)).build()
+    }
+
+    private static LocalDateTime at(long seconds) {
+        T0.plusSeconds(seconds)
+    }
+
+    private static ChatCompletionResult result(String content) {
+        def choice = new ChatCompletionChoice()
+        choice.setMessage(new ChatMessage("assistant", content))
+        def result = new ChatCompletionResult()
+        result.setChoices([choice])
+        return result
+    }
+}
@@ -0,0 +1,157 @@
+package com.openai.chatbot.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.openai.chatbot.compression.MessageContentCodec
+import com.openai.chatbot.repository.ConversationRepository
+import com.openai.chatbot.support.MessageCorpus
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.test.context.TestPropertySource
+import spock.lang.Specification
+
+import java.sql.Timestamp
+import java.time.LocalDateTime
+
+/**
+ * Integration tests for compressed message storage and its background job against the test H2 database.
+ */
+@SpringBootTest
+@ContextConfiguration
+@ActiveProfiles("test")
+@TestPropertySource(properties = "chat.conversation-cache.enabled=false")
+class MessageCompressionJobSpec extends Specification {
+
+    @Autowired
+    MessageCompressionJob messageCompressionJob
+
+    @Autowired
+    MessageContentCodec messageContentCodec
+
+    @Autowired
+    ConversationService conversationService
+
+    @Autowired
+    ConversationArchiveService conversationArchiveService
+
+    @Autowired
+    ConversationExportService conversationExportService
+
+    @Autowired
+    ConversationRepository conversationRepository
+
+    @Autowired
+    JdbcTemplate jdbcTemplate
+
+    @Autowired
+    ObjectMapper objectMapper
+
+    MessageCorpus corpus = new MessageCorpus()
+
+    def "large replies should be stored compressed and read back transparently"() {
+        given:
+        def reply = corpus.reply() * 2
+        def conversationId = conversationService.createConversation(UUID.randomUUID()).publicId
+
+        when:
+        conversationService.saveMessagePair(conversationId, "Explain it", reply)
+
+        then: "the short question stays text and the reply is compressed"
+        def rows = rows(conversationId)
+        rows[0].content == "Explain it"
+        rows[0].content_compressed == null
+        rows[1].content == null
+        rows[1].content_compressed.length < reply.length() / 2
+
+        and: "readers see the original text"
+        conversationService.getConversationById(conversationId).messages*.content == ["Explain it", reply]
+        conversationService.getMessages(conversationId, null, null, 10).messages*.content == ["Explain it", reply]
+    }
+
+    def "the backfill should compress existing text rows and leave short ones alone"() {
+        given: "rows written as text before compression was enabled"
+        def conversationId = conversationService.createConversation(UUID.randomUUID()).publicId
+        def replies = corpus.replies(3).collect { it * 2 }
+        insertText(conversationId, ["Short question"] + replies)
+
+        when:
+        messageCompressionJob.backfill()
+
+        then:
+        def rows = rows(conversationId)
+        rows[0].content == "Short question"
+        rows[1..3].every { it.content == null && it.content_compressed != null }
+        conversationService.getConversationById(conversationId).messages*.content == ["Short question"] + replies
+    }
+
+    def "a dictionary trained on recent messages should be used for new replies"() {
+        given: "enough recent replies to train on"
+        def conversationId = conversationService.createConversation(UUID.randomUUID()).publicId
+        insertText(conversationId, corpus.replies(MessageCompressionJob.MIN_TRAINING_SAMPLES))
+
+        when:
+        def trained = messageCompressionJob.trainDictionary()
+        def reply = corpus.reply() * 2
+        conversationService.saveMessagePair(conversationId, "Once more", reply)
+
+        then:
+        trained
+        messageContentCodec.currentDictionaryId > 0
+        def stored = rows(conversationId).last()
+        stored.content_compressed[1..4] == [0, 0, 0, messageContentCodec.currentDictionaryId]
+        conversationService.getMessages(conversationId, null, null, 1).messages*.content == [reply]
+    }
+
+    def "compressed replies should survive summary rewrites, archiving and export"() {
+        given: "a conversation with a compressed reply and a long summary"
+        def user = UUID.randomUUID()
+        def reply = corpus.reply() * 2
+        def summary = corpus.reply() * 2
+        def conversationId = conversationService.createConversation(user).publicId
+        conversationService.saveMessagePair(conversationId, "Explain it", reply)
+        conversationService.saveSummary(conversationId, "Short summary", null)
+        conversationService.saveSummary(conversationId, summary, null)
+
+        when: "it is archived, exported and rehydrated"
+        jdbcTemplate.update("UPDATE conversations SET updated_at = ? WHERE public_id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(100)), conversationId)
+        conversationArchiveService.archive(idOf(conversationId), LocalDateTime.now().minusDays(90))
+        def out = new ByteArrayOutputStream()
+        conversationExportService.exportUserHistory(user, out)
+        def exported = out.toString("UTF-8").readLines().collect { objectMapper.readValue(it, Map) }
+        def detail = conversationService.getConversationById(conversationId)
+
+        then: "the rewritten summary is compressed"
+        def summaryRow = jdbcTemplate.queryForMap("SELECT content, content_compressed FROM messages WHERE id = " +
+                "(SELECT summary_message_id FROM conversations WHERE public_id = ?)", conversationId)
+        summaryRow.content == null
+        messageContentCodec.decompress(summaryRow.content_compressed) == summary
+
+        and: "the export and the rehydrated conversation have the original text"
+        exported.findAll { it.type == "message" && it.role != "system" }*.content == ["Explain it", reply]
+        exported.find { it.role == "system" }.content == summary
+        detail.messages*.content == ["Explain it", reply]
+        rows(conversationId).find { it.role == "assistant" }.content == null
+    }
+
+    private List<Map<String, Object>> rows(UUID conversationId) {
+        jdbcTemplate.queryForList("SELECT role, content, content_compressed FROM messages " +
+                "WHERE conversation_id = ? ORDER BY created_at, id", idOf(conversationId))
+    }
+
+    private void insertText(UUID conversationId, List<String> contents) {
+        def id = idOf(conversationId)
+        def now = LocalDateTime.now()
+        def rows = contents.withIndex().collect { content, i ->
+            [id, i % 2 ? "assistant" : "user", content, Timestamp.valueOf(now.plusNanos(i * 1000))] as Object[]
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO messages (conversation_id, role, content, created_at) VALUES (?, ?, ?, ?)", rows)
+    }
+
+    private Long idOf(UUID conversationId) {
+        conversationRepository.findIdByPublicId(conversationId).get()
+    }
+}
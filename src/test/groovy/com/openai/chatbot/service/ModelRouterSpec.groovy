@@ -0,0 +1,199 @@
+package com.openai.chatbot.service
+
+import com.openai.chatbot.config.ModelRoutingProperties
+import com.openai.chatbot.exception.ChatServiceException
+import com.openai.chatbot.exception.UpstreamUnavailableException
+import com.theokanning.openai.service.OpenAiService
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import okhttp3.OkHttpClient
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Unit tests for ModelRouter.
+ */
+class ModelRouterSpec extends Specification {
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    OpenAiService openAiService = Mock()
+
+    def "without configured models every request goes to the default model"() {
+        given:
+        def router = router(new ModelRoutingProperties())
+
+        when:
+        def routed = router.execute({ 100_000 }) { route, hasFallback -> route.model() }
+
+        then:
+        routed.value() == "gpt-3.5-turbo"
+        routed.route().client().is(openAiService)
+    }
+
+    def "prompts should go to the first model whose prompt limit fits"() {
+        given:
+        def router = router(properties(
+                new ModelRoutingProperties.Model(name: "small", maxPromptTokens: 1000),
+                new ModelRoutingProperties.Model(name: "large")))
+
+        expect:
+        router.execute({ tokens }) { route, hasFallback -> route.model() }.value() == model
+
+        where:
+        tokens || model
+        10     || "small"
+        1000   || "small"
+        1001   || "large"
+    }
+
+    def "a failed model should fall back to the next one and be counted"() {
+        given:
+        def router = router(properties(
+                new ModelRoutingProperties.Model(name: "primary"),
+                new ModelRoutingProperties.Model(name: "secondary")))
+
+        when:
+        def routed = router.execute({ 10 }) { route, hasFallback ->
+            if (route.model() == "primary") {
+                throw new UpstreamUnavailableException(Duration.ofSeconds(30))
+            }
+            "answered"
+        }
+
+        then:
+        routed.value() == "answered"
+        routed.route().model() == "secondary"
+        meterRegistry.get("chat.routing.fallbacks").tag("model", "primary").counter().count() == 1
+        meterRegistry.get("chat.routing.requests").tag("model", "secondary").counter().count() == 1
+    }
+
+    def "errors that another model would not fix should not fall back"() {
+        given:
+        def router = router(properties(
+                new ModelRoutingProperties.Model(name: "primary"),
+                new ModelRoutingProperties.Model(name: "secondary")))
+        def models = []
+
+        when:
+        router.execute({ 10 }) { route, hasFallback ->
+            models << route.model()
+            throw new ChatServiceException("Bad request")
+        }
+
+        then:
+        thrown(ChatServiceException)
+        models == ["primary"]
+    }
+
+    def "a saturated model should be skipped while it is at its in-flight limit"() {
+        given: "a primary that takes one call at a time, busy with a blocked call"
+        def router = router(properties(
+                new ModelRoutingProperties.Model(name: "primary", maxInFlight: 1),
+                new ModelRoutingProperties.Model(name: "secondary")))
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def executor = Executors.newVirtualThreadPerTaskExecutor()
+        def blocked = executor.submit({
+            router.execute({ 10 }) { route, hasFallback -> started.countDown(); release.await(); route.model() }
+        } as Callable)
+        started.await(5, TimeUnit.SECONDS)
+
+        when:
+        def routed = router.execute({ 10 }) { route, hasFallback -> route.model() }
+
+        then:
+        routed.value() == "secondary"
+
+        cleanup:
+        release.countDown()
+        blocked.get(5, TimeUnit.SECONDS)
+        executor.shutdown()
+    }
+
+    def "a slow model should be skipped except for a periodic probe"() {
+        given: "a primary whose latency is over its threshold"
+        def routing = properties(
+                new ModelRoutingProperties.Model(name: "primary", slowThreshold: Duration.ofMillis(20)),
+                new ModelRoutingProperties.Model(name: "secondary"))
+        routing.probeInterval = Duration.ofMillis(300)
+        def router = router(routing)
+        router.select({ 10 }).recordLatency(TimeUnit.MILLISECONDS.toNanos(50))
+
+        expect: "the next requests go to the secondary"
+        router.execute({ 10 }) { route, hasFallback -> route.model() }.value() == "secondary"
+        router.execute({ 10 }) { route, hasFallback -> route.model() }.value() == "secondary"
+
+        when: "the probe interval passes"
+        Thread.sleep(350)
+
+        then: "one request probes the primary, whose fast answer brings its average down"
+        router.execute({ 10 }) { route, hasFallback -> route.model() }.value() == "primary"
+    }
+
+    def "prompt limits should be checked against each model's own token count"() {
+        given: "the same prompt counted differently by the two models"
+        def router = router(properties(
+                new ModelRoutingProperties.Model(name: "small", maxPromptTokens: 1000),
+                new ModelRoutingProperties.Model(name: "large")))
+        def counts = [small: 1200, large: 1000]
+
+        expect: "it only fits the large model"
+        router.execute({ model -> counts[model] }) { route, hasFallback -> route.model() }.value() == "large"
+    }
+
+    def "each call should be told whether another candidate is left"() {
+        given:
+        def router = router(properties(
+                new ModelRoutingProperties.Model(name: "primary"),
+                new ModelRoutingProperties.Model(name: "secondary")))
+        def calls = []
+
+        when:
+        router.execute({ 10 }) { route, hasFallback ->
+            calls << [route.model(), hasFallback]
+            if (route.model() == "primary") {
+                throw new UpstreamUnavailableException(Duration.ofSeconds(30))
+            }
+            "answered"
+        }
+
+        then:
+        calls == [["primary", true], ["secondary", false]]
+    }
+
+    def "routes should get their own scheduler lane per model and endpoint"() {
+        given:
+        def router = router(properties(
+                new ModelRoutingProperties.Model(name: "gpt-3.5-turbo"),
+                new ModelRoutingProperties.Model(name: "gpt-4o", baseUrl: "http://fallback.test/", apiKey: "key")))
+        def lanes = []
+
+        when:
+        router.execute({ 10 }) { route, hasFallback ->
+            lanes << route.lane()
+            throw new UpstreamUnavailableException(Duration.ofSeconds(30))
+        }
+
+        then: "the default model shares the default client, the other has its own"
+        thrown(UpstreamUnavailableException)
+        lanes == ["gpt-3.5-turbo@http://openai.test/", "gpt-4o@http://fallback.test/"]
+        router.select({ 10 }).client().is(openAiService)
+    }
+
+    private ModelRouter router(ModelRoutingProperties routing) {
+        def router = new ModelRouter(openAiService, new OkHttpClient(), new UpstreamScheduler(meterRegistry), routing,
+                meterRegistry)
+        router.defaultModel = "gpt-3.5-turbo"
+        router.baseUrl = "http://openai.test/"
+        router.init()
+        router
+    }
+
+    private static ModelRoutingProperties properties(ModelRoutingProperties.Model... models) {
+        new ModelRoutingProperties(models: models as List)
+    }
+}
@@ -0,0 +1,14 @@
+package com.openai.chatbot.service
+
+import org.springframework.test.context.TestPropertySource
+
+/**
+ * Runs the ConversationService integration features against the PostgreSQL migration set and dialect,
+ * on H2 in PostgreSQL compatibility mode as an embedded stand-in for a PostgreSQL server.
+ */
+@TestPropertySource(properties = [
+        "spring.datasource.url=jdbc:h2:mem:pgtestdb;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1",
+        "spring.flyway.locations=classpath:db/migration/postgresql",
+        "spring.jpa.database-platform=org.hibernate.dialect.PostgreSQLDialect"])
+class PostgresModeConversationServiceIntegrationSpec extends ConversationServiceIntegrationSpec {
+}
@@ -0,0 +1,86 @@
+package com.openai.chatbot.service
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
+
+/**
+ * Unit tests for SingleFlight using Spock framework.
+ */
+class SingleFlightSpec extends Specification {
+
+    @Subject
+    SingleFlight<String, String> singleFlight = new SingleFlight<>()
+
+    def "concurrent calls with the same key should share one execution"() {
+        given: "a slow call and callers released together"
+        def executions = new AtomicInteger()
+        def start = new CountDownLatch(1)
+        Supplier<String> call = {
+            executions.incrementAndGet()
+            Thread.sleep(300)
+            "result"
+        }
+        def executor = Executors.newFixedThreadPool(8)
+
+        when: "eight callers execute the same key at once"
+        def futures = (1..8).collect {
+            executor.submit({ start.await(); singleFlight.execute("key", call) } as java.util.concurrent.Callable)
+        }
+        start.countDown()
+        def outcomes = futures*.get(5, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        then: "the call runs once and everyone gets its result"
+        executions.get() == 1
+        outcomes*.value().every { it == "result" }
+        outcomes.count { !it.shared() } == 1
+        singleFlight.inFlightCount() == 0
+    }
+
+    def "calls with different keys should not be coalesced"() {
+        when: "two keys are executed"
+        def first = singleFlight.execute("a", { "A" } as Supplier)
+        def second = singleFlight.execute("b", { "B" } as Supplier)
+
+        then: "each runs its own call"
+        first.value() == "A" && !first.shared()
+        second.value() == "B" && !second.shared()
+    }
+
+    def "a failed call should fail every waiting caller and not be remembered"() {
+        given: "a slow failing call"
+        def start = new CountDownLatch(1)
+        Supplier<String> failing = {
+            Thread.sleep(300)
+            throw new IllegalStateException("upstream down")
+        }
+        def executor = Executors.newFixedThreadPool(4)
+
+        when: "four callers execute it at once"
+        def futures = (1..4).collect {
+            executor.submit({ start.await(); singleFlight.execute("key", failing) } as java.util.concurrent.Callable)
+        }
+        start.countDown()
+        def errors = futures.collect { future ->
+            try {
+                future.get(5, TimeUnit.SECONDS)
+                null
+            } catch (java.util.concurrent.ExecutionException ex) {
+                ex.cause
+            }
+        }
+        executor.shutdown()
+
+        then: "every caller sees the upstream exception"
+        errors.every { it instanceof IllegalStateException && it.message == "upstream down" }
+
+        and: "the next call runs afresh"
+        singleFlight.execute("key", { "recovered" } as Supplier).value() == "recovered"
+    }
+}
@@ -0,0 +1,280 @@
+package com.openai.chatbot.service
+
+import com.openai.chatbot.config.OpenAiConfig
+import com.openai.chatbot.exception.UpstreamUnavailableException
+import com.openai.chatbot.support.OpenAiStubServer
+import com.theokanning.openai.OpenAiHttpException
+import com.theokanning.openai.completion.chat.ChatCompletionRequest
+import com.theokanning.openai.completion.chat.ChatMessage
+import com.theokanning.openai.service.OpenAiService
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.micrometer.observation.ObservationRegistry
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for UpstreamResilience against a local fault-injecting OpenAI stub.
+ */
+class UpstreamResilienceSpec extends Specification {
+
+    @AutoCleanup
+    OpenAiStubServer stub = OpenAiStubServer.start()
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    UpstreamResilience resilience = new UpstreamResilience(meterRegistry)
+    OpenAiService openAiService
+
+    def setup() {
+        def config = new OpenAiConfig()
+        config.apiKey = "test-api-key"
+        config.baseUrl = stub.baseUrl
+        config.model = "gpt-3.5-turbo"
+        config.connectTimeout = Duration.ofSeconds(2)
+        config.readTimeout = Duration.ofSeconds(2)
+        config.writeTimeout = Duration.ofSeconds(2)
+        config.maxIdleConnections = 8
+        config.keepAlive = Duration.ofMinutes(1)
+        config.maxRequests = 64
+        config.maxRequestsPerHost = 64
+        def scheduler = new UpstreamScheduler(meterRegistry)
+        scheduler.enabled = false
+        openAiService = config.openAiService(config.openAiHttpClient(scheduler, ObservationRegistry.NOOP))
+
+        resilience.enabled = true
+        resilience.maxAttempts = 3
+        resilience.initialBackoff = Duration.ofMillis(20)
+        resilience.maxBackoff = Duration.ofMillis(100)
+        resilience.budgetRatio = 0.2
+        resilience.budgetMax = 10
+        resilience.hedgeEnabled = false
+        resilience.hedgePercentile = 0.95
+        resilience.hedgeMinDelay = Duration.ofMillis(50)
+        resilience.hedgeMinSamples = 10
+        resilience.circuitWindowSize = 10
+        resilience.circuitMinimumCalls = 5
+        resilience.circuitFailureRateThreshold = 0.5
+        resilience.circuitOpenDuration = Duration.ofSeconds(30)
+        resilience.circuitHalfOpenCalls = 1
+    }
+
+    def cleanup() {
+        resilience.shutdown()
+        openAiService.shutdownExecutor()
+    }
+
+    def "transient failures should be retried until a call succeeds"() {
+        given:
+        resilience.init()
+        stub.failNext(2, 503)
+
+        when:
+        def result = complete()
+
+        then: "the third attempt answered"
+        result.choices[0].message.content == "Stub reply"
+        stub.requests.get() == 3
+        meterRegistry.get("chat.upstream.retries").counter().count() == 2
+    }
+
+    def "retries should stop after the maximum number of attempts"() {
+        given:
+        resilience.init()
+        stub.failNext(5, 502)
+
+        when:
+        complete()
+
+        then:
+        def ex = thrown(OpenAiHttpException)
+        ex.statusCode == 502
+        stub.requests.get() == 3
+    }
+
+    def "client errors should not be retried"() {
+        given:
+        resilience.init()
+        stub.failNext(1, 400)
+
+        when:
+        complete()
+
+        then:
+        thrown(OpenAiHttpException)
+        stub.requests.get() == 1
+    }
+
+    def "read timeouts should be retried"() {
+        given:
+        resilience.init()
+        stub.delayNext(1, 3000)
+
+        when:
+        def result = complete()
+
+        then:
+        result.choices[0].message.content == "Stub reply"
+        stub.requests.get() == 2
+    }
+
+    def "retries should stop when the retry budget is spent"() {
+        given: "a budget of two retries that earns nothing back"
+        resilience.budgetMax = 2
+        resilience.budgetRatio = 0
+        resilience.circuitMinimumCalls = 10
+        resilience.init()
+        stub.failNext(10, 503)
+
+        when: "a call keeps failing"
+        complete()
+
+        then: "it is retried twice"
+        thrown(OpenAiHttpException)
+        stub.requests.get() == 3
+
+        when: "another call fails"
+        complete()
+
+        then: "it is not retried"
+        thrown(OpenAiHttpException)
+        stub.requests.get() == 4
+    }
+
+    def "the circuit should open while OpenAI is failing and fail fast without calling it"() {
+        given:
+        resilience.maxAttempts = 1
+        resilience.init()
+        stub.failNext(5, 500)
+
+        when: "enough calls fail"
+        5.times {
+            try {
+                complete()
+            } catch (OpenAiHttpException ignored) {
+            }
+        }
+
+        then: "the circuit is open"
+        resilience.circuitState("gpt-3.5-turbo") == CircuitBreaker.State.OPEN
+        meterRegistry.get("chat.upstream.circuit.state").gauge().value() == 2
+
+        when: "another call is made"
+        complete()
+
+        then: "it fails fast with the time until OpenAI is tried again"
+        def ex = thrown(UpstreamUnavailableException)
+        ex.retryAfter.seconds > 25
+        stub.requests.get() == 5
+        meterRegistry.get("chat.upstream.circuit.rejected").counter().count() == 1
+    }
+
+    def "a call slower than the observed p95 should be hedged"() {
+        given: "hedging on, with latency observed on fast calls"
+        resilience.hedgeEnabled = true
+        resilience.init()
+        10.times { complete() }
+
+        and: "the next call is stuck for two seconds"
+        stub.delayNext(1, 1500)
+
+        when:
+        long start = System.currentTimeMillis()
+        def result = complete()
+        long elapsed = System.currentTimeMillis() - start
+
+        then: "the hedge answered long before the stuck call"
+        result.choices[0].message.content == "Stub reply"
+        elapsed < 1000
+        stub.requests.get() == 12
+        meterRegistry.get("chat.upstream.hedges").counter().count() == 1
+        meterRegistry.get("chat.upstream.hedge.wins").counter().count() == 1
+    }
+
+    def "time spent before dispatch should neither trigger a hedge nor count as latency"() {
+        given: "hedging on, with latency observed on fast calls"
+        resilience.hedgeEnabled = true
+        resilience.init()
+        10.times { complete() }
+
+        when: "a call waits 300 ms for the scheduler before it is dispatched and then answers quickly"
+        def result = resilience.execute("gpt-3.5-turbo") { attempt ->
+            Thread.sleep(300)
+            attempt.dispatched()
+            "ok"
+        }
+
+        then: "it was not hedged"
+        result == "ok"
+        meterRegistry.get("chat.upstream.hedges").counter().count() == 0
+
+        and: "the wait is not in the latency samples"
+        meterRegistry.get("chat.upstream.latency").timer().max(TimeUnit.MILLISECONDS) < 300
+    }
+
+    def "the losing attempt should be cancelled and not count against the circuit"() {
+        given: "hedging on, with latency observed on fast calls"
+        resilience.hedgeEnabled = true
+        resilience.circuitMinimumCalls = 1
+        resilience.circuitFailureRateThreshold = 0.01
+        resilience.init()
+        10.times { complete() }
+        def interrupted = new CountDownLatch(1)
+        def calls = 0
+
+        when: "the first attempt hangs and the hedge answers"
+        def result = resilience.execute("gpt-3.5-turbo") { attempt ->
+            attempt.dispatched()
+            if (++calls == 1) {
+                try {
+                    Thread.sleep(5000)
+                } catch (InterruptedException ex) {
+                    interrupted.countDown()
+                    throw new UncheckedIOException(new IOException("cancelled", ex))
+                }
+            }
+            "hedge"
+        }
+
+        then: "the hedge's reply is used and the hanging attempt is interrupted"
+        result == "hedge"
+        interrupted.await(2, TimeUnit.SECONDS)
+
+        and: "its failure is ignored by the circuit breaker"
+        resilience.circuitState("gpt-3.5-turbo") == CircuitBreaker.State.CLOSED
+    }
+
+    def "circuit breakers should be kept per upstream"() {
+        given: "the breaker of one upstream opened by failures"
+        resilience.maxAttempts = 1
+        resilience.init()
+        stub.failNext(5, 500)
+        5.times {
+            try {
+                complete()
+            } catch (OpenAiHttpException ignored) {
+            }
+        }
+
+        when: "another upstream is called"
+        def result = resilience.execute("gpt-4o@http://fallback.test/") { attempt -> "answered" }
+
+        then: "its breaker is unaffected"
+        result == "answered"
+        resilience.circuitState("gpt-3.5-turbo") == CircuitBreaker.State.OPEN
+        resilience.circuitState("gpt-4o@http://fallback.test/") == CircuitBreaker.State.CLOSED
+    }
+
+    private def complete() {
+        def request = ChatCompletionRequest.builder()
+                .model("gpt-3.5-turbo")
+                .messages([new ChatMessage("user", "Hello")])
+                .build()
+        resilience.execute("gpt-3.5-turbo") { attempt ->
+            attempt.dispatched()
+            openAiService.createChatCompletion(request)
+        }
+    }
+}
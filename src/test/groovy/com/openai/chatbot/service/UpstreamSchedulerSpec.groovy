@@ -0,0 +1,309 @@
+package com.openai.chatbot.service
+
+import com.openai.chatbot.exception.ChatOverloadedException
+import com.theokanning.openai.OpenAiError
+import com.theokanning.openai.OpenAiHttpException
+import com.theokanning.openai.completion.chat.ChatCompletionRequest
+import com.theokanning.openai.completion.chat.ChatMessage
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import okhttp3.Headers
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Unit tests for UpstreamScheduler.
+ */
+class UpstreamSchedulerSpec extends Specification {
+
+    static final String LANE = UpstreamScheduler.lane("gpt-3.5-turbo", "http://openai.test/")
+    static final String OTHER_LANE = UpstreamScheduler.lane("gpt-4o", "http://fallback.test/")
+
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry()
+    UpstreamScheduler scheduler = new UpstreamScheduler(meterRegistry)
+
+    def setup() {
+        scheduler.enabled = true
+        scheduler.initialLimit = 8
+        scheduler.minLimit = 1
+        scheduler.maxLimit = 64
+        scheduler.backoffRatio = 0.5
+        scheduler.requestsPerMinute = 0
+        scheduler.tokensPerMinute = 0
+        scheduler.queueTimeout = Duration.ofSeconds(5)
+        scheduler.throttlePause = Duration.ofMillis(50)
+        scheduler.fallbackWait = Duration.ofMillis(100)
+        scheduler.retryAfter = Duration.ofSeconds(2)
+    }
+
+    def "execute should run the call and grow the limit while it is in use"() {
+        given:
+        scheduler.initialLimit = 2
+
+        when: "several calls succeed"
+        def results = (1..10).collect { i -> scheduler.execute(LANE, request()) { "ok " + i } }
+
+        then: "each result is returned and the limit has grown"
+        results.last() == "ok 10"
+        scheduler.getLimit(LANE) > 2
+        meterRegistry.get("chat.upstream.limit").gauge().value() == scheduler.getLimit(LANE)
+    }
+
+    def "a 429 should cut the limit and retry the call after a pause"() {
+        given:
+        def attempts = new AtomicInteger()
+
+        when: "the first attempt is throttled"
+        long start = System.nanoTime()
+        def result = scheduler.execute(LANE, request()) {
+            if (attempts.incrementAndGet() == 1) {
+                throw throttled("rate_limit_exceeded")
+            }
+            "ok"
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then: "the call is retried and succeeds"
+        result == "ok"
+        attempts.get() == 2
+        elapsedMs >= 50
+
+        and: "the limit was halved before the retry succeeded"
+        scheduler.getLimit(LANE) < 5
+        meterRegistry.get("chat.upstream.throttled").counter().count() == 1
+    }
+
+    def "a 429 for an exhausted quota should not be retried"() {
+        given:
+        def attempts = new AtomicInteger()
+
+        when:
+        scheduler.execute(LANE, request()) { attempts.incrementAndGet(); throw throttled("insufficient_quota") }
+
+        then:
+        thrown(OpenAiHttpException)
+        attempts.get() == 1
+    }
+
+    def "calls beyond the limit should wait and be rejected once their queue deadline passes"() {
+        given: "a limit of one, taken by a blocked call"
+        scheduler.initialLimit = 1
+        scheduler.maxLimit = 1
+        scheduler.queueTimeout = Duration.ofMillis(200)
+        def release = new CountDownLatch(1)
+        def executor = Executors.newVirtualThreadPerTaskExecutor()
+        def blocked = executor.submit({ scheduler.execute(LANE, request()) { release.await(); "first" } } as Callable)
+        while (scheduler.getInFlight(LANE) == 0) {
+            Thread.sleep(5)
+        }
+
+        when: "another call arrives"
+        scheduler.execute(LANE, request()) { "second" }
+
+        then: "it is rejected after waiting out its deadline"
+        def ex = thrown(ChatOverloadedException)
+        ex.retryAfter == Duration.ofSeconds(2)
+        meterRegistry.get("chat.upstream.rejected").counter().count() == 1
+
+        cleanup:
+        release.countDown()
+        blocked.get(5, TimeUnit.SECONDS)
+        executor.shutdown()
+    }
+
+    def "concurrent calls should never exceed the limit"() {
+        given:
+        scheduler.initialLimit = 3
+        scheduler.maxLimit = 3
+        def inFlight = new AtomicInteger()
+        def peak = new AtomicInteger()
+        def executor = Executors.newVirtualThreadPerTaskExecutor()
+
+        when: "twelve calls are made at once"
+        def calls = (1..12).collect {
+            {
+                ->
+                scheduler.execute(LANE, request()) {
+                    peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max)
+                    Thread.sleep(50)
+                    inFlight.decrementAndGet()
+                }
+            } as Callable
+        }
+        executor.invokeAll(calls)*.get(10, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        then:
+        peak.get() == 3
+    }
+
+    def "an exhausted request budget should pause dispatch until it resets"() {
+        given:
+
+        when: "OpenAI reports no requests left for the next 300ms"
+        scheduler.onResponseHeaders(LANE, Headers.of(
+                "x-ratelimit-limit-requests", "60",
+                "x-ratelimit-remaining-requests", "0",
+                "x-ratelimit-reset-requests", "300ms"))
+        long start = System.nanoTime()
+        scheduler.execute(LANE, request()) { "ok" }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then: "the call waited for the reset"
+        elapsedMs >= 250
+    }
+
+    def "a Retry-After header should pause dispatch"() {
+        given:
+
+        when:
+        scheduler.onResponseHeaders(LANE, Headers.of("retry-after-ms", "200"))
+        long start = System.nanoTime()
+        scheduler.execute(LANE, request()) { "ok" }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then:
+        elapsedMs >= 150
+    }
+
+    def "tryExecute should run the call when it can be dispatched right away"() {
+        given:
+
+        when:
+        def result = scheduler.tryExecute(LANE, 10) { "embedded" }
+
+        then:
+        result == Optional.of("embedded")
+        scheduler.getInFlight(LANE) == 0
+    }
+
+    def "tryExecute should skip the call instead of waiting while dispatch is paused or the limit is taken"() {
+        given: "a limit of one"
+        scheduler.initialLimit = 1
+        scheduler.maxLimit = 1
+        def calls = new AtomicInteger()
+
+        when: "dispatch is paused by a Retry-After"
+        scheduler.onResponseHeaders(LANE, Headers.of("retry-after-ms", "5000"))
+        def paused = scheduler.tryExecute(LANE, 10) { calls.incrementAndGet() }
+
+        then:
+        paused.isEmpty()
+
+        when: "the only slot of another lane is taken instead"
+        def release = new CountDownLatch(1)
+        def executor = Executors.newVirtualThreadPerTaskExecutor()
+        def blocked = executor.submit({ scheduler.execute(OTHER_LANE, request()) { release.await(); "first" } } as Callable)
+        while (scheduler.getInFlight(OTHER_LANE) == 0) {
+            Thread.sleep(5)
+        }
+        def busy = scheduler.tryExecute(OTHER_LANE, 10) { calls.incrementAndGet() }
+
+        then: "neither call ran and nothing was queued"
+        busy.isEmpty()
+        calls.get() == 0
+        scheduler.getQueued(OTHER_LANE) == 0
+
+        cleanup:
+        release.countDown()
+        blocked?.get(5, TimeUnit.SECONDS)
+        executor?.shutdown()
+    }
+
+    def "the token budget should pace requests once it is used up"() {
+        given: "a budget of 60000 tokens per minute, i.e. 1000 per second, reported as used up"
+        scheduler.onResponseHeaders(LANE, Headers.of(
+                "x-ratelimit-limit-tokens", "60000",
+                "x-ratelimit-remaining-tokens", "0"))
+
+        when: "a request of about 1000 tokens is made"
+        def large = ChatCompletionRequest.builder()
+                .model("gpt-3.5-turbo")
+                .messages([new ChatMessage("user", "x" * 4000)])
+                .build()
+        long start = System.nanoTime()
+        scheduler.execute(LANE, large) { "ok" }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then: "it waits for the bucket to refill"
+        elapsedMs >= 900
+    }
+
+    def "a call with a fallback should not be re-queued after a 429"() {
+        given:
+        def attempts = new AtomicInteger()
+
+        when: "the call is throttled"
+        scheduler.execute(LANE, request(), true) { attempts.incrementAndGet(); throw throttled("rate_limit_exceeded") }
+
+        then: "the 429 is handed back at once so the caller can go elsewhere, and still cuts the limit"
+        thrown(OpenAiHttpException)
+        attempts.get() == 1
+        scheduler.getLimit(LANE) == 4
+    }
+
+    def "a call with a fallback should only wait for dispatch until fallback-wait"() {
+        given: "a limit of one, taken by a blocked call"
+        scheduler.initialLimit = 1
+        scheduler.maxLimit = 1
+        def release = new CountDownLatch(1)
+        def executor = Executors.newVirtualThreadPerTaskExecutor()
+        def blocked = executor.submit({ scheduler.execute(LANE, request()) { release.await(); "first" } } as Callable)
+        while (scheduler.getInFlight(LANE) == 0) {
+            Thread.sleep(5)
+        }
+
+        when: "a call that can fall back arrives"
+        long start = System.nanoTime()
+        scheduler.execute(LANE, request(), true) { "second" }
+
+        then: "it gives up after fallback-wait rather than the queue timeout"
+        thrown(ChatOverloadedException)
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2_000
+
+        cleanup:
+        release.countDown()
+        blocked.get(5, TimeUnit.SECONDS)
+        executor.shutdown()
+    }
+
+    def "a throttled lane should not hold back calls on another lane"() {
+        when: "one lane is paused by a Retry-After"
+        scheduler.onResponseHeaders(LANE, Headers.of("retry-after-ms", "5000"))
+
+        then: "the other lane still dispatches right away"
+        scheduler.tryExecute(LANE, 10) { "paused" }.isEmpty()
+        scheduler.tryExecute(OTHER_LANE, 10) { "dispatched" } == Optional.of("dispatched")
+    }
+
+    def "parseDuration should read OpenAI reset durations"() {
+        expect:
+        UpstreamScheduler.parseDuration(value) == expected
+
+        where:
+        value    || expected
+        "20ms"   || Duration.ofMillis(20)
+        "1.5s"   || Duration.ofMillis(1500)
+        "6m0s"   || Duration.ofMinutes(6)
+        "1h2m3s" || Duration.ofSeconds(3723)
+        "soon"   || null
+        null     || null
+    }
+
+    private static ChatCompletionRequest request() {
+        ChatCompletionRequest.builder()
+                .model("gpt-3.5-turbo")
+                .messages([new ChatMessage("user", "Hello")])
+                .build()
+    }
+
+    private static OpenAiHttpException throttled(String code) {
+        new OpenAiHttpException(new OpenAiError(new OpenAiError.OpenAiErrorDetails("Slow down", "requests", null, code)),
+                null, 429)
+    }
+}
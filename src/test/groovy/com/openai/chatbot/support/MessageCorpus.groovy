@@ -0,0 +1,104 @@
+package com.openai.chatbot.support
+
+/**
+ * Generates assistant-style replies for compression tests: markdown prose and code built from a shared pool
+ * of phrases with varying identifiers and numbers, so replies repeat each other's boilerplate the way real
+ * answers do without repeating verbatim. Seeded, so runs are reproducible.
+ */
+class MessageCorpus {
+
+    private static final List<String> OPENINGS = [
+            "Great question! Here's a step-by-step explanation of how %s works.",
+            "Sure, I can help with that. Below is an example of configuring %s.",
+            "There are a few ways to approach %s, depending on your requirements.",
+            "Certainly! Let's walk through %s together, starting with the basics.",
+    ]
+
+    private static final List<String> SENTENCES = [
+            "First, make sure that the %s dependency is added to your project and that the version matches.",
+            "Keep in mind that %s is evaluated lazily, so errors may only appear when the value is first used.",
+            "If you run into performance issues, consider caching the result of %s instead of recomputing it.",
+            "In most cases, the default settings for %s are a reasonable starting point for production use.",
+            "Note that you should never store credentials for %s directly in your source code repository.",
+            "This approach scales well because %s only processes the records that have changed since the last run.",
+            "You can verify the configuration by running the tests and checking the logs for %s.",
+            "Let me know if you have any other questions or if you'd like me to explain %s in more detail!",
+    ]
+
+    private static final List<String> TOPICS = [
+            "the connection pool", "dependency injection", "the retry policy", "database migrations",
+            "the message queue", "request validation", "the cache layer", "pagination", "rate limiting",
+            "the scheduler", "error handling", "the HTTP client", "structured logging", "feature flags",
+    ]
+
+    private static final List<String> CODE = [
+            '''```java
+public class %1$sService {
+
+    private final %1$sRepository repository;
+
+    public %1$sService(%1$sRepository repository) {
+        this.repository = repository;
+    }
+
+    public List<%1$s> findAll(int limit) {
+        return repository.findAll(PageRequest.of(0, limit)).getContent();
+    }
+}
+```''',
+            '''```python
+def process_%2$s(items, batch_size=%3$d):
+    """Process items in batches and return the number processed."""
+    processed = 0
+    for i in range(0, len(items), batch_size):
+        batch = items[i:i + batch_size]
+        processed += handle_batch(batch)
+    return processed
+```''',
+            '''```yaml
+%2$s:
+  enabled: true
+  timeout: %3$ds
+  max-retries: 3
+```''',
+    ]
+
+    private final Random random
+
+    MessageCorpus(long seed = 42) {
+        this.random = new Random(seed)
+    }
+
+    /**
+     * Returns the given number of replies.
+     */
+    List<String> replies(int count) {
+        (1..count).collect { reply() }
+    }
+
+    /**
+     * Returns one reply of roughly one to four kilobytes.
+     */
+    String reply() {
+        def text = new StringBuilder(String.format(pick(OPENINGS), pick(TOPICS))).append("\n\n")
+        int paragraphs = 2 + random.nextInt(4)
+        paragraphs.times { p ->
+            (2 + random.nextInt(3)).times {
+                text.append(String.format(pick(SENTENCES), pick(TOPICS))).append(' ')
+            }
+            text.append("\n\n")
+            if (random.nextInt(3) == 0) {
+                def name = "Order${random.nextInt(1000)}"
+                text.append(String.format(pick(CODE), name, name.toLowerCase(), 10 + random.nextInt(90)))
+                        .append("\n\n")
+            }
+            text.append("${p + 1}. Step ${random.nextInt(10_000)}: ").append(pick(SENTENCES).replace('%s', pick(TOPICS)))
+                    .append("\n\n")
+        }
+        text.toString()
+    }
+
+    private String pick(List<String> values) {
+        values[random.nextInt(values.size())]
+    }
+}
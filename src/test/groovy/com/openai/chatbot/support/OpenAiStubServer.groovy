@@ -0,0 +1,135 @@
+package com.openai.chatbot.support
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Local stand-in for the OpenAI API, for tests and load tests that should exercise the real HTTP client.
+ * Answers {@code POST /v1/chat/completions} with a fixed reply after a configurable latency and records
+ * how many calls it served and how many were in flight at once; extra response headers (e.g. rate limits)
+ * can be set in {@link #responseHeaders}. Faults can be injected for the next calls with {@link #failNext}
+ * and {@link #delayNext}. Point {@code openai.base-url} at {@link #baseUrl}.
+ */
+class OpenAiStubServer implements AutoCloseable {
+
+    final HttpServer server
+    final AtomicInteger requests = new AtomicInteger()
+    final AtomicInteger inFlight = new AtomicInteger()
+    final AtomicInteger peakInFlight = new AtomicInteger()
+    final List<String> authorizations = new CopyOnWriteArrayList<>()
+    final List<String> traceparents = new CopyOnWriteArrayList<>()
+
+    final Map<String, String> responseHeaders = new ConcurrentHashMap<>()
+
+    volatile long latencyMs
+    volatile String reply = "Stub reply"
+
+    private final Queue<Fault> faults = new ConcurrentLinkedQueue<>()
+
+    /**
+     * Behaviour of one upcoming call: an error status (0 for a normal reply) and an extra delay.
+     */
+    private static class Fault {
+        final int status
+        final long delayMs
+
+        Fault(int status, long delayMs) {
+            this.status = status
+            this.delayMs = delayMs
+        }
+    }
+
+    private OpenAiStubServer(long latencyMs) {
+        this.latencyMs = latencyMs
+        server = HttpServer.create(new InetSocketAddress(InetAddress.loopbackAddress, 0), 0)
+        server.executor = Executors.newVirtualThreadPerTaskExecutor()
+        server.createContext("/v1/chat/completions") { HttpExchange exchange -> handleChatCompletion(exchange) }
+    }
+
+    /**
+     * Starts a stub on a free local port.
+     *
+     * @param latencyMs time each call takes before answering
+     */
+    static OpenAiStubServer start(long latencyMs = 0) {
+        def stub = new OpenAiStubServer(latencyMs)
+        stub.server.start()
+        stub
+    }
+
+    /**
+     * Makes the next calls answer with an OpenAI-style error.
+     *
+     * @param count  number of calls to fail
+     * @param status HTTP status to answer with, e.g. 503
+     */
+    void failNext(int count, int status) {
+        count.times { faults << new Fault(status, 0) }
+    }
+
+    /**
+     * Makes the next calls answer normally but only after an extra delay.
+     *
+     * @param count   number of calls to slow down
+     * @param delayMs extra delay per call
+     */
+    void delayNext(int count, long delayMs) {
+        count.times { faults << new Fault(0, delayMs) }
+    }
+
+    String getBaseUrl() {
+        "http://localhost:${server.address.port}/"
+    }
+
+    @Override
+    void close() {
+        server.stop(0)
+        (server.executor as java.util.concurrent.ExecutorService).shutdownNow()
+    }
+
+    private void handleChatCompletion(HttpExchange exchange) {
+        requests.incrementAndGet()
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max)
+        try {
+            authorizations << exchange.requestHeaders.getFirst("Authorization")
+            traceparents << exchange.requestHeaders.getFirst("traceparent")
+            exchange.requestBody.bytes
+            def fault = faults.poll()
+            long delay = latencyMs + (fault?.delayMs ?: 0)
+            if (delay > 0) {
+                Thread.sleep(delay)
+            }
+            if (fault != null && fault.status != 0) {
+                sendError(exchange, fault.status)
+                return
+            }
+            def body = """{"id":"chatcmpl-stub","object":"chat.completion","created":0,"model":"gpt-3.5-turbo",
+"choices":[{"index":0,"message":{"role":"assistant","content":"${reply}"},"finish_reason":"stop"}],
+"usage":{"prompt_tokens":1,"completion_tokens":1,"total_tokens":2}}""".getBytes(StandardCharsets.UTF_8)
+            exchange.responseHeaders.add("Content-Type", "application/json")
+            responseHeaders.each { name, value -> exchange.responseHeaders.add(name, value) }
+            exchange.sendResponseHeaders(200, body.length)
+            exchange.responseBody.withCloseable { it.write(body) }
+        } catch (IOException ignored) {
+            // Client gave up (e.g. read timeout)
+        } finally {
+            inFlight.decrementAndGet()
+            exchange.close()
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status) {
+        def body = '{"error":{"message":"Injected failure","type":"server_error","param":null,"code":null}}'
+                .getBytes(StandardCharsets.UTF_8)
+        exchange.responseHeaders.add("Content-Type", "application/json")
+        exchange.sendResponseHeaders(status, body.length)
+        exchange.responseBody.withCloseable { it.write(body) }
+    }
+}